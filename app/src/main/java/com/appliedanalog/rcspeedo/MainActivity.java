@@ -113,6 +113,10 @@ public class MainActivity extends AppCompatActivity
             @Override
             public void newSpeedDetected(DetectedSpeed aSpeedInMps) { }
             @Override
+            public void provisionalSpeedDetected(DetectedSpeed aSpeedInMps, double aConfidence) { }
+            @Override
+            public void provisionalSpeedRetracted(DetectedSpeed aSpeedInMps) { }
+            @Override
             public void highestSpeedChanged(DetectedSpeed aNewHighestSpeedMps) { }
             @Override
             public void speedInvalidated(DetectedSpeed aSpeed) { }
@@ -10,10 +10,18 @@ package com.appliedanalog.rcspeedo.controllers;
 import android.content.SharedPreferences;
 import android.util.Log;
 
+import com.appliedanalog.rcspeedo.BuildConfig;
 import com.appliedanalog.rcspeedo.controllers.data.DetectedSpeed;
 import com.appliedanalog.rcspeedo.doppler.AudioDoppler;
 import com.appliedanalog.rcspeedo.doppler.AudioDopplerConfiguration;
-
+import com.appliedanalog.rcspeedo.doppler.PresetClassifier;
+import com.appliedanalog.rcspeedo.doppler.ProvisionalSpeedSink;
+import com.appliedanalog.rcspeedo.doppler.SpeedSink;
+import com.appliedanalog.rcspeedo.doppler.TrendTracer;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 
 /**
@@ -25,8 +33,13 @@ public class DopplerController implements Runnable, SharedPreferences.OnSharedPr
 
     // Constants.
     static final String TAG = "DopplerController";
-    static final int SAMPLING_RATE = 22050; // Audio sampling rate in Hz
-    static final int FRAME_SIZE = 1024; // Number of audio samples per doppler frame.
+    static final int SAMPLING_RATE = 22050; // Rate audio is analyzed at in Hz. The mic captures at its own rate, which the doppler decimates to this one.
+    static final int FRAME_SIZE = 512; // Number of audio samples per doppler frame. Peaks are interpolated to sub-bin accuracy, so this can be small.
+    static final int TRACE_CAPACITY = 4096; // Number of trend events retained for exportTrace() in debug builds.
+    static final int AUTO_WINDOW_FRAMES = 128; // Number of frames, about 3 seconds, the auto mode judges the signal over.
+    static final int ESCALATION_FRAME_SIZE = 2048; // Frame size passes are re-analyzed with, see AudioDoppler.setEscalation().
+    static final float MIN_PEAK_SNR_DB = 10.f; // Margin peaks must stand above the noise floor by, see AudioDopplerConfiguration.setMinPeakSnr().
+    static final double PROVISIONAL_MIN_CONFIDENCE = .5; // Confidence provisional speeds need to be reported. Less confident ones are usually caught mid-sweep and read low.
 
     // Types.
 
@@ -47,11 +60,27 @@ public class DopplerController implements Runnable, SharedPreferences.OnSharedPr
         public void dopplerError(String aError);
 
         /**
-         * Called when a new speed is detected.
+         * Called when a new speed is detected. This is the final speed of a pass and replaces any
+         * provisional speed reported for it.
          * @param aSpeedInMps Speed in meters/sec.
          */
         public void newSpeedDetected(DetectedSpeed aSpeedInMps);
 
+        /**
+         * Called when a pass in progress gets a provisional speed, or when the provisional speed is
+         * refined. Provisional speeds are not added to the speed list; they are replaced by the final
+         * speed through newSpeedDetected() or withdrawn through provisionalSpeedRetracted().
+         * @param aSpeedInMps Provisional speed in meters/sec.
+         * @param aConfidence Confidence in the speed, from 0 to 1.
+         */
+        public void provisionalSpeedDetected(DetectedSpeed aSpeedInMps, double aConfidence);
+
+        /**
+         * Called when the provisional speed last reported turns out not to belong to a pass.
+         * @param aSpeedInMps
+         */
+        public void provisionalSpeedRetracted(DetectedSpeed aSpeedInMps);
+
         /**
          * Called when the highest detected speed changes.
          * @param aNewHighestSpeedMps New highest detected speed in meters/sec.
@@ -66,6 +95,112 @@ public class DopplerController implements Runnable, SharedPreferences.OnSharedPr
 
     }
 
+    /**
+     * Keeps the speed with the highest weight detected since it was last reset.
+     */
+    private static class BestSpeedSink implements SpeedSink {
+        double mSpeed = 0;
+        double mWeight = 0;
+
+        @Override
+        public void speedDetected(double aSpeed, double aWeight, float aFromFreq, float aToFreq, int aFrame) {
+            if (mWeight < aWeight) {
+                mSpeed = aSpeed;
+                mWeight = aWeight;
+            }
+        }
+
+        void reset() {
+            mSpeed = 0;
+            mWeight = 0;
+        }
+    }
+
+    /**
+     * Keeps the most trustworthy provisional speed published since the last report and follows the
+     * one shown to the listeners until it is retracted or its pass gets a final speed.
+     */
+    private class ProvisionalSpeedReporter implements ProvisionalSpeedSink {
+        int mBestId = 0;
+        double mBestSpeed = 0;
+        double mBestConfidence = 0;
+        double mBestWeight = 0;
+
+        int mShownId = 0;
+        DetectedSpeed mShown;
+        double mShownConfidence = 0;
+        boolean mShownRetracted = false;
+
+        int mLastId = 0;
+        // Ids up to this one belong to passes that already got a final speed. Ids are compared by
+        // their difference since they wrap around.
+        int mFinishedId = 0;
+
+        @Override
+        public void provisionalSpeed(int aId, double aSpeed, double aConfidence, double aWeight,
+                                     float aFromFreq, float aToFreq, int aFrame) {
+            if (aId - mLastId > 0) {
+                mLastId = aId;
+            }
+            if (aId - mFinishedId <= 0 || aConfidence < PROVISIONAL_MIN_CONFIDENCE) {
+                return;
+            }
+            if (mBestId == 0 || mBestWeight < aWeight || (aId == mShownId && mBestWeight == aWeight)) {
+                mBestId = aId;
+                mBestSpeed = aSpeed;
+                mBestConfidence = aConfidence;
+                mBestWeight = aWeight;
+            }
+        }
+
+        @Override
+        public void provisionalConfirmed(int aId, int aFrame) {
+            // The final speed comes through the BestSpeedSink.
+        }
+
+        @Override
+        public void provisionalRetracted(int aId, int aFrame) {
+            if (aId == mShownId) {
+                mShownRetracted = true;
+            }
+        }
+
+        /**
+         * Reports what changed since the last call to the listeners.
+         */
+        void report() {
+            if (mShownRetracted) {
+                Log.v(TAG, "Provisional speed retracted: " + mShown.getSpeed());
+                for (DopplerListener listener : mSpeedListeners) {
+                    listener.provisionalSpeedRetracted(mShown);
+                }
+                mShownId = 0;
+                mShown = null;
+                mShownRetracted = false;
+            }
+            if (mBestId != 0 && (mBestId != mShownId || mShown.getSpeed() != mBestSpeed || mShownConfidence != mBestConfidence)) {
+                mShownId = mBestId;
+                mShown = new DetectedSpeed(mBestSpeed);
+                mShownConfidence = mBestConfidence;
+                for (DopplerListener listener : mSpeedListeners) {
+                    listener.provisionalSpeedDetected(mShown, mShownConfidence);
+                }
+            }
+            mBestId = 0;
+            mBestWeight = 0;
+        }
+
+        /**
+         * Called when a final speed is reported; the provisional speeds published so far belonged to its pass.
+         */
+        void finish() {
+            mFinishedId = mLastId;
+            mShownId = 0;
+            mShown = null;
+            mShownRetracted = false;
+        }
+    }
+
     // Properties.
     private Thread mThread;
     private AudioDoppler mDoppler;
@@ -73,6 +208,18 @@ public class DopplerController implements Runnable, SharedPreferences.OnSharedPr
     ArrayList<DopplerListener> mSpeedListeners;
     private boolean mIsActive;
 
+    // The doppler modes, scaled to FRAME_SIZE frames a hop of FRAME_SIZE apart and compiled once so
+    // switching between them is free.
+    private final AudioDopplerConfiguration mDefaultMode;
+    private final AudioDopplerConfiguration mFastPassMode;
+    private final AudioDopplerConfiguration mHiSpeedMode;
+    private final AudioDopplerConfiguration[] mPresetModes; //indexed by the PresetClassifier.PRESET_ constants.
+    // The configurations each preset escalates to, or null for presets that are not escalated.
+    private final AudioDopplerConfiguration[] mPresetEscalations;
+
+    // Selects the mode while the auto mode is on, null otherwise.
+    private volatile PresetClassifier mClassifier;
+
     // Object-level synchronization specifically protects this member.
     ArrayList<DetectedSpeed> mSpeeds;
     DetectedSpeed mHighestSpeed;
@@ -93,8 +240,31 @@ public class DopplerController implements Runnable, SharedPreferences.OnSharedPr
      * Constructor.
      */
     private DopplerController() {
-        mDoppler = new AudioDoppler(AudioDopplerConfiguration.DEFAULT.scaleFrameSize(FRAME_SIZE), SAMPLING_RATE);
+        mDefaultMode = AudioDopplerConfiguration.DEFAULT.scaleFrameSize(FRAME_SIZE).scaleSamplesPerFrame(FRAME_SIZE).setMinPeakSnr(MIN_PEAK_SNR_DB);
+        mFastPassMode = AudioDopplerConfiguration.FAST_PASS.scaleFrameSize(FRAME_SIZE).scaleSamplesPerFrame(FRAME_SIZE).setMinPeakSnr(MIN_PEAK_SNR_DB);
+        mHiSpeedMode = AudioDopplerConfiguration.CFG_200_PLUS.scaleFrameSize(FRAME_SIZE).scaleSamplesPerFrame(FRAME_SIZE).setMinPeakSnr(MIN_PEAK_SNR_DB);
+        mPresetModes = new AudioDopplerConfiguration[] { mDefaultMode, mFastPassMode, mHiSpeedMode };
+        // FAST_PASS reads the slow sweeps of low fundamentals early at FRAME_SIZE, so it is escalated
+        // like DEFAULT; its brief passes, which the bigger frames cannot certify, are reported unescalated.
+        // The passes CFG_200_PLUS is meant for are beyond DEFAULT, so escalating them would only delay
+        // their speeds.
+        AudioDopplerConfiguration escalation =
+                AudioDopplerConfiguration.DEFAULT.scaleFrameSize(ESCALATION_FRAME_SIZE).setMinPeakSnr(MIN_PEAK_SNR_DB);
+        mPresetEscalations = new AudioDopplerConfiguration[] { escalation, escalation, null };
+        for (int p = 0; p < mPresetModes.length; p++) {
+            mPresetModes[p].compile(SAMPLING_RATE);
+            if (mPresetEscalations[p] != null) {
+                mPresetEscalations[p].compile(SAMPLING_RATE);
+            }
+        }
+        mDoppler = new AudioDoppler(mDefaultMode, SAMPLING_RATE);
+        if (BuildConfig.DEBUG) {
+            mDoppler.setTracer(new TrendTracer(TRACE_CAPACITY));
+        }
         mMicHandler = new MicHandler(FRAME_SIZE, SAMPLING_RATE);
+        if (mMicHandler.getSamplingRate() > SAMPLING_RATE) {
+            mDoppler.setCaptureRate(mMicHandler.getSamplingRate());
+        }
         mSpeedListeners = new ArrayList<DopplerListener>();
         mIsActive = false;
         mSpeeds = new ArrayList<DetectedSpeed>();
@@ -170,15 +340,42 @@ public class DopplerController implements Runnable, SharedPreferences.OnSharedPr
     public void powerdown() {
         stop();
         mMicHandler.releaseRecorder();
+        mDoppler.release();
     }
 
     /**
-     * Call to change the doppler mode.
+     * Call to change the doppler mode. Safe to call while detection is running; the new mode takes
+     * effect at the next frame and passes in progress are kept.
      * @param aMode
      */
     public void setDopplerMode(AudioDopplerConfiguration aMode) {
+        mClassifier = null;
         // Lock in the frame size.. @todo - Add support for different sizes
-        mDoppler.applyConfiguration(aMode.scaleFrameSize(FRAME_SIZE));
+        applyMode(aMode.scaleFrameSize(FRAME_SIZE).scaleSamplesPerFrame(FRAME_SIZE));
+    }
+
+    /**
+     * Call to run several doppler modes at once, reporting the passes any of them detects. Like
+     * setDopplerMode(), safe to call while detection is running.
+     * @param aModes
+     */
+    public void setEnsembleMode(AudioDopplerConfiguration[] aModes) {
+        mClassifier = null;
+        AudioDopplerConfiguration[] scaled = new AudioDopplerConfiguration[aModes.length];
+        for (int i = 0; i < aModes.length; i++) {
+            scaled[i] = aModes[i].scaleFrameSize(FRAME_SIZE).scaleSamplesPerFrame(FRAME_SIZE);
+        }
+        mDoppler.setEscalation(null);
+        mDoppler.applyEnsemble(scaled);
+    }
+
+    /**
+     * Call to have the doppler mode chosen automatically from the passes being detected, see
+     * PresetClassifier. Starts out in the default mode.
+     */
+    public void setAutoMode() {
+        setDopplerMode(mDefaultMode);
+        mClassifier = new PresetClassifier(AUTO_WINDOW_FRAMES, PresetClassifier.PRESET_DEFAULT);
     }
 
     /**
@@ -234,6 +431,28 @@ public class DopplerController implements Runnable, SharedPreferences.OnSharedPr
         return mSpeeds;
     }
 
+    /**
+     * Writes the most recent trend events recorded by the doppler to a CSV file. Events are only
+     * recorded in debug builds.
+     * @param aFile
+     * @return Whether the trace was written.
+     */
+    public boolean exportTrace(File aFile) {
+        TrendTracer tracer = mDoppler.getTracer();
+        if (tracer == null) {
+            return false;
+        }
+        try {
+            PrintWriter pw = new PrintWriter(new FileWriter(aFile));
+            tracer.export(pw);
+            pw.close();
+            return !pw.checkError();
+        } catch (Exception e) {
+            Log.e(TAG, "Error exporting trend trace: " + e.getMessage());
+            return false;
+        }
+    }
+
     /**
      * Implements Runnable.run() - should not be called externally.
      */
@@ -257,33 +476,35 @@ public class DopplerController implements Runnable, SharedPreferences.OnSharedPr
         // Start up the main loop.
         final long SPEED_REPORT_INTERVAL = 500;
         long speedDetectedTime = 0;
-        double bestSpeed = 0;
-        double bestSpeedWeight = 0;
+        BestSpeedSink best = new BestSpeedSink();
+        ProvisionalSpeedReporter provisional = new ProvisionalSpeedReporter();
         Log.v(TAG, "Entering main DopplerController processing loop.");
         while (mIsActive) {
-            mDoppler.audioToBuffer(mMicHandler.readFrame(), mMicHandler.getRotatingPointer());
-            mDoppler.nextFrame();
+            boolean hadSpeed = best.mSpeed != 0;
+            short[] frame = mMicHandler.readFrame();
+            mDoppler.process(frame, 0, frame.length, best, provisional);
+            provisional.report();
+            PresetClassifier classifier = mClassifier;
+            if (classifier != null) {
+                int preset = classifier.getPreset();
+                if (classifier.update(mDoppler.getStatistics()) != preset && classifier == mClassifier) {
+                    Log.v(TAG, "Auto mode switching to preset " + classifier.getPreset());
+                    applyMode(mPresetModes[classifier.getPreset()]);
+                }
+            }
 
+            // Once a speed is detected, SPEED_REPORT_INTERVAL is waited to see if there are any more
+            // accurate speeds to use before reporting to UI.
             long currentTime = System.currentTimeMillis();
-            if (mDoppler.numSpeeds() > 0) {
-                // Once a speed is detected, SPEED_REPORT_INTERVAL is waited to see if there are any more
-                // accurate speeds to use before reporting to UI.
-                if(bestSpeed == 0) {
-                    speedDetectedTime = currentTime;
-                }
-                for (int s = 0; s < mDoppler.numSpeeds(); s++) {
-                    if (bestSpeedWeight < mDoppler.getSpeedWeight(s)) {
-                        bestSpeed = mDoppler.getSpeed(s);
-                        bestSpeedWeight = mDoppler.getSpeedWeight(s);
-                    }
-                }
+            if (!hadSpeed && best.mSpeed != 0) {
+                speedDetectedTime = currentTime;
             }
 
             // If the interval has passed, report the speed and reset the state variables.
-            if (bestSpeed != 0 && (currentTime - speedDetectedTime) > SPEED_REPORT_INTERVAL) {
-                newSpeedDetected(bestSpeed);
-                bestSpeed = 0.;
-                bestSpeedWeight = 0.;
+            if (best.mSpeed != 0 && (currentTime - speedDetectedTime) > SPEED_REPORT_INTERVAL) {
+                newSpeedDetected(best.mSpeed);
+                best.reset();
+                provisional.finish();
             }
 
             try {
@@ -305,13 +526,29 @@ public class DopplerController implements Runnable, SharedPreferences.OnSharedPr
             String modeSelection = sharedPreferences.getString(SettingsKeys.DOPPLER_MODE_KEY, SettingsKeys.DOPPLER_MODE_DEFAULT);
             Log.v(TAG, "DOPPLER_MODE_KEY changed - changing mode: " + modeSelection);
             if (modeSelection.equals(SettingsKeys.DOPPLER_MODE_DEFAULT)) {
-                setDopplerMode(AudioDopplerConfiguration.DEFAULT);
+                setDopplerMode(mDefaultMode);
             } else if(modeSelection.equals(SettingsKeys.DOPPLER_MODE_FAST_PASS)) {
-                setDopplerMode(AudioDopplerConfiguration.FAST_PASS);
+                setDopplerMode(mFastPassMode);
             } else if(modeSelection.equals(SettingsKeys.DOPPLER_MODE_HI_SPEED)) {
-                setDopplerMode(AudioDopplerConfiguration.CFG_200_PLUS);
+                setDopplerMode(mHiSpeedMode);
+            } else if(modeSelection.equals(SettingsKeys.DOPPLER_MODE_ENSEMBLE)) {
+                setEnsembleMode(mPresetModes);
+            } else if(modeSelection.equals(SettingsKeys.DOPPLER_MODE_AUTO)) {
+                setAutoMode();
+            }
+        }
+    }
+
+    // Switches the doppler to aMode, escalating it if it is a preset that is escalated.
+    private void applyMode(AudioDopplerConfiguration aMode) {
+        AudioDopplerConfiguration escalation = null;
+        for (int p = 0; p < mPresetModes.length; p++) {
+            if (mPresetModes[p] == aMode) {
+                escalation = mPresetEscalations[p];
             }
         }
+        mDoppler.setEscalation(escalation);
+        mDoppler.applyConfiguration(aMode);
     }
 
     private void error(String aError) {
@@ -38,4 +38,6 @@ public class SettingsKeys {
     public static final String DOPPLER_MODE_DEFAULT = "default_mode";
     public static final String DOPPLER_MODE_HI_SPEED = "hi_speed_mode";
     public static final String DOPPLER_MODE_FAST_PASS = "fast_pass_mode";
+    public static final String DOPPLER_MODE_ENSEMBLE = "ensemble_mode";
+    public static final String DOPPLER_MODE_AUTO = "auto_mode";
 }
@@ -7,43 +7,119 @@
 
 package com.appliedanalog.rcspeedo.doppler;
 
-import java.util.ArrayList;
-
 import android.util.Log;
 
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
  * This class contains the primary logic behind the app - converting a PCM audio stream into a list
  * of speeds.
+ *
+ * Audio is turned into spectra by one SpectrumFrontEnd per distinct front end configuration, and each
+ * spectrum is tracked by a TrendDetector. Normally there is a single configuration; in ensemble mode
+ * (see applyEnsemble()) several configurations track the audio at once, each detector on its own
+ * worker thread when the device has more than one core, and detections of the same pass are merged.
+ * A configuration in pyramid mode (see AudioDopplerConfiguration.setPyramid()) gets a SpectrumPyramid,
+ * which builds its spectrum from transforms of several sizes. With escalation on (see setEscalation())
+ * the audio around each pass is analyzed again with a more costly configuration.
  */
 public class AudioDoppler {
     final String TAG = "AudioDoppler";
-    final boolean DEBUG = true;
 
-    FFT mFft;
+    static final double MIN_SPEED_WEIGHT = .125;
+    // Ensemble speeds within this fraction of each other are taken to be detections of the same pass...
+    static final double DUPLICATE_SPEED_RATIO = .03;
+    // ...when they are reported within this many frames of each other.
+    static final int DUPLICATE_FRAMES = 20;
+    // Samples at the analysis rate process() resamples captured audio into at a time.
+    static final int CAPTURE_CHUNK = 1024;
+
     int mSamplingFreq;
-    float[] mDist;
     int mFrameCount = 0;
-    double mTemperature;
-    AudioDopplerConfiguration mConfig;
-
-    // First pass properties - For finding frequency amplitude peaks.
-    // By the nature of peaks, there cannot be more than one peak for every mConfig.getPeakWidth() * 2 data values, and the frequency distribution is inherently less than mDist.length / 2
-    int[] mPeaks;
-    int mNumPeaks = 0;
+    volatile double mTemperature; //set from other threads, read once per frame.
+    AudioDopplerConfiguration mConfig; //the primary configuration, which decides the frame size and hop.
+    // Configurations handed over by applyConfiguration() or applyEnsemble(), taken up at the start of the next frame.
+    final AtomicReference<AudioDopplerConfiguration[]> mPendingConfigs = new AtomicReference<AudioDopplerConfiguration[]>();
+    // Receives trend events for offline inspection, or null when tracing is off. Read once per frame.
+    volatile TrendTracer mTracer;
+    // Configuration passes are re-analyzed with, or null when escalation is off. Taken up with mPendingConfigs.
+    volatile AudioDopplerConfiguration mEscalationConfig;
+    ResolutionEscalator mEscalator;
+
+    // Front end properties - every front end converts the same audio, they differ in window, zoom and filtering.
+    SpectrumFrontEnd[] mFrontEnds;
+    PolyphaseDecimator mDecimator;
+    boolean mPrimed;
+
+    // Detection properties - detector d tracks the spectrum of mFrontEnds[mDetectorFrontEnd[d]].
+    TrendDetector[] mDetectors;
+    int[] mDetectorFrontEnd;
+    double mFrameTemperature;
+    TrendTracer mFrameTracer;
+
+    // Ensemble properties - detector d > 0 runs on mWorkers[d - 1], in step with nextFrame() through the barriers.
+    EnsembleWorker[] mWorkers;
+    boolean mUseWorkers; //whether the ensemble runs on mWorkers; they are started with the first frame that needs them.
+    CyclicBarrier mFrameStart;
+    CyclicBarrier mFrameDone;
+
+    // Speeds reported for the current frame. In ensemble mode these are merged from all detectors.
+    double[] mSpeeds;
+    double[] mSpeedWeights;
+    float[] mSpeedsFrom;
+    float[] mSpeedsTo;
+    int mNumSpeeds = 0;
+    // Ensemble speeds reported in the last DUPLICATE_FRAMES frames, and the detector that reported them.
+    double[] mRecentSpeeds;
+    int[] mRecentFrames;
+    int[] mRecentDetectors;
+    int mNumRecent = 0;
+
+    // Capture properties - process() first decimates audio captured faster than mSamplingFreq into mCaptured.
+    volatile int mCaptureRate;
+    PolyphaseDecimator mCaptureDecimator;
+    int mCaptureDecimatorRate;
+    short[] mCaptured;
+
+    // Block processing properties - process() collects audio in mBlock until a frame is due.
+    short[] mBlock;
+    int mBlockPos; //where the next sample is written, and so the oldest sample once the block is full.
+    int mBlockFill; //number of samples in mBlock.
+    int mBlockNew; //number of samples received since the last frame.
 
-    // Second pass properties - Finding trends in the peaked frequencies.
-    final int WOUNDED_LIFE_EXPECTANCY = 3;
-    Trend[] mTrends = null;
-    ArrayList<MissingTrend> mWoundedTrends = new ArrayList<MissingTrend>(); //this is a list of trends that retains a short lifespan before 'graduating' to a full on missing trend.
-    ArrayList<MissingTrend> mMissingTrends = new ArrayList<MissingTrend>();
+    /**
+     * Runs one detector of the ensemble for every frame.
+     */
+    class EnsembleWorker extends Thread {
+        final int mDetector;
+        final CyclicBarrier mStart;
+        final CyclicBarrier mDone;
+
+        EnsembleWorker(int aDetector, CyclicBarrier aStart, CyclicBarrier aDone) {
+            super("AudioDoppler ensemble " + aDetector);
+            mDetector = aDetector;
+            mStart = aStart;
+            mDone = aDone;
+            setDaemon(true);
+        }
 
-    // Third pass properties - Finding speeds from trends that exhibit a doppler shift.
-    static final double MIN_SPEED_WEIGHT = .125;
-    double[] mCalculatedSpeeds;
-    //this is the source frequency from which the above speeds were calculated. it is used to scale the calculated speed to favor speeds
-    //derived from higher frequencies.
-    int[] mCalculatedSpeedsSource;
-    int mNumSpeeds = 0;
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    mStart.await();
+                    trackDetector(mDetector);
+                    mDone.await();
+                }
+            } catch (InterruptedException e) {
+                // Stopped by stopWorkers().
+            } catch (BrokenBarrierException e) {
+                // The ensemble was torn down while this worker was waiting.
+            }
+        }
+    }
 
     /**
      * Constructs an AudioDoppler object.
@@ -51,33 +127,224 @@ public class AudioDoppler {
      * @param aSamplingFreq
      */
     public AudioDoppler(AudioDopplerConfiguration aConfig, int aSamplingFreq) {
-        mConfig = aConfig;
         mSamplingFreq = aSamplingFreq;
+        mCaptureRate = aSamplingFreq;
         mTemperature = 27; // 80F - A good middle of the line guess for when temperature is not explicitly set.
 
-        initArrays();
+        switchConfigurations(new AudioDopplerConfiguration[] { aConfig });
     }
 
     /**
-     * Change the configuration construct this AudioDoppler is using to detect speeds.
+     * Change the configuration construct this AudioDoppler is using to detect speeds. This may be
+     * called from any thread: the configuration is taken up when the next frame is passed to
+     * audioToBuffer(), so a frame is never processed with a mix of two configurations. If the
+     * spectrum size is unchanged, trends and passes in progress carry over to the new configuration.
      * @param config
      */
     public void applyConfiguration(AudioDopplerConfiguration config) {
-        mConfig = config;
-        if (mDist != null && mDist.length != mConfig.getFrameSize()) {
-            initArrays();
+        mPendingConfigs.set(new AudioDopplerConfiguration[] { config });
+    }
+
+    /**
+     * Detect speeds with several configurations at once. Configurations with the same frame size,
+     * zoom, window and filtering share one spectrum per frame, and on multi-core devices each
+     * configuration is tracked on its own thread. Speeds that several configurations detect are reported once. Like
+     * applyConfiguration(), this may be called from any thread and takes effect at the next frame.
+     * @param aConfigs The configurations. They must all have the frame size of the first, which also
+     *                 decides the number of new samples per frame.
+     */
+    public void applyEnsemble(AudioDopplerConfiguration[] aConfigs) {
+        for (AudioDopplerConfiguration config : aConfigs) {
+            if (config.getFrameSize() != aConfigs[0].getFrameSize()) {
+                throw new IllegalArgumentException("Ensemble configurations must share a frame size");
+            }
+        }
+        mPendingConfigs.set(aConfigs.clone());
+    }
+
+    /**
+     * Re-analyze the audio around every pass with a more costly configuration, so that the primary
+     * configuration can be a cheap one: the primary configuration then only has to notice that a pass
+     * is under way, by losing a certified trend, and the speeds are taken from aHighRes when it detects
+     * any. The speeds are reported up to the time aHighRes takes to certify a trend later than otherwise,
+     * see ResolutionEscalator. Escalation needs audio at the analysis rate. Like applyConfiguration(),
+     * this may be called from any thread and takes effect at the next frame.
+     * @param aHighRes The configuration to escalate to, typically a bigger frame with overlapping
+     *                 frames, or null to turn escalation off.
+     */
+    public void setEscalation(AudioDopplerConfiguration aHighRes) {
+        mEscalationConfig = aHighRes;
+    }
+
+    /**
+     * Sets the rate the audio passed to process() is captured at. Audio captured at another rate is
+     * resampled to the analysis rate through a PolyphaseDecimator as it arrives, so a microphone can
+     * record at its native rate while the detection, the history kept for escalation and the speeds
+     * all stay at the analysis rate. Takes effect at the next call to process().
+     * @param aCaptureRate Capture rate in Hz, the analysis rate (the default) for none.
+     */
+    public void setCaptureRate(int aCaptureRate) {
+        mCaptureRate = aCaptureRate;
+    }
+
+    /**
+     * Stops the ensemble worker threads, if any. Call when the AudioDoppler is no longer used.
+     */
+    public void release() {
+        mUseWorkers = false;
+        stopWorkers();
+    }
+
+    // Switches to the configurations passed to applyConfiguration() or applyEnsemble(), if any. Only
+    // called on the thread feeding audio, between frames.
+    private void takePendingConfiguration() {
+        AudioDopplerConfiguration[] configs = mPendingConfigs.getAndSet(null);
+        if (configs != null) {
+            switchConfigurations(configs);
+        }
+        AudioDopplerConfiguration escalation = mEscalationConfig;
+        if (escalation == null) {
+            mEscalator = null;
+        } else if (mEscalator == null || mEscalator.getConfiguration() != escalation) {
+            mEscalator = new ResolutionEscalator(escalation, mSamplingFreq);
+        }
+    }
+
+    private void switchConfigurations(AudioDopplerConfiguration[] aConfigs) {
+        stopWorkers();
+        mConfig = aConfigs[0];
+
+        // Keep the front ends that are still needed, so their filter state carries over.
+        SpectrumFrontEnd[] frontEnds = new SpectrumFrontEnd[aConfigs.length];
+        int numFrontEnds = 0;
+        int[] detectorFrontEnd = new int[aConfigs.length];
+        boolean newFrontEnd = false;
+        for (int d = 0; d < aConfigs.length; d++) {
+            int f = 0;
+            while (f < numFrontEnds && !frontEnds[f].matches(aConfigs[d])) {
+                f++;
+            }
+            if (f == numFrontEnds) {
+                frontEnds[f] = findFrontEnd(aConfigs[d]);
+                if (frontEnds[f] == null) {
+                    frontEnds[f] = SpectrumFrontEnd.create(aConfigs[d], mSamplingFreq);
+                    newFrontEnd = true;
+                }
+                numFrontEnds++;
+            }
+            detectorFrontEnd[d] = f;
+        }
+        mFrontEnds = new SpectrumFrontEnd[numFrontEnds];
+        System.arraycopy(frontEnds, 0, mFrontEnds, 0, numFrontEnds);
+        mDetectorFrontEnd = detectorFrontEnd;
+        if (newFrontEnd) {
+            mDecimator = null;
+            // A new front end has no previous frame, so the next frame cannot be built incrementally.
+            mPrimed = false;
+        }
+
+        // Detectors carry over position by position, keeping their trends where the spectrum size allows.
+        TrendDetector[] detectors = new TrendDetector[aConfigs.length];
+        for (int d = 0; d < aConfigs.length; d++) {
+            if (mDetectors != null && d < mDetectors.length) {
+                detectors[d] = mDetectors[d];
+                detectors[d].setConfiguration(aConfigs[d]);
+            } else {
+                detectors[d] = new TrendDetector(aConfigs[d], mSamplingFreq);
+            }
+        }
+        mDetectors = detectors;
+
+        int maxSpeeds = 0;
+        for (TrendDetector detector : mDetectors) {
+            maxSpeeds += detector.getConfiguration().getSpectrumSize() / 4;
+        }
+        ensureSpeedCapacity(maxSpeeds);
+        mNumSpeeds = 0;
+        mNumRecent = 0;
+
+        // Handing a frame to other threads only pays off when they can run at the same time.
+        mUseWorkers = mDetectors.length > 1 && Runtime.getRuntime().availableProcessors() > 1;
+    }
+
+    private void ensureSpeedCapacity(int aMaxSpeeds) {
+        if (mSpeeds == null || mSpeeds.length < aMaxSpeeds) {
+            mSpeeds = new double[aMaxSpeeds];
+            mSpeedWeights = new double[aMaxSpeeds];
+            mSpeedsFrom = new float[aMaxSpeeds];
+            mSpeedsTo = new float[aMaxSpeeds];
+            mRecentSpeeds = new double[aMaxSpeeds];
+            mRecentFrames = new int[aMaxSpeeds];
+            mRecentDetectors = new int[aMaxSpeeds];
+            mNumRecent = 0;
+        }
+    }
+
+    // Fetch a current front end that produces the spectrum aConfig asks for, or null if there is none.
+    private SpectrumFrontEnd findFrontEnd(AudioDopplerConfiguration aConfig) {
+        if (mFrontEnds != null) {
+            for (SpectrumFrontEnd frontEnd : mFrontEnds) {
+                if (frontEnd.matches(aConfig)) {
+                    return frontEnd;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void startWorkers() {
+        mFrameStart = new CyclicBarrier(mDetectors.length);
+        mFrameDone = new CyclicBarrier(mDetectors.length);
+        mWorkers = new EnsembleWorker[mDetectors.length - 1];
+        for (int w = 0; w < mWorkers.length; w++) {
+            mWorkers[w] = new EnsembleWorker(w + 1, mFrameStart, mFrameDone);
+            mWorkers[w].start();
         }
     }
 
+    // Stops the workers and waits for them, so no worker is still touching a detector afterwards.
+    private void stopWorkers() {
+        if (mWorkers == null) {
+            return;
+        }
+        boolean interrupted = false;
+        for (EnsembleWorker worker : mWorkers) {
+            worker.interrupt();
+        }
+        for (EnsembleWorker worker : mWorkers) {
+            while (worker.isAlive()) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        mWorkers = null;
+        mFrameStart = null;
+        mFrameDone = null;
+    }
+
     /**
-     * Transfers the specified audio data to the internal buffer.
+     * Transfers the specified audio data to the internal buffer. If aIn is longer than the frame
+     * size it is assumed to have been captured at a proportionally higher rate and is resampled down
+     * to the analysis rate.
      * @param aIn
      */
     public void audioToBuffer(short[] aIn) {
-        int skip = aIn.length / mDist.length;
-        for (int x = 0, y = 0; x < aIn.length; x += skip, y++) {
-            mDist[y] = aIn[x];
+        takePendingConfiguration();
+        PolyphaseDecimator decimator = decimatorFor(aIn.length);
+        for (SpectrumFrontEnd frontEnd : mFrontEnds) {
+            if (!mPrimed) {
+                frontEnd.reset();
+            }
+            frontEnd.convertFrame(aIn, 0, decimator);
         }
+        recordHistory(aIn, 0, mConfig.getHopSize());
+        mPrimed = true;
     }
 
     /**
@@ -88,34 +355,374 @@ public class AudioDoppler {
      * @param aStartLoc
      */
     public void audioToBuffer(short[] aIn, int aStartLoc) {
-        int skip = aIn.length / mDist.length;
-        int y = 0;
-        for (int x = aStartLoc; x < aIn.length; x += skip, y++) {
-            mDist[y] = aIn[x];
+        audioToBuffer(aIn, aStartLoc, mConfig.getFrameSize());
+    }
+
+    /**
+     * Variation of audioToBuffer for callers that know exactly how many new samples the rotating
+     * buffer has received since the last frame. When that hop is small, only the new samples are
+     * conditioned and nextFrame() updates the previous spectrum incrementally rather than
+     * recomputing it.
+     * @param aIn
+     * @param aStartLoc
+     * @param aNewSamples Number of samples written to aIn since the last call.
+     */
+    public void audioToBuffer(short[] aIn, int aStartLoc, int aNewSamples) {
+        takePendingConfiguration();
+        final int frameSize = mConfig.getFrameSize();
+        // The incremental path needs an exact sample-for-sample overlap with the previous frame, so
+        // resampled input and the first frame always take the full path.
+        if (mPrimed && aIn.length == frameSize && aNewSamples >= 0 && aNewSamples < frameSize) {
+            for (SpectrumFrontEnd frontEnd : mFrontEnds) {
+                frontEnd.convertHop(aIn, aStartLoc, aNewSamples);
+            }
+        } else {
+            // A frame of all new samples follows the last one, so the high-pass filter carries on.
+            boolean follows = mPrimed && aNewSamples == aIn.length;
+            PolyphaseDecimator decimator = decimatorFor(aIn.length);
+            for (SpectrumFrontEnd frontEnd : mFrontEnds) {
+                if (!follows) {
+                    frontEnd.reset();
+                }
+                frontEnd.convertFrame(aIn, aStartLoc, decimator);
+            }
+        }
+        recordHistory(aIn, aStartLoc, aNewSamples);
+        mPrimed = true;
+    }
+
+    /**
+     * Runs detection over a block of audio of any length. Frames are formed internally, overlapping
+     * so that each one follows the last by mConfig.getHopSize() samples, and every speed detected is
+     * pushed to aSink. Audio left over at the end of the block
+     * is kept for the next call.
+     * @param aPcm
+     * @param aOffset First sample of the block in aPcm.
+     * @param aLength Number of samples in the block.
+     * @param aSink Receives the detected speeds.
+     * @return The number of frames processed.
+     */
+    public int process(short[] aPcm, int aOffset, int aLength, SpeedSink aSink) {
+        return process(aPcm, aOffset, aLength, aSink, null);
+    }
+
+    /**
+     * Runs detection over a block of audio like process(short[], int, int, SpeedSink), also pushing
+     * the provisional speeds of the primary configuration to aProvisional. In ensemble mode the other
+     * configurations only report final speeds.
+     * @param aPcm
+     * @param aOffset First sample of the block in aPcm.
+     * @param aLength Number of samples in the block.
+     * @param aSink Receives the detected speeds.
+     * @param aProvisional Receives the provisional speeds, or null.
+     * @return The number of frames processed.
+     */
+    public int process(short[] aPcm, int aOffset, int aLength, SpeedSink aSink, ProvisionalSpeedSink aProvisional) {
+        final PolyphaseDecimator decimator = captureDecimator();
+        if (decimator == null) {
+            return processFrames(aPcm, aOffset, aLength, aSink, aProvisional);
         }
-        for (int x = 0; x < aStartLoc; x += skip, y++) {
-            mDist[y] = aIn[x];
+        //resample in chunks whose output fits mCaptured.
+        final int chunk = (int) ((long) (mCaptured.length - 1) * decimator.getInLength() / decimator.getOutLength());
+        final int end = aOffset + aLength;
+        int frames = 0;
+        while (aOffset < end) {
+            final int n = Math.min(chunk, end - aOffset);
+            final int captured = decimator.decimate(aPcm, aOffset, n, mCaptured, 0);
+            frames += processFrames(mCaptured, 0, captured, aSink, aProvisional);
+            aOffset += n;
+        }
+        return frames;
+    }
+
+    // Runs detection over a block of audio at the analysis rate, see process().
+    private int processFrames(short[] aPcm, int aOffset, int aLength, SpeedSink aSink, ProvisionalSpeedSink aProvisional) {
+        final int end = aOffset + aLength;
+        int frames = 0;
+        while (true) {
+            if (mBlock == null || mBlock.length != mConfig.getFrameSize()) {
+                //a new frame size can not reuse the audio collected so far.
+                mBlock = new short[mConfig.getFrameSize()];
+                mBlockPos = 0;
+                mBlockFill = 0;
+                mBlockNew = 0;
+            }
+            final int hop = mConfig.getHopSize();
+            if (mBlockFill < mBlock.length || mBlockNew < hop) {
+                if (aOffset == end) {
+                    break;
+                }
+                //fill the block, or top it up with the rest of the hop, without wrapping around mid-copy.
+                int wanted = (mBlockFill < mBlock.length) ? mBlock.length - mBlockFill : hop - mBlockNew;
+                int n = Math.min(wanted, Math.min(end - aOffset, mBlock.length - mBlockPos));
+                System.arraycopy(aPcm, aOffset, mBlock, mBlockPos, n);
+                aOffset += n;
+                mBlockPos = (mBlockPos + n) % mBlock.length;
+                mBlockFill = Math.min(mBlock.length, mBlockFill + n);
+                mBlockNew += n;
+                continue;
+            }
+
+            takePendingConfiguration();
+            if (mConfig.getFrameSize() != mBlock.length) {
+                continue;
+            }
+            audioToBuffer(mBlock, mBlockPos, mBlockNew);
+            mBlockNew = 0;
+            nextFrame();
+            frames++;
+            if (aProvisional != null) {
+                pushProvisional(aProvisional);
+            }
+            for (int s = 0; s < mNumSpeeds; s++) {
+                aSink.speedDetected(mSpeeds[s], mSpeedWeights[s], mSpeedsFrom[s], mSpeedsTo[s], mFrameCount);
+            }
+        }
+        return frames;
+    }
+
+    // Pushes the provisional speeds the primary configuration retracted, confirmed and published this frame.
+    private void pushProvisional(ProvisionalSpeedSink aProvisional) {
+        final TrendDetector detector = mDetectors[0];
+        for (int r = 0; r < detector.numRetractedSpeeds(); r++) {
+            aProvisional.provisionalRetracted(detector.getRetractedId(r), mFrameCount);
+        }
+        for (int s = 0; s < detector.numSpeeds(); s++) {
+            if (detector.getSpeedProvisionalId(s) != 0) {
+                aProvisional.provisionalConfirmed(detector.getSpeedProvisionalId(s), mFrameCount);
+            }
+        }
+        for (int p = 0; p < detector.numProvisionalSpeeds(); p++) {
+            aProvisional.provisionalSpeed(detector.getProvisionalId(p), detector.getProvisionalSpeed(p),
+                    detector.getProvisionalConfidence(p), detector.getProvisionalWeight(p),
+                    detector.getProvisionalFromFreq(p), detector.getProvisionalToFreq(p), mFrameCount);
         }
     }
 
     /**
      * Advances to the next FFT frame.
-     *
-     * @param dist
      */
     public void nextFrame() {
-        if (mDist.length != mConfig.getFrameSize()) {
-            debug("Invalid frame size passed to nextFrame()");
+        mFrameCount++;
+        for (SpectrumFrontEnd frontEnd : mFrontEnds) {
+            frontEnd.transform();
+        }
+        mFrameTemperature = mTemperature;
+        mFrameTracer = mTracer;
+        // A thread being interrupted is shutting down, so it does not start workers it would have to stop.
+        if (mWorkers == null && mUseWorkers && !Thread.currentThread().isInterrupted()) {
+            startWorkers();
+        }
+        if (mWorkers != null) {
+            try {
+                mFrameStart.await();
+                trackDetector(0);
+                mFrameDone.await();
+            } catch (InterruptedException e) {
+                // The feeding thread is being stopped; the workers are started again by the next frame, if any.
+                abortFrame();
+                Thread.currentThread().interrupt();
+                return;
+            } catch (BrokenBarrierException e) {
+                // A worker was lost; replace the workers for the next frame.
+                abortFrame();
+                startWorkers();
+                return;
+            }
+        } else {
+            for (int d = 0; d < mDetectors.length; d++) {
+                trackDetector(d);
+            }
+        }
+        collectSpeeds();
+        if (mEscalator != null) {
+            escalate();
+        }
+    }
+
+    private void trackDetector(int aDetector) {
+        float[] spec = mFrontEnds[mDetectorFrontEnd[aDetector]].getSpectrum();
+        mDetectors[aDetector].track(spec, mFrameCount, mFrameTemperature, mFrameTracer);
+    }
+
+    // Opens an escalation window when the primary configuration loses a certified trend, holds the
+    // speeds of this frame back while a window is open, and reports the escalated speeds once it closes.
+    private void escalate() {
+        final ResolutionEscalator escalator = mEscalator;
+        if (mDetectors[0].numLostTrends() > 0) {
+            escalator.trigger();
+        }
+        if (!escalator.isPending()) {
             return;
         }
+        for (int s = 0; s < mNumSpeeds; s++) {
+            escalator.hold(mSpeeds[s], mSpeedWeights[s], mSpeedsFrom[s], mSpeedsTo[s]);
+        }
+        mNumSpeeds = 0;
+        if (escalator.replayIfDue(mFrameTemperature)) {
+            ensureSpeedCapacity(escalator.numSpeeds());
+            for (int s = 0; s < escalator.numSpeeds(); s++) {
+                mSpeeds[s] = escalator.getSpeed(s);
+                mSpeedWeights[s] = escalator.getSpeedWeight(s);
+                mSpeedsFrom[s] = escalator.getSpeedFromFreq(s);
+                mSpeedsTo[s] = escalator.getSpeedToFreq(s);
+            }
+            mNumSpeeds = escalator.numSpeeds();
+        }
+    }
 
-        mFrameCount++;
-        mFft.forward(mDist);
-        findPeaks(mFft.getSpectrum(), mFft.freqToIndex(mConfig.getFreqMin()), mFft.freqToIndex(mConfig.getFreqMax()));
-        updateTrends(mFft.getSpectrum(), mNumPeaks);
-        calculateSpeeds();
+    // Hands the new samples of a frame to the escalator. Resampled frames cannot be replayed, so they
+    // interrupt the retained audio instead.
+    private void recordHistory(short[] aIn, int aStartLoc, int aNewSamples) {
+        if (mEscalator == null) {
+            return;
+        }
+        if (aIn.length == mConfig.getFrameSize()) {
+            mEscalator.record(aIn, aStartLoc, aNewSamples);
+        } else {
+            mEscalator.interrupt();
+        }
+    }
+
+    /**
+     * Forgets the audio, trends and passes in progress, keeping the configuration. Only called on the
+     * thread feeding audio, between frames.
+     */
+    void reset() {
+        mPrimed = false;
+        mBlockPos = 0;
+        mBlockFill = 0;
+        mBlockNew = 0;
+        for (TrendDetector detector : mDetectors) {
+            detector.reset();
+        }
+        mNumSpeeds = 0;
+        mNumRecent = 0;
+    }
+
+    // The ensemble was interrupted mid-frame. The workers are stopped, and the frame reports no speeds.
+    private void abortFrame() {
+        Log.e(TAG, "Ensemble frame interrupted");
+        stopWorkers();
+        mNumSpeeds = 0;
+    }
+
+    // Gathers the speeds of this frame from the detectors. An ensemble reports a pass once: speeds
+    // close to one another in this frame are merged, keeping the strongest, and speeds close to one
+    // reported recently by another detector are dropped.
+    private void collectSpeeds() {
+        mNumSpeeds = 0;
+        if (mDetectors.length == 1) {
+            TrendDetector detector = mDetectors[0];
+            for (int s = 0; s < detector.numSpeeds(); s++) {
+                addSpeed(detector, s);
+            }
+            return;
+        }
+
+        int numRecent = 0;
+        for (int r = 0; r < mNumRecent; r++) {
+            if (mFrameCount - mRecentFrames[r] < DUPLICATE_FRAMES) {
+                mRecentSpeeds[numRecent] = mRecentSpeeds[r];
+                mRecentFrames[numRecent] = mRecentFrames[r];
+                mRecentDetectors[numRecent] = mRecentDetectors[r];
+                numRecent++;
+            }
+        }
+        mNumRecent = numRecent;
+
+        final int firstNew = mNumRecent;
+        for (int d = 0; d < mDetectors.length; d++) {
+            TrendDetector detector = mDetectors[d];
+            for (int s = 0; s < detector.numSpeeds(); s++) {
+                double speed = detector.getSpeed(s);
+                int match = -1;
+                for (int r = 0; r < mNumRecent && match < 0; r++) {
+                    if ((r >= firstNew || mRecentDetectors[r] != d)
+                            && Math.abs(speed - mRecentSpeeds[r]) <= DUPLICATE_SPEED_RATIO * mRecentSpeeds[r]) {
+                        match = r;
+                    }
+                }
+                if (match < 0) {
+                    mRecentSpeeds[mNumRecent] = speed;
+                    mRecentFrames[mNumRecent] = mFrameCount;
+                    mRecentDetectors[mNumRecent] = d;
+                    mNumRecent++;
+                    addSpeed(detector, s);
+                } else if (match >= firstNew) {
+                    // Detected again this frame; keep whichever detection is weighted highest.
+                    int merged = match - firstNew;
+                    if (detector.getSpeedWeight(s) > mSpeedWeights[merged]) {
+                        setSpeed(merged, detector, s);
+                        mRecentSpeeds[match] = speed;
+                        mRecentDetectors[match] = d;
+                    }
+                }
+            }
+        }
+
+        // A speed kept over an earlier one of this frame can land close to a third; merge those as well.
+        for (int a = 0; a < mNumSpeeds; a++) {
+            for (int b = a + 1; b < mNumSpeeds; b++) {
+                if (Math.abs(mSpeeds[a] - mSpeeds[b]) > DUPLICATE_SPEED_RATIO * Math.max(mSpeeds[a], mSpeeds[b])) {
+                    continue;
+                }
+                if (mSpeedWeights[b] > mSpeedWeights[a]) {
+                    moveSpeed(b, a);
+                }
+                for (int c = b + 1; c < mNumSpeeds; c++) {
+                    moveSpeed(c, c - 1);
+                }
+                mNumSpeeds--;
+                mNumRecent--;
+                b--;
+            }
+        }
+    }
+
+    // Moves the speed in slot aFrom of this frame, and its recent entry, to slot aTo.
+    private void moveSpeed(int aFrom, int aTo) {
+        final int firstNew = mNumRecent - mNumSpeeds;
+        mSpeeds[aTo] = mSpeeds[aFrom];
+        mSpeedWeights[aTo] = mSpeedWeights[aFrom];
+        mSpeedsFrom[aTo] = mSpeedsFrom[aFrom];
+        mSpeedsTo[aTo] = mSpeedsTo[aFrom];
+        mRecentSpeeds[firstNew + aTo] = mRecentSpeeds[firstNew + aFrom];
+        mRecentDetectors[firstNew + aTo] = mRecentDetectors[firstNew + aFrom];
+    }
+
+    private void addSpeed(TrendDetector aDetector, int aIndex) {
+        setSpeed(mNumSpeeds, aDetector, aIndex);
+        mNumSpeeds++;
+    }
+
+    private void setSpeed(int aSlot, TrendDetector aDetector, int aIndex) {
+        mSpeeds[aSlot] = aDetector.getSpeed(aIndex);
+        mSpeedWeights[aSlot] = aDetector.getSpeedWeight(aIndex);
+        mSpeedsFrom[aSlot] = aDetector.getSpeedFromFreq(aIndex);
+        mSpeedsTo[aSlot] = aDetector.getSpeedToFreq(aIndex);
+    }
+
+    /**
+     * Attaches a tracer that records the trend events of every following frame. May be called from any thread.
+     * @param aTracer The tracer, or null to stop tracing.
+     */
+    public void setTracer(TrendTracer aTracer) {
+        mTracer = aTracer;
+    }
+
+    /**
+     * Fetch the attached tracer.
+     * @return The tracer, or null if tracing is off.
+     */
+    public TrendTracer getTracer() {
+        return mTracer;
     }
 
+    /**
+     * Sets the air temperature used to compute the speed of sound. May be called from any thread.
+     * @param aTemperature Temperature in Centigrade.
+     */
     public void setTemperature(double aTemperature) {
         Log.v(TAG, "AudioDoppler.setmTemperature(" + aTemperature + ")");
         mTemperature = aTemperature;
@@ -130,7 +737,7 @@ public class AudioDoppler {
      * @return
      */
     public double getSpeedWeight(int aIndex) {
-        return ((1 - MIN_SPEED_WEIGHT) * ((mCalculatedSpeedsSource[aIndex] - mConfig.getFreqMin()) / (mConfig.getFreqMax() - mConfig.getFreqMin()))) + MIN_SPEED_WEIGHT;
+        return mSpeedWeights[aIndex];
     }
 
     /**
@@ -139,240 +746,73 @@ public class AudioDoppler {
      * @return
      */
     public double getSpeed(int aIndex) {
-        return mCalculatedSpeeds[aIndex];
+        return mSpeeds[aIndex];
     }
 
     /**
-     * Fetch the number of available detected speeds for this frame.
+     * Fetch the frequency, in Hz, the source of the speed at the specified index had while approaching.
+     * @param aIndex
      * @return
      */
-    public int numSpeeds() {
-        return mNumSpeeds;
+    public float getSpeedFromFreq(int aIndex) {
+        return mSpeedsFrom[aIndex];
     }
 
-
-    private double getSpeed(double aFreq1, double aFreq2, double aTemperature, double aHumidity) {
-        double sos = (331 + .606 * aTemperature); //current mTemperature is in Centigrade, this returns m/s
-        return aFreq1 / ((aFreq1 + aFreq2) / 2) * sos - sos;
+    /**
+     * Fetch the frequency, in Hz, the source of the speed at the specified index had while receding.
+     * @param aIndex
+     * @return
+     */
+    public float getSpeedToFreq(int aIndex) {
+        return mSpeedsTo[aIndex];
     }
 
     /**
-     * This function returns the frequency as adjusted by the ratios of the passed index 'aIn'.
-     *
-     * @param aIn
+     * Fetch the number of available detected speeds for this frame.
      * @return
      */
-    private double fuzzyFreq(double aIn) {
-        double ciel_freq = mFft.indexToFreq((int) Math.ceil(aIn));
-        int floor = (int) Math.floor(aIn);
-        double flor_freq = mFft.indexToFreq(floor);
-        double ratio = aIn - floor;
-        return (ciel_freq * ratio + flor_freq * (1. - ratio));
-    }
-
-
-    private void initArrays() {
-        mFft = new FFT(mConfig.getFrameSize(), 22500);
-        mDist = new float[mConfig.getFrameSize()];
-        mPeaks = new int[mConfig.getFrameSize() / 4];
-        mTrends = new Trend[mConfig.getFrameSize() / 2];
-        for (int x = 0; x < mTrends.length; x++) {
-            mTrends[x] = new Trend();
-            mTrends[x].index = x;
-        }
-        mCalculatedSpeeds = new double[mConfig.getFrameSize() / 4];
-        mCalculatedSpeedsSource = new int[mConfig.getFrameSize() / 4];
-    }
-
-    private void findPeaks(float[] aSpec, int aStart, int aEnd) {
-        int p_point = 0;
-        float pros_peak = 0.f;
-        for (int x = aStart + mConfig.getPeakWidth()[0]; x < aEnd - mConfig.getPeakWidth()[mConfig.getPeakWidth().length - 1]; x++) {
-            pros_peak = aSpec[x];
-            //check the values around this prospective peak, continue if they are not smaller
-            boolean peak_found = true;
-            int cond = mConfig.getPeakWidth()[mConfig.getDivisions() * (x - aStart) / aEnd];
-            for (int i = 1; peak_found && i <= cond; i++) {
-                if (aSpec[x + i] >= pros_peak || aSpec[x - i] >= pros_peak) {
-                    peak_found = false;
-                }
-            }
-            if (peak_found) {
-                mPeaks[p_point] = x;
-                p_point++;
-            }
-        }
-        mNumPeaks = p_point;
+    public int numSpeeds() {
+        return mNumSpeeds;
     }
 
-    private void updateTrends(float[] aSpec, int aNumPeaks) {
-        //clean out the mMissingTrends array
-        for (int x = 0; x < mMissingTrends.size(); x++) {
-            mMissingTrends.get(x).count--;
-            if (mMissingTrends.get(x).count <= 0) {
-                mMissingTrends.remove(x);
-                x--;
-            }
-        }
-
-        //clear out any wounded trends that have truly died
-        for (int x = 0; x < mWoundedTrends.size(); x++) {
-            MissingTrend mt = mWoundedTrends.get(x);
-            if (mt.count <= 0) {
-                if (mt.oldCount >= mConfig.getMinTrendCountUntilCertified()) {
-                    debug("[" + mFrameCount + "]: Trend at " + (mt.origIndex - mConfig.getFamilyBoundary()[mConfig.getDivisions() * mt.origIndex / mTrends.length]) + " lost!");
-                    mt.count = mConfig.getMaxDopplerWindow();
-                    mMissingTrends.add(mt);
-                }
-                mWoundedTrends.remove(x);
-                x--;
-            } else {
-                mt.count--;
-            }
-        }
+    /**
+     * Fetch the statistics of the first configuration, which carry over when the configuration is
+     * changed. Must be read on the thread that calls nextFrame().
+     * @return
+     */
+    public TrendStatistics getStatistics() {
+        return mDetectors[0].getStatistics();
+    }
 
-        //this variable points to the current 'peak' being referenced
-        int c_peak_ptr = 0;
-        //initialize the first FAMILY data points as 'untouched'
-        for (int x = 0; x < mConfig.getFamilyBoundary()[0]; x++) {
-            mTrends[x].touched = false;
+    // Fetch the decimator that resamples the audio passed to process() to the analysis rate, or null if it
+    // is captured at that rate. It keeps everything up to the widest pass band any configuration uses.
+    private PolyphaseDecimator captureDecimator() {
+        final int rate = mCaptureRate;
+        if (rate == mSamplingFreq) {
+            mCaptureDecimator = null;
+            return null;
         }
-        int next_trend_reset = mConfig.getFamilyBoundary()[0];
-        for (int x = 0; x < mTrends.length; x++) {
-            int div = mConfig.getDivisions() * x / mTrends.length;
-            //initialize the "new guys" in the current family as 'untouched'
-            for (; next_trend_reset < mTrends.length && next_trend_reset <= x + mConfig.getFamilyBoundary()[div]; next_trend_reset++) {
-                mTrends[next_trend_reset].touched = false;
-            }
-            //did the guy that just left the current family stay untouched?
-            if (x >= mConfig.getFamilyBoundary()[div] && !mTrends[x - mConfig.getFamilyBoundary()[div]].touched) {
-                //does the trend have enough count to be certified and saved as 'wounded'?
-                Trend tsel = mTrends[x - mConfig.getFamilyBoundary()[div]];
-                if (tsel.count >= (mConfig.getMinTrendCountUntilCertified() / 2)) {
-                    mWoundedTrends.add(new MissingTrend(tsel, x - mConfig.getFamilyBoundary()[div], WOUNDED_LIFE_EXPECTANCY));
-                }
-                //reset the index
-                tsel.reset(x - mConfig.getFamilyBoundary()[div]);
-            }
-            //is the current pointer also a peak pointer?
-            if (c_peak_ptr < aNumPeaks && x == mPeaks[c_peak_ptr]) {
-                //see if there is a wounded trend we can revive
-                for (int i = 0; i < mWoundedTrends.size(); i++) {
-                    MissingTrend mt = mWoundedTrends.get(i);
-                    if (Math.abs(mt.origIndex - x) < mConfig.getFamilyBoundary()[div]) {
-                        //revive the trend
-                        mTrends[mt.origIndex].count = mConfig.getMinTrendCountUntilCertified() + WOUNDED_LIFE_EXPECTANCY - mt.count;
-                        mWoundedTrends.remove(i);
-
-                        //also, remove any trending info building up elsewhere in the family due to this guy's absense
-                        for (int f = 1; f < mConfig.getFamilyBoundary()[div]; f++) {
-                            mTrends[mt.origIndex + f].reset(mt.origIndex + f);
-                            mTrends[mt.origIndex - f].reset(mt.origIndex - f);
-                        }
-                        break;
-                    }
-                }
-
-                //find the highest trend within the immediate family
-                int highest_trend = mTrends[x].count;
-                int highest_trend_index = x;
-                for (int f = 0; f < mConfig.getFamilyBoundary()[div]; f++) {
-                    if (x - f >= 0 && mTrends[x - f].count > highest_trend) {
-                        highest_trend_index = x - f;
-                        highest_trend = mTrends[highest_trend_index].count;
-                    }
-                    if (x + f < mTrends.length && mTrends[x + f].count > highest_trend) {
-                        highest_trend_index = x + f;
-                        highest_trend = mTrends[highest_trend_index].count;
-                    }
-                }
-                //ignore it if there are two trends in one family.
-                if (mTrends[highest_trend_index].touched) {
-                    debug("Merged trend at " + highest_trend_index);
-                    continue;
-                }
-                //apply this new trend to the family member
-                mTrends[highest_trend_index].index = (mTrends[highest_trend_index].index * (float) mTrends[highest_trend_index].count + (float) x) /
-                        (mTrends[highest_trend_index].count + 1); //this is the current avg plus the new mark.
-                mTrends[highest_trend_index].count++;
-                mTrends[highest_trend_index].sig = aSpec[highest_trend_index];
-                //mark the family member that received the trend
-                mTrends[highest_trend_index].touched = true;
-
-                if (mTrends[highest_trend_index].count == mConfig.getMinTrendCountUntilCertified()) {
-                    debug("[" + mFrameCount + "]: Trend at " + highest_trend_index + " peaked!");
-                }
-
-                //increment the peak pointer
-                c_peak_ptr++;
+        if (mCaptureDecimator == null || mCaptureDecimatorRate != rate) {
+            final int g = PolyphaseDecimator.gcd(rate, mSamplingFreq);
+            mCaptureDecimator = new PolyphaseDecimator(rate / g, mSamplingFreq / g, PolyphaseDecimator.MAX_PASS_BAND);
+            mCaptureDecimatorRate = rate;
+            if (mCaptured == null) {
+                mCaptured = new short[CAPTURE_CHUNK];
             }
         }
+        return mCaptureDecimator;
     }
 
-    final int MAX_MISSING_FREQS_ACCEPTED = 3;
-
-    private void calculateSpeeds() {
-        mNumSpeeds = 0;
-        //for each missing trend, we need to find new "interests", or see if the current
-        //"interest" is accruing trend counts.
-        for (int x = 0; x < mMissingTrends.size(); x++) {
-            MissingTrend trend = mMissingTrends.get(x);
-            if (trend.timeSinceLastInterest >= MAX_MISSING_FREQS_ACCEPTED) {
-                mMissingTrends.remove(x);
-                x--;
-                debug("missing trend died prematurely!");
-                continue;
-            }
-
-            //find the latest closest frequency that is trending
-            int i_limit = trend.currentInterest - mConfig.getMaxFreqSeparation()[mConfig.getDivisions() * trend.currentInterest / mTrends.length];
-            if (i_limit < 0) i_limit = 0;
-            for (int i = trend.currentInterest; i >= i_limit; i--) {
-                if (mTrends[i].count > 0) {
-                    //found a trending frequency nearby! is it in the family?
-                    if (trend.origIndex - i < mConfig.getFamilyBoundary()[mConfig.getDivisions() * i / mTrends.length]) {
-                        //well it appears that this trend has re-appeared, take it out of the missing list and add the counts together
-                        mTrends[trend.origIndex].count = trend.oldCount + mTrends[i].count;
-                        mTrends[i].count = 0;
-                        mMissingTrends.remove(x);
-                        x--;
-                        break;
-                    }
-                    //well then, is it going to GO THE DISTANCE?
-                    if (trend.currentInterest == i && mTrends[i].count > mConfig.getMinTillAccept()) {
-                        //well then we found us a speed!
-                        double nspeed = getSpeed(fuzzyFreq(trend.index), fuzzyFreq(mTrends[i].index), mTemperature, 0.);
-                        if (nspeed > mConfig.getMinSpeed() && nspeed < mConfig.getMaxSpeed()) {
-                            mCalculatedSpeeds[mNumSpeeds] = nspeed;
-                            mCalculatedSpeedsSource[mNumSpeeds] = (int) ((fuzzyFreq(trend.index) + fuzzyFreq(mTrends[i].index)) / 2.);
-                            mNumSpeeds++;
-                        }
-                        //don't need this missing trend anymore
-                        debug("[" + mFrameCount + "]: Found speed for missing trend " + trend.origIndex + " with " + i + ": " + nspeed + "MPH");
-                        debug("       Frequencies " + mFft.indexToFreq(trend.origIndex) + " to " + mFft.indexToFreq(i));
-                        mMissingTrends.remove(x);
-                        x--;
-                        break;
-                    }
-                    if (trend.currentInterest == i) {
-                        //the trend is persisting still
-                        trend.timeSinceLastInterest = -1;
-                        trend.sig = mTrends[i].sig;
-                    } else {
-                        trend.currentInterest = i;
-                        trend.sig = mTrends[i].sig;
-                        trend.timeSinceLastInterest = -1;
-                        break;
-                    }
-                }
-            }
-            trend.timeSinceLastInterest++;
+    // Fetch the decimator that fits aInLength samples into a frame, or null if no resampling is needed.
+    // The decimator is only rebuilt when the capture buffer length or the configuration changes.
+    private PolyphaseDecimator decimatorFor(int aInLength) {
+        final int frameSize = mConfig.getFrameSize();
+        if (aInLength == frameSize) {
+            return null;
         }
-    }
-
-    private void debug(String aMsg) {
-        if (DEBUG) {
-            Log.v(TAG, aMsg);
+        if (mDecimator == null || mDecimator.getInLength() != aInLength || mDecimator.getOutLength() != frameSize) {
+            mDecimator = new PolyphaseDecimator(aInLength, frameSize, mConfig.getFreqMax() / mSamplingFreq);
         }
+        return mDecimator;
     }
 }
@@ -11,6 +11,10 @@ import android.util.Log;
 
 /**
  * Class that holds configuration information for the AudioDoppler processor.
+ *
+ * Configurations are immutable: the scale and set methods return a modified copy, and the array
+ * getters return copies. A configuration can therefore be shared between threads, and handing one
+ * to AudioDoppler.applyConfiguration() never disturbs another user of it.
  */
 public class AudioDopplerConfiguration {
     final String TAG = "ADConfiguration";
@@ -20,6 +24,21 @@ public class AudioDopplerConfiguration {
             1.15, 1.31, 1.48, 1.64, 1.79, 1.9, 2.1, 2.27, 2.36,
             2.5, 2.6, 2.7, 2.8 };
 
+    // Window functions that can be applied to each frame before the Fourier transform.
+    public static final int WINDOW_RECTANGULAR = 0;
+    public static final int WINDOW_HANN = 1;
+    public static final int WINDOW_BLACKMAN_HARRIS = 2;
+
+    // Ways peaks are followed from frame to frame into speeds.
+    public static final int TRACKER_TRENDS = 0;
+    public static final int TRACKER_KALMAN = 1;
+    public static final int TRACKER_HOUGH = 2;
+
+    /**
+     * The new samples per frame the frame counts of the configurations below are tuned for.
+     */
+    public static final int BASE_SAMPLES_PER_FRAME = 1024;
+
     // Statically created configurations to be used
     /**
      * Configuration that should be used normally.
@@ -51,19 +70,28 @@ public class AudioDopplerConfiguration {
                     46, 48, 50, 52}, //8000-10000
             10);
 
-    private float mFreqMin;
-    private float mFreqMax;
-    private int[] mPeakWidth;
-    private int[] mFamilyBoundary;
-    private int mMinTrendCountUntilCertified;
-    private int mMaxDopplerWindow;
-    private float mMaxSpeed;
-    private float mMinSpeed;
-    private int mDivisions;
-    private int[] mMaxFreqSeparation;
-    private int mMinTillAccept;
-    private int mFrameSize = 1024; //default starting point
-    private int mSamplesPerFrame = 1024; //default starting point
+    private final float mFreqMin;
+    private final float mFreqMax;
+    private final int[] mPeakWidth;
+    private final int[] mFamilyBoundary;
+    private final int mMinTrendCountUntilCertified;
+    private final int mMaxDopplerWindow;
+    private final float mMaxSpeed;
+    private final float mMinSpeed;
+    private final int mDivisions;
+    private final int[] mMaxFreqSeparation;
+    private final int mMinTillAccept;
+    private final int mFrameSize;
+    private final int mSamplesPerFrame;
+    private final int mZoom;
+    private final int mWindow;
+    private final float mHighPassCutoff;
+    private final boolean mPyramid;
+    private final int mSpectrumScale;
+    private final float mMinPeakSnr;
+    private final boolean mHarmonicGrouping;
+    private final int mTracker;
+    private AudioDopplerPlan mPlan; //built and cached by compile().
 
     /**
      * Constructs an AudioDopplerConfiguration with the specified parameters.
@@ -83,15 +111,25 @@ public class AudioDopplerConfiguration {
             int aMinTrendCount, int aMaxWindow, float aMaxSpeed, float aMinSpeed, int[] aFreqSeparation, int aMinTillAccept){
         mFreqMin = aFreqMin;
         mFreqMax = aFreqMax;
-        mPeakWidth = aPeakWidth;
-        mFamilyBoundary = aFamilyBoundary;
+        mPeakWidth = aPeakWidth.clone();
+        mFamilyBoundary = aFamilyBoundary.clone();
         mMinTrendCountUntilCertified = aMinTrendCount;
         mMaxDopplerWindow = aMaxWindow;
         mMaxSpeed = aMaxSpeed;
         mMinSpeed = aMinSpeed;
         mDivisions = aPeakWidth.length;
-        mMaxFreqSeparation = aFreqSeparation;
+        mMaxFreqSeparation = aFreqSeparation.clone();
         mMinTillAccept = aMinTillAccept;
+        mFrameSize = 1024; //default starting point
+        mSamplesPerFrame = BASE_SAMPLES_PER_FRAME; //default starting point
+        mZoom = 1;
+        mWindow = WINDOW_HANN;
+        mHighPassCutoff = aFreqMin / 2;
+        mPyramid = false;
+        mSpectrumScale = FourierTransform.SCALE_POWER;
+        mMinPeakSnr = 0.f;
+        mHarmonicGrouping = false;
+        mTracker = TRACKER_TRENDS;
         if(aPeakWidth.length != mDivisions || aFamilyBoundary.length != mDivisions){
             Log.v(TAG, "Critical error in AudioDopplerConfiguration: mDivisions and array length mismatch");
         }
@@ -125,40 +163,211 @@ public class AudioDopplerConfiguration {
         mFamilyBoundary = expand(aFamilyBoundary);
         mMaxFreqSeparation = expand(aFreqSep);
         mMinTillAccept = aMinTillAccept;
+        mFrameSize = 1024; //default starting point
+        mSamplesPerFrame = BASE_SAMPLES_PER_FRAME; //default starting point
+        mZoom = 1;
+        mWindow = WINDOW_HANN;
+        mHighPassCutoff = aFreqMin / 2;
+        mPyramid = false;
+        mSpectrumScale = FourierTransform.SCALE_POWER;
+        mMinPeakSnr = 0.f;
+        mHarmonicGrouping = false;
+        mTracker = TRACKER_TRENDS;
+    }
+
+    // Copies aBase, replacing the parameters that the scale and set methods change.
+    private AudioDopplerConfiguration(AudioDopplerConfiguration aBase, int[] aPeakWidth, int[] aFamilyBoundary, int[] aFreqSeparation,
+            int aMinTrendCount, int aMaxWindow, int aFrameSize, int aSamplesPerFrame, int aZoom, int aWindow,
+            float aHighPassCutoff, boolean aPyramid, int aSpectrumScale, float aMinPeakSnr, boolean aHarmonicGrouping, int aTracker){
+        mFreqMin = aBase.mFreqMin;
+        mFreqMax = aBase.mFreqMax;
+        mPeakWidth = aPeakWidth;
+        mFamilyBoundary = aFamilyBoundary;
+        mMinTrendCountUntilCertified = aMinTrendCount;
+        mMaxDopplerWindow = aMaxWindow;
+        mMaxSpeed = aBase.mMaxSpeed;
+        mMinSpeed = aBase.mMinSpeed;
+        mDivisions = aBase.mDivisions;
+        mMaxFreqSeparation = aFreqSeparation;
+        mMinTillAccept = aBase.mMinTillAccept;
+        mFrameSize = aFrameSize;
+        mSamplesPerFrame = aSamplesPerFrame;
+        mZoom = aZoom;
+        mWindow = aWindow;
+        mHighPassCutoff = aHighPassCutoff;
+        mPyramid = aPyramid;
+        mSpectrumScale = aSpectrumScale;
+        mMinPeakSnr = aMinPeakSnr;
+        mHarmonicGrouping = aHarmonicGrouping;
+        mTracker = aTracker;
     }
 
     /**
      * Scales configuration parameters affected by framesize accordingly this should be called
      * anytime you intend to move the framesize above or below 1024
-     * @param factor
+     * @param aFs The new frame size.
+     * @return A copy of this configuration for aFs, or this configuration if it already uses aFs.
      */
     public AudioDopplerConfiguration scaleFrameSize(int aFs){
-        double factor = (double)aFs / (double) mFrameSize;
-        mFrameSize = aFs;
-        for(int x = 0; x < mPeakWidth.length; x++){
-            mPeakWidth[x] *= factor;
-        }
-        for(int x = 0; x < mFamilyBoundary.length; x++){
-            mFamilyBoundary[x] *= factor;
+        if(aFs == mFrameSize){
+            return this;
         }
-        for(int x = 0; x < mMaxFreqSeparation.length; x++){
-            mMaxFreqSeparation[x] *= factor;
-        }
-        return this;
+        double factor = (double)aFs / (double) mFrameSize;
+        return new AudioDopplerConfiguration(this, scale(mPeakWidth, factor), scale(mFamilyBoundary, factor), scale(mMaxFreqSeparation, factor),
+                mMinTrendCountUntilCertified, mMaxDopplerWindow,
+                aFs, mSamplesPerFrame, mZoom, mWindow, mHighPassCutoff, mPyramid, mSpectrumScale, mMinPeakSnr, mHarmonicGrouping, mTracker);
     }
 
     /**
      * This should be called anytime you intend to feed less than or greather than 1024 new audio
      * samples per audio doppler frame. Typically what is done in this case is only the oldest n
-     * samples are deleted from the buffer and replaced with new samples.
+     * samples are deleted from the buffer and replaced with new samples. getMinTrendCountUntilCertified()
+     * and getMaxDopplerWindow() are scaled to span the same time at the new rate of frames.
+     * getMinTillAccept() keeps its count of frames: the tone after a pass must hold still for that many
+     * consecutive frames, and with fewer new samples each frame is no less noisy, so a run twice as long
+     * is rarely held on a brief pass.
      * @param aSampsPerFrame
-     * @return
+     * @return A copy of this configuration for aSampsPerFrame.
      */
     public AudioDopplerConfiguration scaleSamplesPerFrame(int aSampsPerFrame){
-        double factor = (double)aSampsPerFrame / (double) mSamplesPerFrame;
-        mSamplesPerFrame = aSampsPerFrame;
-        mMaxDopplerWindow *= factor;
-        return this;
+        if(aSampsPerFrame == mSamplesPerFrame){
+            return this;
+        }
+        double factor = (double) mSamplesPerFrame / (double)aSampsPerFrame;
+        return new AudioDopplerConfiguration(this, mPeakWidth, mFamilyBoundary, mMaxFreqSeparation,
+                scale(mMinTrendCountUntilCertified, factor), scale(mMaxDopplerWindow, factor),
+                mFrameSize, aSampsPerFrame, mZoom, mWindow, mHighPassCutoff, mPyramid, mSpectrumScale, mMinPeakSnr, mHarmonicGrouping, mTracker);
+    }
+
+    /**
+     * Sets how many times finer than the Fourier frame the spectrum is sampled within the detection band.
+     * Like scaleFrameSize(), this scales the parameters that are expressed in spectrum bins.
+     * @param aZoom Power of two zoom factor, 1 for a plain FFT.
+     * @return A copy of this configuration with the new zoom.
+     */
+    public AudioDopplerConfiguration setZoom(int aZoom){
+        if(aZoom == mZoom){
+            return this;
+        }
+        double factor = (double)aZoom / (double) mZoom;
+        return new AudioDopplerConfiguration(this, scale(mPeakWidth, factor), scale(mFamilyBoundary, factor), scale(mMaxFreqSeparation, factor),
+                mMinTrendCountUntilCertified, mMaxDopplerWindow,
+                mFrameSize, mSamplesPerFrame, aZoom, mWindow, mHighPassCutoff, mPyramid, mSpectrumScale, mMinPeakSnr, mHarmonicGrouping, mTracker);
+    }
+
+    /**
+     * Selects the window applied to each frame before the Fourier transform.
+     * @param aWindow One of the WINDOW_ constants.
+     * @return A copy of this configuration with the new window.
+     */
+    public AudioDopplerConfiguration setWindow(int aWindow){
+        return new AudioDopplerConfiguration(this, mPeakWidth, mFamilyBoundary, mMaxFreqSeparation,
+                mMinTrendCountUntilCertified, mMaxDopplerWindow,
+                mFrameSize, mSamplesPerFrame, mZoom, aWindow, mHighPassCutoff, mPyramid, mSpectrumScale, mMinPeakSnr, mHarmonicGrouping, mTracker);
+    }
+
+    /**
+     * Sets the cutoff of the high-pass filter applied to incoming audio to strip DC and wind rumble.
+     * @param aHz Cutoff frequency in Hz, 0 to disable the filter.
+     * @return A copy of this configuration with the new cutoff.
+     */
+    public AudioDopplerConfiguration setHighPassCutoff(float aHz){
+        return new AudioDopplerConfiguration(this, mPeakWidth, mFamilyBoundary, mMaxFreqSeparation,
+                mMinTrendCountUntilCertified, mMaxDopplerWindow,
+                mFrameSize, mSamplesPerFrame, mZoom, mWindow, aHz, mPyramid, mSpectrumScale, mMinPeakSnr, mHarmonicGrouping, mTracker);
+    }
+
+    /**
+     * Selects whether the spectrum is built from a pyramid of transforms instead of a single one, see
+     * SpectrumPyramid. The pyramid adds transforms of a quarter and an eighth of the frame size, which
+     * are recomputed every frame, while the full frame is only transformed every half frame of new
+     * samples. Each division of the band is then taken from the coarsest transform that resolves it
+     * finely enough, so low frequencies get the resolution of the full frame and high frequencies the
+     * latency of the smallest transform. The zoom must be 1.
+     * @param aPyramid
+     * @return A copy of this configuration with the pyramid turned on or off.
+     */
+    public AudioDopplerConfiguration setPyramid(boolean aPyramid){
+        return new AudioDopplerConfiguration(this, mPeakWidth, mFamilyBoundary, mMaxFreqSeparation,
+                mMinTrendCountUntilCertified, mMaxDopplerWindow,
+                mFrameSize, mSamplesPerFrame, mZoom, mWindow, mHighPassCutoff, aPyramid, mSpectrumScale, mMinPeakSnr, mHarmonicGrouping, mTracker);
+    }
+
+    /**
+     * Selects the scale of the spectra peaks are searched in, one of the FourierTransform.SCALE_
+     * constants. Peaks and trends only compare bins with each other, which any of the scales does
+     * alike, so the default of power spectra detects exactly what amplitude spectra do without taking
+     * a square root per bin. Log power spectra take a table lookup per bin instead and fit the sub-bin
+     * position of peaks without logarithms, but the table rounds the levels of bins, so close bins may
+     * compare differently.
+     * @param aScale
+     * @return A copy of this configuration with the spectrum scale set.
+     */
+    public AudioDopplerConfiguration setSpectrumScale(int aScale){
+        return new AudioDopplerConfiguration(this, mPeakWidth, mFamilyBoundary, mMaxFreqSeparation,
+                mMinTrendCountUntilCertified, mMaxDopplerWindow,
+                mFrameSize, mSamplesPerFrame, mZoom, mWindow, mHighPassCutoff, mPyramid, aScale, mMinPeakSnr, mHarmonicGrouping, mTracker);
+    }
+
+    /**
+     * Only keeps peaks that stand aDb above the noise floor, see NoiseFloorTracker. Broadband noise
+     * such as wind makes peaks of every local maximum, which then cost the trend pass its family
+     * searches and can start spurious trends; engine harmonics stand well clear of it. 0 turns the
+     * noise floor off and keeps every peak.
+     * @param aDb
+     * @return A copy of this configuration with the margin set.
+     */
+    public AudioDopplerConfiguration setMinPeakSnr(float aDb){
+        return new AudioDopplerConfiguration(this, mPeakWidth, mFamilyBoundary, mMaxFreqSeparation,
+                mMinTrendCountUntilCertified, mMaxDopplerWindow,
+                mFrameSize, mSamplesPerFrame, mZoom, mWindow, mHighPassCutoff, mPyramid, mSpectrumScale, aDb, mHarmonicGrouping, mTracker);
+    }
+
+    /**
+     * Selects whether peaks that are harmonics of one source are merged into one, see HarmonicGrouper.
+     * An engine is then followed as one trend instead of one per harmonic, and its speed measured from
+     * all of its harmonics at once, which is more precise than any one of them.
+     * @param aGrouping
+     * @return A copy of this configuration with harmonic grouping turned on or off.
+     */
+    public AudioDopplerConfiguration setHarmonicGrouping(boolean aGrouping){
+        return new AudioDopplerConfiguration(this, mPeakWidth, mFamilyBoundary, mMaxFreqSeparation,
+                mMinTrendCountUntilCertified, mMaxDopplerWindow,
+                mFrameSize, mSamplesPerFrame, mZoom, mWindow, mHighPassCutoff, mPyramid, mSpectrumScale,
+                mMinPeakSnr, aGrouping, mTracker);
+    }
+
+    /**
+     * Selects how peaks are followed from frame to frame, one of the TRACKER_ constants. The default
+     * TRACKER_TRENDS counts peaks into trends and takes a speed from a certified trend that went
+     * missing once a trend below it has lasted getMinTillAccept() frames. TRACKER_KALMAN follows each
+     * peak with a Kalman filter through the sweep of a pass and takes a speed as soon as the frequency
+     * after the pass has held still for a few frames, see KalmanTracker. TRACKER_HOUGH collects peaks
+     * into lines of steady frequency and votes for the ratio between lines that end and lines that
+     * start below them, which finds passes that shift too fast to follow, see HoughChirpDetector.
+     * @param aTracker
+     * @return A copy of this configuration with the tracker set.
+     */
+    public AudioDopplerConfiguration setTracker(int aTracker){
+        return new AudioDopplerConfiguration(this, mPeakWidth, mFamilyBoundary, mMaxFreqSeparation,
+                mMinTrendCountUntilCertified, mMaxDopplerWindow,
+                mFrameSize, mSamplesPerFrame, mZoom, mWindow, mHighPassCutoff, mPyramid, mSpectrumScale,
+                mMinPeakSnr, mHarmonicGrouping, aTracker);
+    }
+
+    /**
+     * Fetch the per-bin lookup tables for this configuration. The plan is built on first use and
+     * cached, so callers can compile configurations ahead of time and switch between them for free.
+     * @param aSampleRate Sampling rate of the audio, in Hz.
+     * @return
+     */
+    public synchronized AudioDopplerPlan compile(int aSampleRate){
+        AudioDopplerPlan plan = mPlan;
+        if(plan == null || !plan.matches(getSpectrumSize(), aSampleRate)){
+            plan = new AudioDopplerPlan(this, aSampleRate);
+            mPlan = plan;
+        }
+        return plan;
     }
 
     /**
@@ -182,7 +391,7 @@ public class AudioDopplerConfiguration {
      * @return
      */
     public int[] getPeakWidth() {
-        return mPeakWidth;
+        return mPeakWidth.clone();
     }
 
     /**
@@ -191,7 +400,7 @@ public class AudioDopplerConfiguration {
      * they shift the index towards them to record their contribution.
      */
     public int[] getFamilyBoundary() {
-        return mFamilyBoundary;
+        return mFamilyBoundary.clone();
     }
 
     /**
@@ -241,7 +450,7 @@ public class AudioDopplerConfiguration {
      *          readings.
      */
     public int[] getMaxFreqSeparation() {
-        return mMaxFreqSeparation;
+        return mMaxFreqSeparation.clone();
     }
 
     /**
@@ -259,6 +468,25 @@ public class AudioDopplerConfiguration {
         return mFrameSize;
     }
 
+    /**
+     * The number of bins in the spectrum - getFrameSize() * getZoom(). All parameters expressed in
+     * bins (peak width, family boundary and frequency separation) refer to this spectrum.
+     * @return
+     */
+    public int getSpectrumSize() {
+        return mFrameSize * mZoom;
+    }
+
+    /**
+     * How many times finer than an FFT of getFrameSize() the spectrum is sampled within the detection
+     * band. Values above 1 use a band-limited transform (see ZoomSpectrum) so the finer resolution
+     * costs much less than a correspondingly bigger FFT.
+     * @return
+     */
+    public int getZoom() {
+        return mZoom;
+    }
+
     /**
      * The number of new samples in each frame. If this is < the frame size, samples are re-used from
      * the last frame.
@@ -268,6 +496,100 @@ public class AudioDopplerConfiguration {
         return mSamplesPerFrame;
     }
 
+    /**
+     * The window applied to each frame before the Fourier transform, one of the WINDOW_ constants. Windowing
+     * suppresses the spectral leakage that would otherwise show up as spurious peaks around strong tones.
+     * @return
+     */
+    public int getWindow() {
+        return mWindow;
+    }
+
+    /**
+     * Cutoff frequency of the high-pass filter applied to incoming audio, in Hz. Defaults to half of
+     * getFreqMin() so it cannot attenuate anything that is used for detection.
+     * @return
+     */
+    public float getHighPassCutoff() {
+        return mHighPassCutoff;
+    }
+
+    /**
+     * Whether the spectrum is built from a pyramid of transforms, see setPyramid().
+     * @return
+     */
+    public boolean isPyramid() {
+        return mPyramid;
+    }
+
+    /**
+     * The scale of the spectra peaks are searched in, see setSpectrumScale().
+     * @return
+     */
+    public int getSpectrumScale() {
+        return mSpectrumScale;
+    }
+
+    /**
+     * Margin in dB that peaks must stand above the noise floor by, or 0 if the noise floor is not
+     * tracked, see setMinPeakSnr().
+     * @return
+     */
+    public float getMinPeakSnr() {
+        return mMinPeakSnr;
+    }
+
+    /**
+     * Whether peaks that are harmonics of one source are merged, see setHarmonicGrouping().
+     * @return
+     */
+    public boolean isHarmonicGrouping() {
+        return mHarmonicGrouping;
+    }
+
+    /**
+     * How peaks are followed from frame to frame, see setTracker().
+     * @return
+     */
+    public int getTracker() {
+        return mTracker;
+    }
+
+    /**
+     * The sizes of the transforms the spectrum is built from, smallest first: getFrameSize() alone,
+     * or in pyramid mode also getFrameSize() / 8 and getFrameSize() / 4.
+     * @return
+     */
+    public int[] getLevelSizes() {
+        if (mPyramid) {
+            return new int[] { mFrameSize / 8, mFrameSize / 4, mFrameSize };
+        }
+        return new int[] { mFrameSize };
+    }
+
+    /**
+     * The number of new samples between frames: getSamplesPerFrame(), but no more than the smallest
+     * transform in getLevelSizes(), so every transform is refreshed at least as often as its size.
+     * @return
+     */
+    public int getHopSize() {
+        return Math.min(mSamplesPerFrame, mPyramid ? mFrameSize / 8 : mFrameSize);
+    }
+
+    // Scales a number of frames by aFactor, truncating, but to no less than one frame.
+    private static int scale(int aIn, double aFactor){
+        return Math.max(1, (int)(aIn * aFactor));
+    }
+
+    // Scales each element of aIn by aFactor, truncating, but to no less than one bin.
+    private static int[] scale(int[] aIn, double aFactor){
+        int[] ret = new int[aIn.length];
+        for(int x = 0; x < aIn.length; x++){
+            ret[x] = scale(aIn[x], aFactor);
+        }
+        return ret;
+    }
+
     // Some of the configuration properties for the AudioDoppler use arrays of configuration variables
     // so that different parts of the Fourier spectrum get treated differently (as the frequency spread
     // changes as you go up and down the spectrum). This method allows a constant expansion of a single
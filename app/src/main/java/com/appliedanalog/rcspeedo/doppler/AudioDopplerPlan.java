@@ -0,0 +1,171 @@
+/*
+ * Copyright Applied Analog (c) 2015/2016
+ *
+ * This code is free for use in any non-commercial software. It carries
+ * no restrictions in such software.
+ */
+
+package com.appliedanalog.rcspeedo.doppler;
+
+/**
+ * Lookup tables derived from an AudioDopplerConfiguration for one spectrum size and sampling rate.
+ * The configuration expresses its parameters per division of the detection band; the plan resolves
+ * them per bin once, so the per-frame passes of AudioDoppler index straight into a table instead of
+ * recomputing the division of every bin they touch.
+ *
+ * Plans are produced and cached by AudioDopplerConfiguration.compile(). The tables are shared by
+ * every user of the plan and must not be modified.
+ */
+public class AudioDopplerPlan {
+    private final int mSpectrumSize;
+    private final int mSampleRate;
+
+    // Peak detection: runs of bins sharing a peak width, run r covering [mPeakRunStart[r], mPeakRunStart[r + 1]).
+    private final int[] mPeakRunStart;
+    private final int[] mPeakRunWidth;
+
+    // Trend tracking: the first trend bin of each division (plus the end), and per-bin parameters.
+    private final int[] mDivisionStart;
+    private final int[] mDivisionFamily;
+    private final int[] mFamilyAt;
+    private final int[] mFreqSeparationAt;
+
+    private final float[] mBinFreq;
+    private final float mFreqMin;
+    private final float mFreqMax;
+
+    AudioDopplerPlan(AudioDopplerConfiguration aConfig, int aSampleRate) {
+        mSpectrumSize = aConfig.getSpectrumSize();
+        mSampleRate = aSampleRate;
+        final int divisions = aConfig.getDivisions();
+        final int[] peakWidth = aConfig.getPeakWidth();
+
+        // Peaks are searched between the band edges, with the peak width at bin x taken from division
+        // divisions * (x - start) / end.
+        int start = FourierTransform.freqToIndex(aConfig.getFreqMin(), mSpectrumSize, aSampleRate);
+        int end = FourierTransform.freqToIndex(aConfig.getFreqMax(), mSpectrumSize, aSampleRate);
+        int first = start + peakWidth[0];
+        int last = Math.max(first, end - peakWidth[divisions - 1]);
+        int[] runStart = new int[divisions + 1];
+        int[] runWidth = new int[divisions];
+        int runs = 0;
+        for (int x = first; x < last; runs++) {
+            int div = divisions * (x - start) / end;
+            // First bin of the next division: the smallest x with divisions * (x - start) >= (div + 1) * end.
+            int next = start + ((div + 1) * end + divisions - 1) / divisions;
+            runStart[runs] = x;
+            runWidth[runs] = peakWidth[div];
+            x = Math.min(last, next);
+        }
+        runStart[runs] = last;
+        mPeakRunStart = new int[runs + 1];
+        mPeakRunWidth = new int[runs];
+        System.arraycopy(runStart, 0, mPeakRunStart, 0, runs + 1);
+        System.arraycopy(runWidth, 0, mPeakRunWidth, 0, runs);
+
+        // Trends span half of the spectrum, bin x belonging to division divisions * x / size.
+        final int size = mSpectrumSize / 2;
+        mDivisionStart = new int[divisions + 1];
+        for (int div = 0; div <= divisions; div++) {
+            mDivisionStart[div] = (div * size + divisions - 1) / divisions;
+        }
+        mDivisionFamily = aConfig.getFamilyBoundary();
+        final int[] freqSeparation = aConfig.getMaxFreqSeparation();
+        mFamilyAt = new int[size];
+        mFreqSeparationAt = new int[size];
+        for (int x = 0; x < size; x++) {
+            int div = divisions * x / size;
+            mFamilyAt[x] = mDivisionFamily[div];
+            mFreqSeparationAt[x] = freqSeparation[div];
+        }
+
+        mBinFreq = new float[size + 1];
+        for (int x = 0; x <= size; x++) {
+            mBinFreq[x] = FourierTransform.indexToFreq(x, mSpectrumSize, aSampleRate);
+        }
+
+        mFreqMin = aConfig.getFreqMin();
+        mFreqMax = aConfig.getFreqMax();
+    }
+
+    /**
+     * Whether this plan was compiled for the given spectrum size and sampling rate.
+     * @param aSpectrumSize
+     * @param aSampleRate
+     * @return
+     */
+    public boolean matches(int aSpectrumSize, int aSampleRate) {
+        return mSpectrumSize == aSpectrumSize && mSampleRate == aSampleRate;
+    }
+
+    /**
+     * Start bins of the runs of bins that share a peak width, followed by the end of the last run.
+     * @return
+     */
+    public int[] getPeakRunStart() {
+        return mPeakRunStart;
+    }
+
+    /**
+     * Peak width of each run in getPeakRunStart().
+     * @return
+     */
+    public int[] getPeakRunWidth() {
+        return mPeakRunWidth;
+    }
+
+    /**
+     * First trend bin of each division, followed by the number of trend bins.
+     * @return
+     */
+    public int[] getDivisionStart() {
+        return mDivisionStart;
+    }
+
+    /**
+     * Family boundary of each division.
+     * @return
+     */
+    public int[] getDivisionFamily() {
+        return mDivisionFamily;
+    }
+
+    /**
+     * Family boundary of the division of each trend bin.
+     * @return
+     */
+    public int[] getFamilyAt() {
+        return mFamilyAt;
+    }
+
+    /**
+     * Maximum frequency separation of the division of each trend bin.
+     * @return
+     */
+    public int[] getFreqSeparationAt() {
+        return mFreqSeparationAt;
+    }
+
+    /**
+     * Frequency in Hz of a fractional spectrum index, interpolating between the neighbouring bins.
+     * @param aIndex
+     * @return
+     */
+    public double fuzzyFreq(double aIndex) {
+        double ciel_freq = mBinFreq[(int) Math.ceil(aIndex)];
+        int floor = (int) Math.floor(aIndex);
+        double flor_freq = mBinFreq[floor];
+        double ratio = aIndex - floor;
+        return (ciel_freq * ratio + flor_freq * (1. - ratio));
+    }
+
+    /**
+     * Weight of a speed derived from trends around aSourceFreq, rising linearly from
+     * AudioDoppler.MIN_SPEED_WEIGHT at getFreqMin() to 1 at getFreqMax(). See AudioDoppler.getSpeedWeight().
+     * @param aSourceFreq Source frequency in Hz.
+     * @return
+     */
+    public double speedWeight(int aSourceFreq) {
+        return ((1 - AudioDoppler.MIN_SPEED_WEIGHT) * ((aSourceFreq - mFreqMin) / (mFreqMax - mFreqMin))) + AudioDoppler.MIN_SPEED_WEIGHT;
+    }
+}
@@ -1 +1,201 @@
-package com.appliedanalog.rcspeedo.doppler;/* *  Copyright (c) 2007 - 2008 by Damien Di Fede <ddf@compartmental.net> * *   This program is free software; you can redistribute it and/or modify *   it under the terms of the GNU Library General Public License as published *   by the Free Software Foundation; either version 2 of the License, or *   (at your option) any later version. * *   This program is distributed in the hope that it will be useful, *   but WITHOUT ANY WARRANTY; without even the implied warranty of *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the *   GNU Library General Public License for more details. * *   You should have received a copy of the GNU Library General Public *   License along with this program; if not, write to the Free Software *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA. *//** * FFT stands for Fast Fourier Transform. It is an efficient way to calculate the Complex * <p/> * Discrete Fourier Transform. There is not much to say about this class other than the fact * <p/> * that when you want to analyze the spectrum of an audio buffer you will almost always use * <p/> * this class. One restriction of this class is that the audio buffers you want to analyze * <p/> * must have a length that is a power of two. If you try to construct an FFT with a * <p/> * <code>timeSize</code> that is not a power of two, an IllegalArgumentException will be * <p/> * thrown. * * @author Damien Di Fede * @see FourierTransform * @see <a href="http://www.dspguide.com/ch12.htm">The Fast Fourier Transform</a> */public class FFT extends FourierTransform{    /**     * Constructs an FFT that will accept sample buffers that are     * <p/>     * <code>timeSize</code> long and have been recorded with a sample rate of     * <p/>     * <code>sampleRate</code>. <code>timeSize</code> <em>must</em> be a     * <p/>     * power of two. This will throw an exception if it is not.     *     * @param timeSize   the length of the sample buffers you will be analyzing     * @param sampleRate the sample rate of the audio you will be analyzing     */    public FFT(int timeSize, float sampleRate)    {        super(timeSize, sampleRate);        if ((timeSize & (timeSize - 1)) != 0)            throw new IllegalArgumentException(                    "FFT: timeSize must be a power of two.");        buildReverseTable();        buildTrigTables();    }    protected void allocateArrays()    {        spectrum = new float[timeSize / 2 + 1];        real = new float[timeSize];        imag = new float[timeSize];    }    public void scaleBand(int i, float s)    {        if (s < 0)        {            throw new IllegalArgumentException("Can't scale a frequency band by a negative value.");        }        if (spectrum[i] != 0)        {            real[i] /= spectrum[i];            imag[i] /= spectrum[i];            spectrum[i] *= s;            real[i] *= spectrum[i];            imag[i] *= spectrum[i];        }        if (i != 0 && i != timeSize / 2)        {            real[timeSize - i] = real[i];            imag[timeSize - i] = -imag[i];        }    }    public void setBand(int i, float a)    {        if (a < 0)        {            throw new IllegalArgumentException("Can't set a frequency band to a negative value.");        }        if (real[i] == 0 && imag[i] == 0)        {            real[i] = a;            spectrum[i] = a;        } else        {            real[i] /= spectrum[i];            imag[i] /= spectrum[i];            spectrum[i] = a;            real[i] *= spectrum[i];            imag[i] *= spectrum[i];        }        if (i != 0 && i != timeSize / 2)        {            real[timeSize - i] = real[i];            imag[timeSize - i] = -imag[i];        }    }    // performs an in-place mFft on the data in the real and imag arrays    // bit reversing is not necessary as the data will already be bit reversed    private void fft()    {        for (int halfSize = 1; halfSize < real.length; halfSize *= 2)        {            // float k = -(float)Math.PI/halfSize;            // phase shift step            // float phaseShiftStepR = (float)Math.cos(k);            // float phaseShiftStepI = (float)Math.sin(k);            // using lookup table            float phaseShiftStepR = cos(halfSize);            float phaseShiftStepI = sin(halfSize);            // current phase shift            float currentPhaseShiftR = 1.0f;            float currentPhaseShiftI = 0.0f;            for (int fftStep = 0; fftStep < halfSize; fftStep++)            {                for (int i = fftStep; i < real.length; i += 2 * halfSize)                {                    int off = i + halfSize;                    float tr = (currentPhaseShiftR * real[off]) - (currentPhaseShiftI * imag[off]);                    float ti = (currentPhaseShiftR * imag[off]) + (currentPhaseShiftI * real[off]);                    real[off] = real[i] - tr;                    imag[off] = imag[i] - ti;                    real[i] += tr;                    imag[i] += ti;                }                float tmpR = currentPhaseShiftR;                currentPhaseShiftR = (tmpR * phaseShiftStepR) - (currentPhaseShiftI * phaseShiftStepI);                currentPhaseShiftI = (tmpR * phaseShiftStepI) + (currentPhaseShiftI * phaseShiftStepR);            }        }    }    public void forward(float[] buffer)    {        if (buffer.length != timeSize)        {            throw new IllegalArgumentException("FFT.forward: The length of the passed sample buffer must be equal to timeSize().");        }        doWindow(buffer);        // copy samples to real/imag in bit-reversed order        bitReverseSamples(buffer);        // perform the mFft        fft();        // fill the spectrum buffer with amplitudes        fillSpectrum();    }    /**     * Performs a forward transform on the passed buffers.     *     * @param buffReal the real part of the time domain signal to transform     * @param buffImag the imaginary part of the time domain signal to transform     */    public void forward(float[] buffReal, float[] buffImag)    {        if (buffReal.length != timeSize || buffImag.length != timeSize)        {            throw new IllegalArgumentException("FFT.forward: The length of the passed buffers must be equal to timeSize().");        }        setComplex(buffReal, buffImag);        bitReverseComplex();        fft();        fillSpectrum();    }    public void inverse(float[] buffer)    {        if (buffer.length > real.length)        {            throw new IllegalArgumentException("FFT.inverse: the passed array's length must equal FFT.timeSize().");        }        // conjugate        for (int i = 0; i < timeSize; i++)        {            imag[i] *= -1;        }        bitReverseComplex();        fft();        // copy the result in real into buffer, scaling as we do        for (int i = 0; i < buffer.length; i++)        {            buffer[i] = real[i] / real.length;        }    }    private int[] reverse;    private void buildReverseTable()    {        int N = timeSize;        reverse = new int[N];        // set up the bit reversing table        reverse[0] = 0;        for (int limit = 1, bit = N / 2; limit < N; limit <<= 1, bit >>= 1)            for (int i = 0; i < limit; i++)                reverse[i + limit] = reverse[i] + bit;    }    // copies the values in the samples array into the real array    // in bit reversed order. the imag array is filled with zeros.    private void bitReverseSamples(float[] samples)    {        for (int i = 0; i < samples.length; i++)        {            real[i] = samples[reverse[i]];            imag[i] = 0.0f;        }    }    // bit reverse real[] and imag[]    private void bitReverseComplex()    {        float[] revReal = new float[real.length];        float[] revImag = new float[imag.length];        for (int i = 0; i < real.length; i++)        {            revReal[i] = real[reverse[i]];            revImag[i] = imag[reverse[i]];        }        real = revReal;        imag = revImag;    }    // lookup tables    private float[] sinlookup;    private float[] coslookup;    private float sin(int i)    {        return sinlookup[i];    }    private float cos(int i)    {        return coslookup[i];    }    private void buildTrigTables()    {        int N = timeSize;        sinlookup = new float[N];        coslookup = new float[N];        for (int i = 0; i < N; i++)        {            sinlookup[i] = (float) Math.sin(-(float) Math.PI / i);            coslookup[i] = (float) Math.cos(-(float) Math.PI / i);        }    }}
\ No newline at end of file
+/*
+ * Copyright Applied Analog (c) 2015/2016
+ *
+ * This code is free for use in any non-commercial software. It carries
+ * no restrictions in such software.
+ */
+
+package com.appliedanalog.rcspeedo.doppler;
+
+/**
+ * Radix-2 FFT specialized for real input. A frame of N real samples is packed into N/2 complex
+ * values, transformed in place and then split back into the N/2 + 1 bands of the real spectrum.
+ *
+ * Twiddle factors and the bit-reversal permutation are computed once per frame size and shared by
+ * every FFT of that size, and all working memory is allocated up front, so forward() performs no
+ * heap allocation.
+ */
+public class FFT extends FourierTransform {
+
+    /**
+     * Precomputed tables for a real transform of size mSize (complex transform of size mSize / 2).
+     */
+    static final class Tables {
+        final int mSize;
+        // cos/sin(2 * PI * k / mSize) for k = 0..mSize/2.
+        final float[] mCos;
+        final float[] mSin;
+        // Bit reversal permutation for the mSize/2 point complex transform.
+        final int[] mBitReverse;
+
+        private Tables(int aSize) {
+            mSize = aSize;
+            mCos = new float[aSize / 2 + 1];
+            mSin = new float[aSize / 2 + 1];
+            for (int k = 0; k <= aSize / 2; k++) {
+                double angle = 2. * Math.PI * k / aSize;
+                mCos[k] = (float) Math.cos(angle);
+                mSin[k] = (float) Math.sin(angle);
+            }
+            int half = aSize / 2;
+            int bits = Integer.numberOfTrailingZeros(half);
+            mBitReverse = new int[half];
+            for (int i = 0; i < half; i++) {
+                mBitReverse[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+            }
+        }
+
+        private static final Tables[] sCache = new Tables[31];
+
+        /**
+         * Fetch the shared tables for a real transform of size aSize, building them on first use.
+         */
+        static synchronized Tables forSize(int aSize) {
+            int log = Integer.numberOfTrailingZeros(aSize);
+            if (sCache[log] == null) {
+                sCache[log] = new Tables(aSize);
+            }
+            return sCache[log];
+        }
+    }
+
+    private final Tables mTables;
+    // Working buffers for the packed N/2 point complex transform.
+    private final float[] mWorkReal;
+    private final float[] mWorkImag;
+    // Complex output spectrum, N/2 + 1 bands.
+    private final float[] mReal;
+    private final float[] mImag;
+
+    /**
+     * Constructs an FFT.
+     * @param aTimeSize Frame size. Must be a power of two no smaller than 4.
+     * @param aSampleRate Sampling rate of the frames, in Hz.
+     */
+    public FFT(int aTimeSize, float aSampleRate) {
+        super(aTimeSize, aSampleRate);
+        if (!isPowerOfTwo(aTimeSize) || aTimeSize < 4) {
+            throw new IllegalArgumentException("FFT: timeSize must be a power of two >= 4, got " + aTimeSize);
+        }
+        mTables = Tables.forSize(aTimeSize);
+        mWorkReal = new float[aTimeSize / 2];
+        mWorkImag = new float[aTimeSize / 2];
+        mReal = new float[aTimeSize / 2 + 1];
+        mImag = new float[aTimeSize / 2 + 1];
+    }
+
+    /**
+     * Computes the spectrum of the first timeSize() samples of aBuffer.
+     * @param aBuffer
+     */
+    @Override
+    public void forward(float[] aBuffer) {
+        final int half = mTimeSize >> 1;
+        final float[] re = mWorkReal;
+        final float[] im = mWorkImag;
+
+        // Pack even samples into the real part and odd samples into the imaginary part.
+        for (int n = 0, s = 0; n < half; n++, s += 2) {
+            re[n] = aBuffer[s];
+            im[n] = aBuffer[s + 1];
+        }
+        transform(re, im, half, mTables, false);
+
+        // Split the packed result: X[k] = E[k] + W^k * O[k], where E and O are the transforms of the
+        // even and odd samples recovered from Z[k] and conj(Z[N/2 - k]).
+        final float[] cos = mTables.mCos;
+        final float[] sin = mTables.mSin;
+        mReal[0] = re[0] + im[0];
+        mImag[0] = 0.f;
+        mReal[half] = re[0] - im[0];
+        mImag[half] = 0.f;
+        for (int k = 1; k < half; k++) {
+            float a = re[k];
+            float b = im[k];
+            float c = re[half - k];
+            float d = im[half - k];
+            float er = .5f * (a + c);
+            float ei = .5f * (b - d);
+            float or = .5f * (b + d);
+            float oi = .5f * (c - a);
+            float wr = cos[k];
+            float wi = -sin[k];
+            mReal[k] = er + wr * or - wi * oi;
+            mImag[k] = ei + wr * oi + wi * or;
+        }
+
+        for (int k = 0; k <= half; k++) {
+            mSpectrum[k] = scaled(mReal[k] * mReal[k] + mImag[k] * mImag[k]);
+        }
+    }
+
+    /**
+     * Real part of the complex spectrum computed by the last call to forward().
+     */
+    float[] getReal() {
+        return mReal;
+    }
+
+    /**
+     * Imaginary part of the complex spectrum computed by the last call to forward().
+     */
+    float[] getImag() {
+        return mImag;
+    }
+
+    /**
+     * In-place, unnormalized complex FFT of arbitrary power of two length. The inverse transform
+     * is not scaled by 1/length.
+     * @param aReal
+     * @param aImag
+     * @param aInverse
+     */
+    static void complexTransform(float[] aReal, float[] aImag, boolean aInverse) {
+        int size = aReal.length;
+        if (!isPowerOfTwo(size) || size < 2) {
+            throw new IllegalArgumentException("FFT: complex length must be a power of two >= 2, got " + size);
+        }
+        transform(aReal, aImag, size, Tables.forSize(size * 2), aInverse);
+    }
+
+    static boolean isPowerOfTwo(int aValue) {
+        return aValue > 0 && (aValue & (aValue - 1)) == 0;
+    }
+
+    // Iterative decimation-in-time complex transform of aSize = aTables.mSize / 2 points.
+    private static void transform(float[] aRe, float[] aIm, int aSize, Tables aTables, boolean aInverse) {
+        final int[] rev = aTables.mBitReverse;
+        for (int i = 0; i < aSize; i++) {
+            int j = rev[i];
+            if (j > i) {
+                float t = aRe[i];
+                aRe[i] = aRe[j];
+                aRe[j] = t;
+                t = aIm[i];
+                aIm[i] = aIm[j];
+                aIm[j] = t;
+            }
+        }
+
+        final float[] cos = aTables.mCos;
+        final float[] sin = aTables.mSin;
+        final float sign = aInverse ? 1.f : -1.f;
+        for (int span = 1; span < aSize; span <<= 1) {
+            // The twiddle table is indexed in units of 2*PI/aTables.mSize = PI/aSize.
+            int step = aSize / span;
+            for (int j = 0, t = 0; j < span; j++, t += step) {
+                float wr = cos[t];
+                float wi = sign * sin[t];
+                for (int i = j; i < aSize; i += span << 1) {
+                    int m = i + span;
+                    float tr = wr * aRe[m] - wi * aIm[m];
+                    float ti = wr * aIm[m] + wi * aRe[m];
+                    aRe[m] = aRe[i] - tr;
+                    aIm[m] = aIm[i] - ti;
+                    aRe[i] += tr;
+                    aIm[i] += ti;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright Applied Analog (c) 2015/2016
+ *
+ * This code is free for use in any non-commercial software. It carries
+ * no restrictions in such software.
+ */
+
+package com.appliedanalog.rcspeedo.doppler;
+
+/**
+ * Merges the peaks of a frame that are harmonics of one source into a single peak, see
+ * AudioDopplerConfiguration.setHarmonicGrouping().
+ *
+ * An engine sounds its fundamental and a series of harmonics, and a doppler shift scales them all by
+ * the same ratio. Tracking each harmonic as its own trend costs a trend per harmonic and yields a
+ * speed per harmonic, each measured from one peak. Instead, peaks at near-integer multiples of a
+ * common fundamental are grouped, the fundamental is fitted to all of them, and the group is replaced
+ * by one peak at a multiple of the fitted fundamental. The trend passes then follow one trend per
+ * source, at a position that averages out the interpolation error of every harmonic.
+ *
+ * The multiple must not change while the source is tracked, or the trend pass would take the jump
+ * for a doppler shift. Groups are remembered for getMaxDopplerWindow() frames, and a group that
+ * continues a remembered one, or comes back shifted down after a pass, keeps its multiple. A new group
+ * is placed on its highest harmonic, which resolves the shift best and gets the highest speed weight.
+ */
+public class HarmonicGrouper {
+    /**
+     * Smallest number of peaks that make a group.
+     */
+    public static final int MIN_GROUP_SIZE = 3;
+    /**
+     * Highest harmonic number considered for the lowest peak of a group.
+     */
+    public static final int MAX_HARMONIC = 16;
+    /**
+     * Largest distance, in bins, of a member from its multiple of the fitted fundamental.
+     */
+    public static final float TOLERANCE = .4f;
+    /**
+     * Lowest ratio of the fundamental of a group that comes back to that of a group that went missing
+     * for the two to be taken as one source before and after a pass. A shift of an octave takes over
+     * 110m/s.
+     */
+    public static final float MIN_SHIFT = .5f;
+    /**
+     * Largest relative rise of the fundamental of a group that comes back, which would be drift.
+     */
+    public static final float MAX_DRIFT = .01f;
+
+    // Scratch, indexed like the peaks: fractional bins, peak widths, the group of each peak (-1 if none)
+    // and its harmonic number.
+    private final float[] mFreq;
+    private final int[] mWidth;
+    private final int[] mGroup;
+    private final int[] mHarmonic;
+    // The members collect() found and their harmonic numbers.
+    private final int[] mCandidate;
+    private final int[] mCandidateHarmonic;
+    private int mNumGroups;
+
+    // Remembered groups: fundamental in bins, the multiple the group is placed on, the frame it was last
+    // seen in and the number of frames it was seen in.
+    private final int mMemoryFrames;
+    private final float[] mKnownFundamental;
+    private final int[] mKnownMultiple;
+    private final int[] mKnownFrame;
+    private final int[] mKnownSightings;
+    private int mNumKnown = 0;
+    private int mFrame = 0;
+
+    /**
+     * Constructs a HarmonicGrouper.
+     * @param aMaxPeaks Capacity of the peak arrays that will be grouped.
+     * @param aMemoryFrames Frames a group that went missing is remembered for, normally getMaxDopplerWindow().
+     */
+    public HarmonicGrouper(int aMaxPeaks, int aMemoryFrames) {
+        mFreq = new float[aMaxPeaks];
+        mWidth = new int[aMaxPeaks];
+        mGroup = new int[aMaxPeaks];
+        mHarmonic = new int[aMaxPeaks];
+        mCandidate = new int[aMaxPeaks];
+        mCandidateHarmonic = new int[aMaxPeaks];
+        mMemoryFrames = aMemoryFrames;
+        mKnownFundamental = new float[aMaxPeaks];
+        mKnownMultiple = new int[aMaxPeaks];
+        mKnownFrame = new int[aMaxPeaks];
+        mKnownSightings = new int[aMaxPeaks];
+    }
+
+    /**
+     * Number of groups formed by the last call to group().
+     * @return
+     */
+    public int numGroups() {
+        return mNumGroups;
+    }
+
+    /**
+     * Forgets the groups seen so far.
+     */
+    public void reset() {
+        mNumKnown = 0;
+    }
+
+    /**
+     * Replaces each group of harmonic peaks by a single peak.
+     * @param aPeaks Peak bins in ascending order. Rewritten with the remaining peaks, still ascending.
+     * @param aOffsets Sub-bin offset of each peak, see PeakDetector.interpolate(). Rewritten alongside aPeaks.
+     * @param aNumPeaks Number of peaks.
+     * @param aPlan Plan the peaks were found with.
+     * @return The number of peaks that remain.
+     */
+    public int group(int[] aPeaks, float[] aOffsets, int aNumPeaks, AudioDopplerPlan aPlan) {
+        final int[] runStart = aPlan.getPeakRunStart();
+        final int[] runWidth = aPlan.getPeakRunWidth();
+        mNumGroups = 0;
+        mFrame++;
+        forget();
+        int run = 0;
+        for (int p = 0; p < aNumPeaks; p++) {
+            while (aPeaks[p] >= runStart[run + 1]) {
+                run++;
+            }
+            mFreq[p] = aPeaks[p] + aOffsets[p];
+            mWidth[p] = runWidth[run];
+            mGroup[p] = -1;
+        }
+        // Every ungrouped peak is tried as every harmonic of a fundamental of at least its peak width,
+        // as harmonics any closer cannot both be peaks, and the best scoring group is taken first so
+        // that a noise peak below a source cannot claim its harmonics as those of a subharmonic. The
+        // group representative is written over its lowest member.
+        while (true) {
+            float bestScore = MIN_GROUP_SIZE - 1;
+            int bestLowest = -1;
+            int bestHarmonic = 0;
+            for (int p = 0; p < aNumPeaks; p++) {
+                if (mGroup[p] >= 0) {
+                    continue;
+                }
+                for (int h = 1; h <= MAX_HARMONIC && mFreq[p] / h >= mWidth[p]; h++) {
+                    float score = collect(p, h, aNumPeaks, false);
+                    if (score > bestScore) {
+                        bestScore = score;
+                        bestLowest = p;
+                        bestHarmonic = h;
+                    }
+                }
+            }
+            if (bestLowest < 0) {
+                break;
+            }
+            collect(bestLowest, bestHarmonic, aNumPeaks, true);
+            place(bestLowest, aPeaks, aOffsets, aNumPeaks, aPlan);
+            mNumGroups++;
+        }
+        if (mNumGroups == 0) {
+            return aNumPeaks;
+        }
+
+        // Drop the merged members, then restore the ascending order the trend pass relies on.
+        int kept = 0;
+        for (int p = 0; p < aNumPeaks; p++) {
+            if (mGroup[p] < 0 || mGroup[p] == p) {
+                aPeaks[kept] = aPeaks[p];
+                aOffsets[kept] = aOffsets[p];
+                kept++;
+            }
+        }
+        for (int p = 1; p < kept; p++) {
+            int bin = aPeaks[p];
+            float offset = aOffsets[p];
+            int q = p;
+            for (; q > 0 && aPeaks[q - 1] > bin; q--) {
+                aPeaks[q] = aPeaks[q - 1];
+                aOffsets[q] = aOffsets[q - 1];
+            }
+            aPeaks[q] = bin;
+            aOffsets[q] = offset;
+        }
+        // Two peaks on one bin would be taken for two trends in one family; keep one.
+        int unique = 0;
+        for (int p = 0; p < kept; p++) {
+            if (unique == 0 || aPeaks[p] != aPeaks[unique - 1]) {
+                aPeaks[unique] = aPeaks[p];
+                aOffsets[unique] = aOffsets[p];
+                unique++;
+            }
+        }
+        return unique;
+    }
+
+    // Collects the ungrouped peaks from aLowest up that are harmonics of a fundamental of which aLowest
+    // is harmonic aHarmonic, fitting the fundamental as members are found. If aAssign is set, the
+    // members are marked as a group led by aLowest. Returns the score of the group, 0 if it has fewer
+    // than MIN_GROUP_SIZE members: the number of members, less those that peaks at random would give
+    // and half a peak for each harmonic between the members that is far enough from the next to be
+    // resolved, yet missing.
+    private float collect(int aLowest, int aHarmonic, int aNumPeaks, boolean aAssign) {
+        // Least squares fit through the origin: fundamental = sum(h * f) / sum(h * h).
+        double sumHF = aHarmonic * mFreq[aLowest];
+        double sumHH = aHarmonic * aHarmonic;
+        int members = 1;
+        int tried = 0;
+        int lastHarmonic = aHarmonic;
+        mCandidate[0] = aLowest;
+        mCandidateHarmonic[0] = aHarmonic;
+        for (int q = aLowest + 1; q < aNumPeaks; q++) {
+            if (mGroup[q] >= 0) {
+                continue;
+            }
+            double fundamental = sumHF / sumHH;
+            int h = (int) Math.round(mFreq[q] / fundamental);
+            if (h > MAX_HARMONIC * aHarmonic) {
+                break;
+            }
+            tried++;
+            if (h <= lastHarmonic || Math.abs(mFreq[q] - h * fundamental) > TOLERANCE) {
+                continue;
+            }
+            sumHF += h * mFreq[q];
+            sumHH += h * h;
+            mCandidate[members] = q;
+            mCandidateHarmonic[members] = h;
+            lastHarmonic = h;
+            members++;
+        }
+        if (aAssign) {
+            for (int m = 0; m < members; m++) {
+                mGroup[mCandidate[m]] = aLowest;
+                mHarmonic[mCandidate[m]] = mCandidateHarmonic[m];
+            }
+        }
+        if (members < MIN_GROUP_SIZE) {
+            return 0;
+        }
+        // A peak at random lies within TOLERANCE of a harmonic with a chance of 2 * TOLERANCE / fundamental.
+        final double fundamental = sumHF / sumHH;
+        final double chance = tried * Math.min(1., 2. * TOLERANCE / fundamental);
+        double resolved = 1;
+        for (int m = 1; m < members; m++) {
+            resolved += (mCandidateHarmonic[m] - mCandidateHarmonic[m - 1]) * Math.min(1., fundamental / mWidth[mCandidate[m]]);
+        }
+        return (float) (members - chance - .5 * Math.max(0., resolved - members));
+    }
+
+    // Writes the representative peak of the group led by aLowest over aLowest.
+    private void place(int aLowest, int[] aPeaks, float[] aOffsets, int aNumPeaks, AudioDopplerPlan aPlan) {
+        double sumHF = 0;
+        double sumHH = 0;
+        int top = 0;
+        for (int q = aLowest; q < aNumPeaks; q++) {
+            if (mGroup[q] == aLowest) {
+                sumHF += mHarmonic[q] * mFreq[q];
+                sumHH += mHarmonic[q] * mHarmonic[q];
+                top = mHarmonic[q];
+            }
+        }
+        final float fundamental = (float) (sumHF / sumHH);
+        final int[] familyAt = aPlan.getFamilyAt();
+        final int last = familyAt.length - 1;
+        int known = -1;
+        // A group seen last frame continues if its multiple is still within the family of its trend.
+        float closest = Float.MAX_VALUE;
+        for (int k = 0; k < mNumKnown; k++) {
+            if (mKnownFrame[k] == mFrame - 1) {
+                float was = mKnownMultiple[k] * mKnownFundamental[k];
+                float step = Math.abs(mKnownMultiple[k] * fundamental - was);
+                if (step <= familyAt[Math.min((int) was, last)] && step < closest) {
+                    closest = step;
+                    known = k;
+                }
+            }
+        }
+        // Otherwise, it may be a group that went missing and has come back shifted down by up to
+        // MIN_SHIFT. The one seen most often is taken, as groups formed by noise come and go.
+        for (int k = 0; k < mNumKnown && closest == Float.MAX_VALUE; k++) {
+            if (mKnownFrame[k] < mFrame && fundamental <= mKnownFundamental[k] * (1.f + MAX_DRIFT)
+                    && fundamental >= mKnownFundamental[k] * MIN_SHIFT
+                    && (known < 0 || mKnownSightings[k] > mKnownSightings[known])) {
+                known = k;
+            }
+        }
+        if (known < 0) {
+            if (mNumKnown < mKnownFrame.length) {
+                known = mNumKnown++;
+            } else {
+                // Full, so take the place of the group that has been missing longest.
+                known = 0;
+                for (int k = 1; k < mNumKnown; k++) {
+                    if (mKnownFrame[k] < mKnownFrame[known]) {
+                        known = k;
+                    }
+                }
+            }
+            mKnownMultiple[known] = top;
+            mKnownSightings[known] = 0;
+        }
+        mKnownFundamental[known] = fundamental;
+        mKnownFrame[known] = mFrame;
+        mKnownSightings[known]++;
+        final double position = Math.min(mKnownMultiple[known] * fundamental, last);
+        final int bin = (int) Math.round(position);
+        aPeaks[aLowest] = bin;
+        aOffsets[aLowest] = (float) (position - bin);
+    }
+
+    // Drops the groups that have been missing for longer than mMemoryFrames.
+    private void forget() {
+        int kept = 0;
+        for (int k = 0; k < mNumKnown; k++) {
+            if (mFrame - mKnownFrame[k] <= mMemoryFrames) {
+                mKnownFundamental[kept] = mKnownFundamental[k];
+                mKnownMultiple[kept] = mKnownMultiple[k];
+                mKnownFrame[kept] = mKnownFrame[k];
+                mKnownSightings[kept] = mKnownSightings[k];
+                kept++;
+            }
+        }
+        mNumKnown = kept;
+    }
+}
@@ -0,0 +1,500 @@
+/*
+ * Copyright Applied Analog (c) 2015/2016
+ *
+ * This code is free for use in any non-commercial software. It carries
+ * no restrictions in such software.
+ */
+
+package com.appliedanalog.rcspeedo.doppler;
+
+import java.util.Arrays;
+
+/**
+ * Finds passes as steps in the time-frequency plane, as an alternative to the trend passes of
+ * TrendDetector, see AudioDopplerConfiguration.setTracker().
+ *
+ * The peaks of each frame are collected into lines that hold a frequency within LINE_TOLERANCE bins
+ * (or a family, if wider): a Radon projection of the retained frames along time. A line with
+ * getMinTrendCountUntilCertified() peaks that ends is the tone of a source before its pass, and a
+ * line that holds still within STEADY_TOLERANCE for getMinTillAccept() peaks is a tone after one.
+ * Each line that ended casts a vote, with each line that started within getMaxDopplerWindow()
+ * frames after it, in a Hough accumulator over the log of their frequency ratio, which is the speed
+ * of the pass whatever the frequency of the source. A pair only votes if the peaks of the retained
+ * frames between them lead down from one line to the other, so a harmonic is not paired with its
+ * neighbours. Each vote is spread over the ratios the positions of its lines allow and weighted by
+ * their precision. The harmonics of an engine all vote for the same ratio, while the pairs that mix
+ * harmonics or noise spread out, so SETTLE_FRAMES after the first vote the strongest ratio is taken
+ * as the shift of the pass.
+ *
+ * Only the peaks of the frames between the lines are followed, not a trend, so a pass can shift as
+ * fast as it likes without the wide separation windows of CFG_200_PLUS. The work per frame is
+ * proportional to the number of peaks and lines. Everything is kept in fixed arrays once the window
+ * of retained frames is sized, so tracking does not allocate.
+ *
+ * Engines want setHarmonicGrouping(), as with the other trackers; otherwise the sweep of one
+ * harmonic crosses the lines of the next and the pairs between them outvote the pass.
+ */
+public class HoughChirpDetector {
+    /**
+     * Distance in bins from its mean that a peak may be to extend a line.
+     */
+    public static final float LINE_TOLERANCE = .5f;
+    /**
+     * Frames a line may miss peaks before it ends.
+     */
+    public static final int MAX_GAP = 2;
+    /**
+     * Width of the bins of the Hough accumulator, in natural log of the frequency ratio. About .9m/s.
+     */
+    public static final float LOG_RATIO_STEP = .005f;
+    /**
+     * Largest log ratio voted for, beyond the shift of a 250m/s pass.
+     */
+    public static final float MAX_LOG_RATIO = 2.f;
+    /**
+     * Frames votes are collected for after the first before the strongest ratio is taken.
+     */
+    public static final int SETTLE_FRAMES = 3;
+    /**
+     * Error in bins of the position of a line, which spreads its votes over the ratios it allows.
+     */
+    public static final float POSITION_ERROR = .15f;
+    /**
+     * Distance in bins from the mean of its steady run that a peak may be to extend that run. A line
+     * only counts as started after a pass once it has held this still for getMinTillAccept() peaks,
+     * and not while the tone is still settling at the end of the sweep.
+     */
+    public static final float STEADY_TOLERANCE = .25f;
+    /**
+     * Frames from the end of a line before a pass to the start of the line after it at the least. The
+     * tone takes a few frames to sweep between them even in the fastest passes, where a source that
+     * stops as another starts does not.
+     */
+    public static final int MIN_SWEEP_FRAMES = 2;
+    /**
+     * Distance in bins from the line after a pass that the sweep must reach, or a quarter of the shift if larger.
+     */
+    public static final float SWEEP_TOLERANCE = 2.f;
+
+    // Marks the peaks that extended a line.
+    private static final int CLAIMED = -2;
+
+    // Lines: mean position in bins, mean and length of the steady run, first and last frame with a peak,
+    // and number of peaks.
+    private final float[] mLineFreq;
+    private final float[] mRunMean;
+    private final int[] mRunCount;
+    private final int[] mLineStart;
+    private final int[] mLineLast;
+    private final int[] mLineHits;
+    private int mNumLines = 0;
+    // Scratch: the peak chosen by each line and its distance, and the line that owns each peak.
+    private final int[] mChoice;
+    private final float[] mDistance;
+    private final int[] mOwner;
+    private final float[] mPeakFreq;
+
+    // Lines that ended certified, in Hz and bins with the frame they ended in.
+    private final double[] mEndedFreq;
+    private final float[] mEndedBin;
+    private final int[] mEndedFrame;
+    private int mNumEnded = 0;
+
+    // Hough accumulator: votes per log ratio bin, the sum of the ratios and of the frequencies before
+    // the pass voted into each, and the bins with votes.
+    private final int[] mVotes;
+    private final double[] mVoteWeights;
+    private final double[] mVoteRatios;
+    private final double[] mVoteFrom;
+    private final int[] mVoted;
+    private int mNumVoted = 0;
+    private int mMinRatioBin = 1;
+    private int mFirstVote = -1;
+    // Last frame of the lines before the pass among the votes being collected.
+    private int mFirstVoteEnd = Integer.MIN_VALUE;
+    // Last frame of a line before the pass of the last shift taken, the pairs of lines ending before it are dropped.
+    private int mTakenEnd = Integer.MIN_VALUE;
+
+    // Peaks of the last frames, in bins, by frame modulo the capacity.
+    private float[][] mHistory;
+    private int[] mHistoryCount;
+    private int[] mHistoryFrame;
+
+    // Shifts found in the last frame, in Hz.
+    private final double[] mShiftFrom;
+    private final double[] mShiftTo;
+    private int mNumShifts = 0;
+    private int mNumSweeps = 0;
+
+    /**
+     * Constructs a HoughChirpDetector.
+     * @param aMaxPeaks Capacity of the peak arrays that will be tracked.
+     */
+    public HoughChirpDetector(int aMaxPeaks) {
+        final int lines = (MAX_GAP + 1) * aMaxPeaks;
+        mLineFreq = new float[lines];
+        mRunMean = new float[lines];
+        mRunCount = new int[lines];
+        mLineStart = new int[lines];
+        mLineLast = new int[lines];
+        mLineHits = new int[lines];
+        mChoice = new int[lines];
+        mDistance = new float[lines];
+        mOwner = new int[aMaxPeaks];
+        mPeakFreq = new float[aMaxPeaks];
+        mEndedFreq = new double[aMaxPeaks];
+        mEndedBin = new float[aMaxPeaks];
+        mEndedFrame = new int[aMaxPeaks];
+        final int bins = (int) (MAX_LOG_RATIO / LOG_RATIO_STEP) + 1;
+        mVotes = new int[bins];
+        mVoteWeights = new double[bins];
+        mVoteRatios = new double[bins];
+        mVoteFrom = new double[bins];
+        mVoted = new int[bins];
+        mShiftFrom = new double[aMaxPeaks];
+        mShiftTo = new double[aMaxPeaks];
+    }
+
+    /**
+     * Number of lines currently followed.
+     * @return
+     */
+    public int numLines() {
+        return mNumLines;
+    }
+
+    /**
+     * Number of shifts found in the last frame.
+     * @return
+     */
+    public int numShifts() {
+        return mNumShifts;
+    }
+
+    /**
+     * Fetch the frequency in Hz before the pass of a shift found in the last frame. With harmonics
+     * this is the mean of those that voted for the shift.
+     * @param aIndex
+     * @return
+     */
+    public double getShiftFrom(int aIndex) {
+        return mShiftFrom[aIndex];
+    }
+
+    /**
+     * Fetch the frequency in Hz after the pass of a shift found in the last frame.
+     * @param aIndex
+     * @return
+     */
+    public double getShiftTo(int aIndex) {
+        return mShiftTo[aIndex];
+    }
+
+    /**
+     * Fetch the number of certified lines that ended in the last frame, each a pass that may be under way.
+     * @return
+     */
+    public int numSweeps() {
+        return mNumSweeps;
+    }
+
+    /**
+     * Forgets all lines and votes.
+     */
+    public void reset() {
+        mNumLines = 0;
+        mNumEnded = 0;
+        clearVotes();
+        mTakenEnd = Integer.MIN_VALUE;
+        if (mHistoryFrame != null) {
+            Arrays.fill(mHistoryFrame, -1);
+        }
+        mNumShifts = 0;
+        mNumSweeps = 0;
+    }
+
+    /**
+     * Collects the peaks of a frame into lines and looks for the steps between them.
+     * @param aPeaks Peak bins in ascending order.
+     * @param aOffsets Sub-bin offset of each peak, see PeakDetector.interpolate().
+     * @param aNumPeaks Number of peaks.
+     * @param aConfig Configuration the peaks were found with.
+     * @param aPlan Plan of aConfig.
+     * @param aFrame Index of the frame.
+     * @param aTemperature Air temperature in Centigrade, only ratios of speeds in range are voted for.
+     * @param aStatistics Counts the lines that end.
+     * @param aTracer Receives line events, or null.
+     */
+    public void track(int[] aPeaks, float[] aOffsets, int aNumPeaks, AudioDopplerConfiguration aConfig,
+            AudioDopplerPlan aPlan, int aFrame, double aTemperature, TrendStatistics aStatistics, TrendTracer aTracer) {
+        final int[] familyAt = aPlan.getFamilyAt();
+        final int lastBin = familyAt.length - 1;
+        final int certified = aConfig.getMinTrendCountUntilCertified();
+        final int accepted = aConfig.getMinTillAccept();
+        final int window = aConfig.getMaxDopplerWindow();
+        final double sos = 331 + .606 * aTemperature;
+        mMinRatioBin = (int) Math.ceil(Math.log((sos + aConfig.getMinSpeed()) / (sos - aConfig.getMinSpeed())) / LOG_RATIO_STEP);
+        final float[] peakFreq = mPeakFreq;
+        mNumShifts = 0;
+        mNumSweeps = 0;
+        for (int p = 0; p < aNumPeaks; p++) {
+            peakFreq[p] = aPeaks[p] + aOffsets[p];
+            mOwner[p] = -1;
+        }
+        retain(peakFreq, aNumPeaks, aFrame, window + accepted);
+
+        //every line chooses the nearest peak within its tolerance, a peak claimed twice goes to the closer line.
+        for (int l = 0; l < mNumLines; l++) {
+            final float freq = mLineFreq[l];
+            final int bin = Math.max(0, Math.min(lastBin, (int) freq));
+            final int nearest = nearest(peakFreq, aNumPeaks, freq);
+            mChoice[l] = -1;
+            if (nearest >= 0) {
+                final float distance = Math.abs(peakFreq[nearest] - freq);
+                if (distance <= Math.max(LINE_TOLERANCE, familyAt[bin])) {
+                    mChoice[l] = nearest;
+                    mDistance[l] = distance;
+                    final int owner = mOwner[nearest];
+                    if (owner < 0 || mDistance[owner] > distance) {
+                        mOwner[nearest] = l;
+                    }
+                }
+            }
+        }
+
+        //extend the lines that own their peak and end the ones that missed too many frames.
+        int kept = 0;
+        for (int l = 0; l < mNumLines; l++) {
+            final int choice = mChoice[l];
+            if (choice >= 0 && mOwner[choice] == l) {
+                final int hits = ++mLineHits[l];
+                mLineFreq[l] += (peakFreq[choice] - mLineFreq[l]) / hits;
+                int run = 1;
+                if (Math.abs(peakFreq[choice] - mRunMean[l]) < STEADY_TOLERANCE) {
+                    run = ++mRunCount[l];
+                    mRunMean[l] += (peakFreq[choice] - mRunMean[l]) / run;
+                } else {
+                    mRunMean[l] = peakFreq[choice];
+                    mRunCount[l] = 1;
+                }
+                mLineLast[l] = aFrame;
+                mOwner[choice] = CLAIMED;
+                if (run == accepted) {
+                    final double freq = aPlan.fuzzyFreq(mRunMean[l]);
+                    vote(freq, mRunMean[l], mLineStart[l], window, aFrame);
+                }
+                if (hits == certified && aTracer != null) {
+                    aTracer.record(aFrame, TrendTracer.EVENT_PEAKED, (int) mLineFreq[l], hits, (float) aPlan.fuzzyFreq(mLineFreq[l]));
+                }
+            } else if (aFrame - mLineLast[l] > MAX_GAP) {
+                aStatistics.trendEnded(mLineLast[l] - mLineStart[l] + 1);
+                if (mLineHits[l] >= certified) {
+                    final double freq = aPlan.fuzzyFreq(mLineFreq[l]);
+                    addEnded(freq, mLineFreq[l], mLineLast[l]);
+                    mNumSweeps++;
+                    if (aTracer != null) {
+                        aTracer.record(aFrame, TrendTracer.EVENT_LOST, (int) mLineFreq[l], mLineHits[l], (float) freq);
+                    }
+                }
+                continue;
+            }
+            if (kept != l) {
+                move(l, kept);
+            }
+            kept++;
+        }
+        mNumLines = kept;
+
+        //peaks no line owns start new lines.
+        for (int p = 0; p < aNumPeaks && mNumLines < mLineFreq.length; p++) {
+            if (mOwner[p] == CLAIMED) {
+                continue;
+            }
+            final int l = mNumLines++;
+            mLineFreq[l] = peakFreq[p];
+            mRunMean[l] = peakFreq[p];
+            mRunCount[l] = 1;
+            mLineStart[l] = aFrame;
+            mLineLast[l] = aFrame;
+            mLineHits[l] = 1;
+        }
+
+        //forget lines that ended or started too long ago to pair with anything new.
+        for (int e = 0; e < mNumEnded; e++) {
+            if (mEndedFrame[e] < aFrame - window - accepted) {
+                mNumEnded--;
+                mEndedFreq[e] = mEndedFreq[mNumEnded];
+                mEndedBin[e] = mEndedBin[mNumEnded];
+                mEndedFrame[e] = mEndedFrame[mNumEnded];
+                e--;
+            }
+        }
+
+        if (mFirstVote >= 0 && aFrame - mFirstVote >= SETTLE_FRAMES) {
+            takeShift();
+        }
+    }
+
+    // Pairs a line that was accepted with the certified lines that ended within aWindow frames before it
+    // and that a sweep leads down from.
+    private void vote(double aFreq, float aBin, int aStart, int aWindow, int aFrame) {
+        for (int e = 0; e < mNumEnded; e++) {
+            final int end = mEndedFrame[e];
+            if (aStart - end < MIN_SWEEP_FRAMES || aStart - end > aWindow || end <= mTakenEnd
+                    || !sweeps(mEndedBin[e], end, aBin, aStart)) {
+                continue;
+            }
+            //the vote covers the ratios the positions of the lines allow, and weighs by their precision.
+            final double from = mEndedFreq[e];
+            final double ratio = Math.log(from / aFreq);
+            final double spread = POSITION_ERROR * (1. / mEndedBin[e] + 1. / aBin);
+            final double precision = 1. / (spread * spread);
+            final int first = Math.max(mMinRatioBin, (int) Math.round((ratio - spread) / LOG_RATIO_STEP));
+            final int last = Math.min(mVotes.length - 1, (int) Math.round((ratio + spread) / LOG_RATIO_STEP));
+            for (int k = first; k <= last; k++) {
+                if (mVotes[k] == 0) {
+                    mVoted[mNumVoted++] = k;
+                }
+                mVotes[k]++;
+                mVoteWeights[k] += precision;
+                mVoteRatios[k] += ratio * precision;
+                mVoteFrom[k] += from * precision;
+                if (mFirstVote < 0) {
+                    mFirstVote = aFrame;
+                }
+                mFirstVoteEnd = Math.max(mFirstVoteEnd, end);
+            }
+        }
+    }
+
+    // Takes the ratio with the most votes as the shift of a pass.
+    private void takeShift() {
+        int best = -1;
+        for (int v = 0; v < mNumVoted; v++) {
+            final int k = mVoted[v];
+            if (best < 0 || mVotes[k] > mVotes[best] || (mVotes[k] == mVotes[best] && k < best)) {
+                best = k;
+            }
+        }
+        if (best >= 0 && mNumShifts < mShiftFrom.length) {
+            mShiftFrom[mNumShifts] = mVoteFrom[best] / mVoteWeights[best];
+            mShiftTo[mNumShifts] = mShiftFrom[mNumShifts] / Math.exp(mVoteRatios[best] / mVoteWeights[best]);
+            mNumShifts++;
+        }
+        mTakenEnd = mFirstVoteEnd;
+        clearVotes();
+    }
+
+    private void clearVotes() {
+        for (int v = 0; v < mNumVoted; v++) {
+            final int k = mVoted[v];
+            mVotes[k] = 0;
+            mVoteWeights[k] = 0;
+            mVoteRatios[k] = 0;
+            mVoteFrom[k] = 0;
+        }
+        mNumVoted = 0;
+        mFirstVote = -1;
+        mFirstVoteEnd = Integer.MIN_VALUE;
+    }
+
+    // Keeps the peaks of a frame for aFrames frames.
+    private void retain(float[] aPeakFreq, int aNumPeaks, int aFrame, int aFrames) {
+        if (mHistory == null || mHistory.length < aFrames) {
+            mHistory = new float[aFrames][mPeakFreq.length];
+            mHistoryCount = new int[aFrames];
+            mHistoryFrame = new int[aFrames];
+            Arrays.fill(mHistoryFrame, -1);
+        }
+        final int slot = aFrame % mHistory.length;
+        System.arraycopy(aPeakFreq, 0, mHistory[slot], 0, aNumPeaks);
+        mHistoryCount[slot] = aNumPeaks;
+        mHistoryFrame[slot] = aFrame;
+    }
+
+    // Whether the retained peaks lead down from aFrom, where a line ended in frame aEnd, to aTo, where a
+    // line started in frame aStart. The path steps to the highest peak at most half the shift below
+    // it each frame, so it keeps to the harmonic it started on.
+    private boolean sweeps(float aFrom, int aEnd, float aTo, int aStart) {
+        final float shift = aFrom - aTo;
+        if (shift <= 0) {
+            return false;
+        }
+        float freq = aFrom;
+        for (int f = aEnd + 1; f < aStart; f++) {
+            final int slot = f % mHistory.length;
+            if (mHistoryFrame[slot] != f) {
+                continue;
+            }
+            final float[] peaks = mHistory[slot];
+            final int p = highest(peaks, mHistoryCount[slot], freq + LINE_TOLERANCE);
+            if (p >= 0 && freq - peaks[p] <= shift / 2) {
+                freq = peaks[p];
+            }
+        }
+        return Math.abs(freq - aTo) <= Math.max(SWEEP_TOLERANCE, shift / 4);
+    }
+
+    // Index of the highest of the ascending peaks at or below aFreq, or -1.
+    private static int highest(float[] aPeakFreq, int aNumPeaks, float aFreq) {
+        int lo = 0;
+        int hi = aNumPeaks;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (aPeakFreq[mid] <= aFreq) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo - 1;
+    }
+
+    // Remembers a certified line that ended, replacing the oldest if they are full.
+    private void addEnded(double aFreq, float aBin, int aFrame) {
+        int slot = mNumEnded;
+        if (slot == mEndedFreq.length) {
+            slot = 0;
+            for (int x = 1; x < mNumEnded; x++) {
+                if (mEndedFrame[x] < mEndedFrame[slot]) {
+                    slot = x;
+                }
+            }
+        } else {
+            mNumEnded++;
+        }
+        mEndedFreq[slot] = aFreq;
+        mEndedBin[slot] = aBin;
+        mEndedFrame[slot] = aFrame;
+    }
+
+    // Index of the peak nearest to aFreq, or -1 if there are none.
+    private static int nearest(float[] aPeakFreq, int aNumPeaks, float aFreq) {
+        if (aNumPeaks == 0) {
+            return -1;
+        }
+        int lo = 0;
+        int hi = aNumPeaks - 1;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (aPeakFreq[mid] < aFreq) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        if (lo > 0 && aFreq - aPeakFreq[lo - 1] < aPeakFreq[lo] - aFreq) {
+            lo--;
+        }
+        return lo;
+    }
+
+    private void move(int aFrom, int aTo) {
+        mLineFreq[aTo] = mLineFreq[aFrom];
+        mRunMean[aTo] = mRunMean[aFrom];
+        mRunCount[aTo] = mRunCount[aFrom];
+        mLineStart[aTo] = mLineStart[aFrom];
+        mLineLast[aTo] = mLineLast[aFrom];
+        mLineHits[aTo] = mLineHits[aFrom];
+    }
+}
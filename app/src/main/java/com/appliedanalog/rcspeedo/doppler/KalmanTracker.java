@@ -0,0 +1,447 @@
+/*
+ * Copyright Applied Analog (c) 2015/2016
+ *
+ * This code is free for use in any non-commercial software. It carries
+ * no restrictions in such software.
+ */
+
+package com.appliedanalog.rcspeedo.doppler;
+
+/**
+ * Follows the peaks of each frame as tracks with a constant velocity Kalman filter, as an alternative
+ * to the trend passes of TrendDetector, see AudioDopplerConfiguration.setTracker().
+ *
+ * Every track holds a frequency and its rate of change, in bins and bins per frame, with their
+ * covariance. Each frame the tracks are predicted forward and the nearest peak within a gate of
+ * GATE_SIGMAS predicted deviations is assigned to each; a peak claimed by two tracks goes to the
+ * closer one, and peaks left over start new tracks. Following the predicted rate lets a track sweep
+ * through the doppler shift of a pass, where the trend passes lose the trend and have to find it
+ * again below.
+ *
+ * Along a track, runs of frames where it holds still are collected as plateaus. Once a plateau has
+ * MIN_STEADY frames it is stable, and when it lies more than a family below the stable plateau
+ * before it, the two are reported as a shift right away, where the trend passes wait for
+ * getMinTillAccept() frames. A fast sweep can still outrun a track; a track that dies on its way down
+ * from a stable plateau hands the plateau to the track below it, or leaves it behind for
+ * ORPHAN_FRAMES frames for a track born below it to complete the pass.
+ *
+ * Tracks are kept in fixed arrays that are compacted in place, so tracking never allocates.
+ */
+public class KalmanTracker {
+    /**
+     * Variance of the measured peak positions, in squared bins.
+     */
+    public static final float MEASUREMENT_VARIANCE = .25f;
+    /**
+     * Variance of the change of rate from frame to frame, in squared bins per frame squared.
+     */
+    public static final float ACCELERATION_VARIANCE = .3f;
+    /**
+     * Variance of the rate of a new track, in squared bins per frame.
+     */
+    public static final float INITIAL_RATE_VARIANCE = 1.f;
+    /**
+     * Width of the gate around the predicted frequency, in standard deviations of the prediction.
+     */
+    public static final float GATE_SIGMAS = 3.f;
+    /**
+     * Frames a track is predicted through without a peak before it dies.
+     */
+    public static final int MAX_MISSES = 3;
+    /**
+     * Largest rate, in bins per frame, and largest distance from the plateau mean, in bins, of a
+     * frame that holds still.
+     */
+    public static final float STEADY_RATE = .1f;
+    public static final float STEADY_TOLERANCE = .75f;
+    /**
+     * Frames a plateau needs to be stable.
+     */
+    public static final int MIN_STEADY = 4;
+    /**
+     * Frames a track must have been measured going down since its plateau to hand the plateau on,
+     * so that a track that coasted onto a stray peak does not.
+     */
+    public static final int MIN_DESCENT = 2;
+    /**
+     * Frames a plateau left behind waits for a track to be born below it.
+     */
+    public static final int ORPHAN_FRAMES = 6;
+
+    // Tracks: frequency and rate with their covariance, the frequency last measured, the frames tracked,
+    // measured going down and missed, the mean and length of the current plateau, the last stable
+    // plateau (NaN if none yet) and, if the plateau was taken over from a dead track, the frame it was
+    // left behind in.
+    private final float[] mFreq;
+    private final float[] mRate;
+    private final float[] mP00;
+    private final float[] mP01;
+    private final float[] mP11;
+    private final float[] mMeasured;
+    private final int[] mAge;
+    private final int[] mDescent;
+    private final int[] mMisses;
+    private final float[] mRunMean;
+    private final int[] mRunCount;
+    private final float[] mPlateau;
+    private final int[] mPlateauLeft;
+    // Scratch: the peak chosen by each track and its distance, and the track that owns each peak.
+    private final int[] mChoice;
+    private final float[] mDistance;
+    private final int[] mOwner;
+    private final float[] mPeakFreq;
+    private int mNumTracks = 0;
+
+    // Plateaus of tracks that died: where the track was last and its last stable plateau.
+    private final float[] mOrphanFreq;
+    private final float[] mOrphanPlateau;
+    private final int[] mOrphanFrame;
+    private int mNumOrphans = 0;
+
+    // Shifts found in the last frame, in bins.
+    private final float[] mShiftFrom;
+    private final float[] mShiftTo;
+    private int mNumShifts = 0;
+    private int mNumSweeps = 0;
+
+    /**
+     * Constructs a KalmanTracker.
+     * @param aMaxPeaks Capacity of the peak arrays that will be tracked.
+     */
+    public KalmanTracker(int aMaxPeaks) {
+        final int tracks = 2 * aMaxPeaks;
+        mFreq = new float[tracks];
+        mRate = new float[tracks];
+        mP00 = new float[tracks];
+        mP01 = new float[tracks];
+        mP11 = new float[tracks];
+        mMeasured = new float[tracks];
+        mAge = new int[tracks];
+        mDescent = new int[tracks];
+        mMisses = new int[tracks];
+        mRunMean = new float[tracks];
+        mRunCount = new int[tracks];
+        mPlateau = new float[tracks];
+        mPlateauLeft = new int[tracks];
+        mChoice = new int[tracks];
+        mDistance = new float[tracks];
+        mOwner = new int[aMaxPeaks];
+        mPeakFreq = new float[aMaxPeaks];
+        mOrphanFreq = new float[tracks];
+        mOrphanPlateau = new float[tracks];
+        mOrphanFrame = new int[tracks];
+        mShiftFrom = new float[aMaxPeaks];
+        mShiftTo = new float[aMaxPeaks];
+    }
+
+    /**
+     * Number of tracks currently followed.
+     * @return
+     */
+    public int numTracks() {
+        return mNumTracks;
+    }
+
+    /**
+     * Number of shifts found in the last frame.
+     * @return
+     */
+    public int numShifts() {
+        return mNumShifts;
+    }
+
+    /**
+     * Fetch the stable plateau, in bins, a shift found in the last frame came down from.
+     * @param aIndex
+     * @return
+     */
+    public float getShiftFrom(int aIndex) {
+        return mShiftFrom[aIndex];
+    }
+
+    /**
+     * Fetch the stable plateau, in bins, a shift found in the last frame came down to.
+     * @param aIndex
+     * @return
+     */
+    public float getShiftTo(int aIndex) {
+        return mShiftTo[aIndex];
+    }
+
+    /**
+     * Fetch the number of stable tracks that started to sweep down in the last frame, each a pass
+     * that may be under way.
+     * @return
+     */
+    public int numSweeps() {
+        return mNumSweeps;
+    }
+
+    /**
+     * Forgets all tracks and left behind plateaus.
+     */
+    public void reset() {
+        mNumTracks = 0;
+        mNumOrphans = 0;
+        mNumShifts = 0;
+        mNumSweeps = 0;
+    }
+
+    /**
+     * Tracks the peaks of a frame.
+     * @param aPeaks Peak bins in ascending order.
+     * @param aOffsets Sub-bin offset of each peak, see PeakDetector.interpolate().
+     * @param aNumPeaks Number of peaks.
+     * @param aPlan Plan of the configuration the peaks were found with.
+     * @param aFrame Index of the frame.
+     * @param aStatistics Counts the tracks that end.
+     * @param aTracer Receives track events, or null.
+     */
+    public void track(int[] aPeaks, float[] aOffsets, int aNumPeaks, AudioDopplerPlan aPlan, int aFrame,
+            TrendStatistics aStatistics, TrendTracer aTracer) {
+        final int[] familyAt = aPlan.getFamilyAt();
+        final int[] freqSeparationAt = aPlan.getFreqSeparationAt();
+        final int lastBin = familyAt.length - 1;
+        final float[] peakFreq = mPeakFreq;
+        mNumShifts = 0;
+        mNumSweeps = 0;
+        for (int p = 0; p < aNumPeaks; p++) {
+            peakFreq[p] = aPeaks[p] + aOffsets[p];
+            mOwner[p] = -1;
+        }
+
+        //predict every track and choose the nearest peak inside its gate.
+        for (int t = 0; t < mNumTracks; t++) {
+            final float p11 = mP11[t];
+            final float p01 = mP01[t] + p11 + ACCELERATION_VARIANCE / 2;
+            mP00[t] += 2 * mP01[t] + p11 + ACCELERATION_VARIANCE / 4;
+            mP01[t] = p01;
+            mP11[t] = p11 + ACCELERATION_VARIANCE;
+            final float predicted = mFreq[t] + mRate[t];
+            mFreq[t] = predicted;
+            final int bin = Math.max(0, Math.min(lastBin, (int) predicted));
+            final float gate = Math.min(freqSeparationAt[bin],
+                    Math.max(familyAt[bin], GATE_SIGMAS * (float) Math.sqrt(mP00[t] + MEASUREMENT_VARIANCE)));
+            final int nearest = nearest(peakFreq, aNumPeaks, predicted);
+            mChoice[t] = -1;
+            if (nearest >= 0) {
+                final float distance = Math.abs(peakFreq[nearest] - predicted);
+                if (distance <= gate) {
+                    mChoice[t] = nearest;
+                    mDistance[t] = distance;
+                    final int owner = mOwner[nearest];
+                    if (owner < 0 || mDistance[owner] > distance) {
+                        mOwner[nearest] = t;
+                    }
+                }
+            }
+        }
+
+        //correct the tracks that own their peak, and let the others coast or die.
+        for (int t = 0; t < mNumTracks; t++) {
+            final int p = mChoice[t];
+            if (p >= 0 && mOwner[p] == t) {
+                correct(t, peakFreq[p], aPlan, aFrame, aTracer);
+            } else if (++mMisses[t] > MAX_MISSES) {
+                aStatistics.trendEnded(mAge[t]);
+                //only a track that died on its way down from its plateau may be completed by another.
+                final float measured = mMeasured[t];
+                final int bin = Math.max(0, Math.min(lastBin, (int) measured));
+                if (!Float.isNaN(mPlateau[t]) && measured < mPlateau[t] - familyAt[bin] && mDescent[t] >= MIN_DESCENT) {
+                    if (aTracer != null) {
+                        aTracer.record(aFrame, TrendTracer.EVENT_LOST, (int) mPlateau[t], mAge[t], (float) aPlan.fuzzyFreq(mPlateau[t]));
+                    }
+                    //a plateau handed on keeps its age, or noise tracks could hand it on forever.
+                    final int left = Math.min(aFrame, mPlateauLeft[t]);
+                    final int heir = below(measured, familyAt[bin], freqSeparationAt[bin]);
+                    if (heir >= 0) {
+                        mPlateau[heir] = mPlateau[t];
+                        mPlateauLeft[heir] = left;
+                    } else {
+                        leave(measured, mPlateau[t], left);
+                    }
+                }
+                mNumTracks--;
+                move(mNumTracks, t);
+                //the track moved into t still has to be visited, and owners of its peak are renumbered.
+                if (mChoice[t] >= 0 && mOwner[mChoice[t]] == mNumTracks) {
+                    mOwner[mChoice[t]] = t;
+                }
+                t--;
+            }
+        }
+
+        //drop plateaus left behind too long ago.
+        for (int o = 0; o < mNumOrphans; o++) {
+            if (aFrame - mOrphanFrame[o] > ORPHAN_FRAMES) {
+                if (aTracer != null) {
+                    aTracer.record(aFrame, TrendTracer.EVENT_DIED, (int) mOrphanPlateau[o], 0, (float) aPlan.fuzzyFreq(mOrphanPlateau[o]));
+                }
+                removeOrphan(o);
+                o--;
+            }
+        }
+
+        //peaks no track took start new tracks, taking over a plateau left behind above them.
+        for (int p = 0; p < aNumPeaks && mNumTracks < mFreq.length; p++) {
+            if (mOwner[p] >= 0) {
+                continue;
+            }
+            final int t = mNumTracks++;
+            mFreq[t] = peakFreq[p];
+            mMeasured[t] = peakFreq[p];
+            mDescent[t] = 0;
+            mRate[t] = 0.f;
+            mP00[t] = MEASUREMENT_VARIANCE;
+            mP01[t] = 0.f;
+            mP11[t] = INITIAL_RATE_VARIANCE;
+            mAge[t] = 1;
+            mMisses[t] = 0;
+            mRunMean[t] = peakFreq[p];
+            mRunCount[t] = 1;
+            mPlateau[t] = Float.NaN;
+            mPlateauLeft[t] = Integer.MAX_VALUE;
+            final int bin = aPeaks[p];
+            int adopted = -1;
+            for (int o = 0; o < mNumOrphans; o++) {
+                final float above = mOrphanFreq[o] - peakFreq[p];
+                if (above > -familyAt[bin] && above <= freqSeparationAt[bin] * (aFrame - mOrphanFrame[o] + 1)
+                        && (adopted < 0 || mOrphanFreq[o] < mOrphanFreq[adopted])) {
+                    adopted = o;
+                }
+            }
+            if (adopted >= 0) {
+                mPlateau[t] = mOrphanPlateau[adopted];
+                mPlateauLeft[t] = mOrphanFrame[adopted];
+                removeOrphan(adopted);
+            }
+        }
+    }
+
+    // Applies the peak at aFreq to track aTrack and follows its plateaus.
+    private void correct(int aTrack, float aFreq, AudioDopplerPlan aPlan, int aFrame, TrendTracer aTracer) {
+        final int t = aTrack;
+        final int[] familyAt = aPlan.getFamilyAt();
+        final float p00 = mP00[t];
+        final float p01 = mP01[t];
+        final float s = p00 + MEASUREMENT_VARIANCE;
+        final float k0 = p00 / s;
+        final float k1 = p01 / s;
+        final float innovation = aFreq - mFreq[t];
+        mFreq[t] += k0 * innovation;
+        mRate[t] += k1 * innovation;
+        mP00[t] = (1 - k0) * p00;
+        mP01[t] = (1 - k0) * p01;
+        mP11[t] -= k1 * p01;
+        if (aFreq < mMeasured[t]) {
+            mDescent[t]++;
+        }
+        mMeasured[t] = aFreq;
+        mAge[t]++;
+        mMisses[t] = 0;
+
+        if (Math.abs(mRate[t]) < STEADY_RATE && Math.abs(aFreq - mRunMean[t]) < STEADY_TOLERANCE) {
+            final int n = ++mRunCount[t];
+            mRunMean[t] += (aFreq - mRunMean[t]) / n;
+            if (n < MIN_STEADY) {
+                return;
+            }
+            final float plateau = mPlateau[t];
+            final float mean = mRunMean[t];
+            final int bin = Math.max(0, Math.min(familyAt.length - 1, (int) mean));
+            if (!Float.isNaN(plateau) && plateau - mean > familyAt[bin] && mNumShifts < mShiftFrom.length) {
+                mShiftFrom[mNumShifts] = plateau;
+                mShiftTo[mNumShifts] = mean;
+                mNumShifts++;
+            } else if (n == MIN_STEADY && Float.isNaN(plateau) && aTracer != null) {
+                aTracer.record(aFrame, TrendTracer.EVENT_PEAKED, bin, mAge[t], (float) aPlan.fuzzyFreq(mean));
+            }
+            mPlateau[t] = mean;
+            mPlateauLeft[t] = Integer.MAX_VALUE;
+            mDescent[t] = 0;
+        } else {
+            if (mRunCount[t] >= MIN_STEADY && mRate[t] < 0) {
+                mNumSweeps++;
+            }
+            mRunMean[t] = aFreq;
+            mRunCount[t] = 1;
+        }
+    }
+
+    // The highest track without a plateau of its own from aFamily above aFreq to aSeparation below it, or -1.
+    private int below(float aFreq, int aFamily, int aSeparation) {
+        int heir = -1;
+        for (int u = 0; u < mNumTracks; u++) {
+            final float above = aFreq - mMeasured[u];
+            if (Float.isNaN(mPlateau[u]) && above > -aFamily && above <= aSeparation && (heir < 0 || mMeasured[u] > mMeasured[heir])) {
+                heir = u;
+            }
+        }
+        return heir;
+    }
+
+    // Leaves the plateau of a track that died behind.
+    private void leave(float aFreq, float aPlateau, int aFrame) {
+        int o = mNumOrphans;
+        if (o == mOrphanFreq.length) {
+            //full, replace the oldest.
+            o = 0;
+            for (int x = 1; x < mNumOrphans; x++) {
+                if (mOrphanFrame[x] < mOrphanFrame[o]) {
+                    o = x;
+                }
+            }
+        } else {
+            mNumOrphans++;
+        }
+        mOrphanFreq[o] = aFreq;
+        mOrphanPlateau[o] = aPlateau;
+        mOrphanFrame[o] = aFrame;
+    }
+
+    private void removeOrphan(int aIndex) {
+        mNumOrphans--;
+        mOrphanFreq[aIndex] = mOrphanFreq[mNumOrphans];
+        mOrphanPlateau[aIndex] = mOrphanPlateau[mNumOrphans];
+        mOrphanFrame[aIndex] = mOrphanFrame[mNumOrphans];
+    }
+
+    private void move(int aFrom, int aTo) {
+        mFreq[aTo] = mFreq[aFrom];
+        mRate[aTo] = mRate[aFrom];
+        mP00[aTo] = mP00[aFrom];
+        mP01[aTo] = mP01[aFrom];
+        mP11[aTo] = mP11[aFrom];
+        mMeasured[aTo] = mMeasured[aFrom];
+        mAge[aTo] = mAge[aFrom];
+        mDescent[aTo] = mDescent[aFrom];
+        mMisses[aTo] = mMisses[aFrom];
+        mRunMean[aTo] = mRunMean[aFrom];
+        mRunCount[aTo] = mRunCount[aFrom];
+        mPlateau[aTo] = mPlateau[aFrom];
+        mPlateauLeft[aTo] = mPlateauLeft[aFrom];
+        mChoice[aTo] = mChoice[aFrom];
+        mDistance[aTo] = mDistance[aFrom];
+    }
+
+    // Index of the peak nearest to aFreq in the ascending aPeakFreq, or -1 if there are no peaks.
+    private static int nearest(float[] aPeakFreq, int aNumPeaks, float aFreq) {
+        if (aNumPeaks == 0) {
+            return -1;
+        }
+        int lo = 0;
+        int hi = aNumPeaks - 1;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (aPeakFreq[mid] < aFreq) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        if (lo > 0 && aFreq - aPeakFreq[lo - 1] < aPeakFreq[lo] - aFreq) {
+            return lo - 1;
+        }
+        return lo;
+    }
+}
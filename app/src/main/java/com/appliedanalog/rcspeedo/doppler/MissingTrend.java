@@ -31,13 +31,43 @@ public class MissingTrend extends Trend{
      */
     public int oldCount;
 
-    public MissingTrend(Trend orig, int orig_ind, int ncount){
+    /**
+     * Id of the provisional speed published for this trend, or 0 if none is.
+     */
+    public int provisionalId;
+
+    /**
+     * Whether an interest of this trend was held back as a sweep still under way.
+     */
+    public boolean swept;
+
+    // Bookkeeping for MissingTrendList: position in the list and links within its grid cell.
+    int listSlot;
+    MissingTrend gridPrev;
+    MissingTrend gridNext;
+
+    public MissingTrend(){
+    }
+
+    public MissingTrend(TrendTable trends, int orig_ind, int ncount){
+        set(trends, orig_ind, ncount);
+    }
+
+    /**
+     * (Re)initializes this MissingTrend from the trend at orig_ind, so pooled objects can be reused.
+     * @param trends
+     * @param orig_ind
+     * @param ncount
+     */
+    public void set(TrendTable trends, int orig_ind, int ncount){
         origIndex = orig_ind;
         currentInterest = orig_ind;
-        oldCount = orig.count;
+        oldCount = trends.getCount(orig_ind);
         count = ncount;
-        index = orig.index;
+        index = trends.getIndex(orig_ind);
         timeSinceLastInterest = 0;
-        sig = orig.sig;
+        provisionalId = 0;
+        swept = false;
+        sig = trends.getSig(orig_ind);
     }
 }
@@ -0,0 +1,135 @@
+/*
+ * Copyright Applied Analog (c) 2015/2016
+ *
+ * This code is free for use in any non-commercial software. It carries
+ * no restrictions in such software.
+ */
+
+package com.appliedanalog.rcspeedo.doppler;
+
+/**
+ * Fixed capacity, unordered list of MissingTrends. Removal moves the last element into the freed
+ * slot, so it is O(1) no matter where in the list the removed element is. Callers iterating by index
+ * must revisit the index they just removed.
+ *
+ * The list can also index its elements by origIndex on a grid of bins, so findNear() only has to
+ * look at the few cells around a bin rather than at every element.
+ */
+public class MissingTrendList {
+    private final MissingTrend[] mItems;
+    private int mSize = 0;
+
+    // Grid of doubly linked lists threaded through MissingTrend.gridPrev/gridNext, or null if not indexed.
+    private final MissingTrend[] mCells;
+    private final int mCellSize;
+
+    /**
+     * Constructs an unindexed MissingTrendList.
+     * @param aCapacity Maximum number of elements.
+     */
+    public MissingTrendList(int aCapacity) {
+        mItems = new MissingTrend[aCapacity];
+        mCells = null;
+        mCellSize = 0;
+    }
+
+    /**
+     * Constructs a MissingTrendList that supports findNear().
+     * @param aCapacity Maximum number of elements.
+     * @param aBins Number of bins origIndex can range over.
+     * @param aCellSize Bins per grid cell. Searches within this many bins probe at most three cells.
+     */
+    public MissingTrendList(int aCapacity, int aBins, int aCellSize) {
+        mItems = new MissingTrend[aCapacity];
+        mCellSize = Math.max(1, aCellSize);
+        mCells = new MissingTrend[(aBins + mCellSize - 1) / mCellSize];
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public MissingTrend get(int aIndex) {
+        return mItems[aIndex];
+    }
+
+    /**
+     * Appends aTrend to the list.
+     * @param aTrend
+     * @return false if the list is full and aTrend was not added.
+     */
+    public boolean add(MissingTrend aTrend) {
+        if (mSize == mItems.length) {
+            return false;
+        }
+        aTrend.listSlot = mSize;
+        mItems[mSize++] = aTrend;
+        if (mCells != null) {
+            int cell = aTrend.origIndex / mCellSize;
+            aTrend.gridPrev = null;
+            aTrend.gridNext = mCells[cell];
+            if (aTrend.gridNext != null) {
+                aTrend.gridNext.gridPrev = aTrend;
+            }
+            mCells[cell] = aTrend;
+        }
+        return true;
+    }
+
+    /**
+     * Removes the element at aIndex, replacing it with the last element of the list.
+     * @param aIndex
+     * @return The removed element.
+     */
+    public MissingTrend removeAt(int aIndex) {
+        MissingTrend removed = mItems[aIndex];
+        mItems[aIndex] = mItems[--mSize];
+        mItems[aIndex].listSlot = aIndex;
+        mItems[mSize] = null;
+        if (mCells != null) {
+            if (removed.gridPrev != null) {
+                removed.gridPrev.gridNext = removed.gridNext;
+            } else {
+                mCells[removed.origIndex / mCellSize] = removed.gridNext;
+            }
+            if (removed.gridNext != null) {
+                removed.gridNext.gridPrev = removed.gridPrev;
+            }
+            removed.gridPrev = null;
+            removed.gridNext = null;
+        }
+        return removed;
+    }
+
+    /**
+     * Removes aTrend, which must be an element of this list.
+     * @param aTrend
+     */
+    public void remove(MissingTrend aTrend) {
+        removeAt(aTrend.listSlot);
+    }
+
+    /**
+     * Finds the element whose origIndex is closest to aBin, provided it is less than aRadius bins
+     * away. Only available on indexed lists.
+     * @param aBin
+     * @param aRadius
+     * @return The element, or null if there is none within aRadius.
+     */
+    public MissingTrend findNear(int aBin, int aRadius) {
+        int firstCell = Math.max(0, (aBin - aRadius + 1) / mCellSize);
+        int lastCell = Math.min(mCells.length - 1, (aBin + aRadius - 1) / mCellSize);
+        MissingTrend best = null;
+        int bestDistance = aRadius;
+        for (int c = firstCell; c <= lastCell; c++) {
+            for (MissingTrend mt = mCells[c]; mt != null; mt = mt.gridNext) {
+                int distance = Math.abs(mt.origIndex - aBin);
+                if (distance < bestDistance) {
+                    best = mt;
+                    bestDistance = distance;
+                }
+            }
+        }
+        return best;
+    }
+}
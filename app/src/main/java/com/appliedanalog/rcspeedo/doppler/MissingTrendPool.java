@@ -0,0 +1,50 @@
+/*
+ * Copyright Applied Analog (c) 2015/2016
+ *
+ * This code is free for use in any non-commercial software. It carries
+ * no restrictions in such software.
+ */
+
+package com.appliedanalog.rcspeedo.doppler;
+
+/**
+ * Free list of MissingTrend objects. Trends are wounded and lost in bursts whenever the scene
+ * changes, so rather than allocating a MissingTrend for each one (and leaving the garbage collector
+ * to pause the detection thread later), AudioDoppler recycles them through this pool. New objects
+ * are only allocated while the pool is still growing to its working size.
+ */
+public class MissingTrendPool {
+    private final MissingTrend[] mFree;
+    private int mFreeCount = 0;
+
+    /**
+     * Constructs a MissingTrendPool.
+     * @param aCapacity Maximum number of recycled MissingTrends retained.
+     */
+    public MissingTrendPool(int aCapacity) {
+        mFree = new MissingTrend[aCapacity];
+    }
+
+    /**
+     * Fetch a MissingTrend initialized from the trend at aBin.
+     * @param aTrends
+     * @param aBin
+     * @param aCount
+     * @return
+     */
+    public MissingTrend obtain(TrendTable aTrends, int aBin, int aCount) {
+        MissingTrend mt = (mFreeCount > 0) ? mFree[--mFreeCount] : new MissingTrend();
+        mt.set(aTrends, aBin, aCount);
+        return mt;
+    }
+
+    /**
+     * Returns a MissingTrend that is no longer referenced to the pool.
+     * @param aTrend
+     */
+    public void recycle(MissingTrend aTrend) {
+        if (mFreeCount < mFree.length) {
+            mFree[mFreeCount++] = aTrend;
+        }
+    }
+}
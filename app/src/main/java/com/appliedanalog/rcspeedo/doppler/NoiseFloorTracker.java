@@ -0,0 +1,161 @@
+/*
+ * Copyright Applied Analog (c) 2015/2016
+ *
+ * This code is free for use in any non-commercial software. It carries
+ * no restrictions in such software.
+ */
+
+package com.appliedanalog.rcspeedo.doppler;
+
+/**
+ * Tracks the noise floor of every bin of a stream of spectra, and prunes the peaks that do not stand
+ * out from it, see AudioDopplerConfiguration.setMinPeakSnr().
+ *
+ * Each bin follows the median of its own level: every UPDATE_STRIDE frames its floor steps up by
+ * STEP_DB if the bin is above the floor and down by as much if it is below. That costs a multiply per
+ * bin and needs no history. A steady tone pulls the floor of its own bins up to itself just the same, so the
+ * floor a peak is held against is the lowest floor within its peak width, which the tone's main lobe
+ * does not cover.
+ */
+public class NoiseFloorTracker {
+    /**
+     * Step of the floor of a bin per update, in dB. The floor of a bin jitters by about as much, and
+     * catches up with a change in the noise at this rate.
+     */
+    public static final float STEP_DB = .5f;
+    /**
+     * Each frame updates every UPDATE_STRIDE-th bin, in turn. Noise changes far slower than frames
+     * arrive, and the update would otherwise cost more than the peaks it prunes save.
+     */
+    public static final int UPDATE_STRIDE = 4;
+
+    private final int mScale;
+    private final float[] mFloor;
+    private boolean mPrimed = false;
+    private int mPhase = 0; //bins aFrom + mPhase + k * UPDATE_STRIDE are updated next.
+    // Floor steps in the scale of the spectra, factors or for log spectra offsets: up, then down.
+    private final float[] mSteps;
+
+    /**
+     * Constructs a NoiseFloorTracker.
+     * @param aBins Number of bins in the spectra.
+     * @param aScale Scale of the spectra, one of the FourierTransform.SCALE_ constants.
+     */
+    public NoiseFloorTracker(int aBins, int aScale) {
+        mScale = aScale;
+        mFloor = new float[aBins];
+        final float up = toScale(STEP_DB, aScale);
+        mSteps = new float[] { up, (aScale == FourierTransform.SCALE_LOG) ? -up : 1.f / up };
+    }
+
+    /**
+     * Whether this tracker follows spectra of aBins bins in scale aScale.
+     * @param aBins
+     * @param aScale
+     * @return
+     */
+    public boolean matches(int aBins, int aScale) {
+        return mFloor.length == aBins && mScale == aScale;
+    }
+
+    /**
+     * Forgets the floor. The next spectrum is taken as the floor as it is.
+     */
+    public void reset() {
+        mPrimed = false;
+    }
+
+    /**
+     * Steps the floor of every UPDATE_STRIDE-th bin of [aFrom, aTo) towards a new spectrum, starting
+     * one bin further than the last call. The first call after construction or reset() takes the
+     * whole spectrum as the floor.
+     * @param aSpec
+     * @param aFrom
+     * @param aTo
+     */
+    public void update(float[] aSpec, int aFrom, int aTo) {
+        final float[] floor = mFloor;
+        final float[] steps = mSteps;
+        if (!mPrimed) {
+            for (int x = aFrom; x < aTo; x++) {
+                // A floor of zero would never rise again.
+                floor[x] = (mScale == FourierTransform.SCALE_LOG) ? aSpec[x] : Math.max(aSpec[x], Float.MIN_NORMAL);
+            }
+            mPrimed = true;
+            return;
+        }
+        final int first = aFrom + mPhase;
+        mPhase = (mPhase + 1) % UPDATE_STRIDE;
+        // Bins are as likely to be below their floor as above, so the step is picked by the sign bit
+        // of the difference rather than a branch that would be mispredicted half of the time.
+        if (mScale == FourierTransform.SCALE_LOG) {
+            for (int x = first; x < aTo; x += UPDATE_STRIDE) {
+                floor[x] += steps[Float.floatToRawIntBits(aSpec[x] - floor[x]) >>> 31];
+            }
+        } else {
+            for (int x = first; x < aTo; x += UPDATE_STRIDE) {
+                floor[x] *= steps[Float.floatToRawIntBits(aSpec[x] - floor[x]) >>> 31];
+            }
+        }
+    }
+
+    /**
+     * Drops the peaks that are not more than aSnr above the lowest floor within their peak width.
+     * @param aSpec The spectrum the peaks were found in, after update().
+     * @param aRunStart Start bin of each run of bins sharing a peak width, see AudioDopplerPlan.getPeakRunStart().
+     * @param aRunWidth Peak width of each run.
+     * @param aPeaks Peak bins in ascending order, as returned by PeakDetector.findPeaks(). The peaks
+     *               that remain are moved to the front.
+     * @param aNumPeaks Number of peaks in aPeaks.
+     * @param aSnr Margin in dB.
+     * @return The number of peaks that remain.
+     */
+    public int prune(float[] aSpec, int[] aRunStart, int[] aRunWidth, int[] aPeaks, int aNumPeaks, float aSnr) {
+        if (aNumPeaks == 0) {
+            return 0;
+        }
+        final float[] floor = mFloor;
+        final boolean log = mScale == FourierTransform.SCALE_LOG;
+        final float margin = toScale(aSnr, mScale);
+        final int lo = aRunStart[0] - aRunWidth[0];
+        final int hi = aRunStart[aRunWidth.length] + aRunWidth[aRunWidth.length - 1];
+        int run = 0;
+        int kept = 0;
+        for (int p = 0; p < aNumPeaks; p++) {
+            final int x = aPeaks[p];
+            while (x >= aRunStart[run + 1]) {
+                run++;
+            }
+            final int width = aRunWidth[run];
+            final int end = Math.min(hi, x + width);
+            float min = floor[x];
+            for (int b = Math.max(lo, x - width); b <= end; b++) {
+                min = Math.min(min, floor[b]);
+            }
+            if (log ? aSpec[x] > min + margin : aSpec[x] > min * margin) {
+                aPeaks[kept++] = x;
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * The floor of each bin, in the scale of the spectra. Only the bins passed to update() are tracked.
+     * @return
+     */
+    public float[] getFloor() {
+        return mFloor;
+    }
+
+    // A ratio of aDb as a factor in aScale, or for log power an offset.
+    private static float toScale(float aDb, int aScale) {
+        switch (aScale) {
+            case FourierTransform.SCALE_LOG:
+                return (float) (aDb / (10. * Math.log10(2.)));
+            case FourierTransform.SCALE_POWER:
+                return (float) Math.pow(10., aDb / 10.);
+            default:
+                return (float) Math.pow(10., aDb / 20.);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright Applied Analog (c) 2015/2016
+ *
+ * This code is free for use in any non-commercial software. It carries
+ * no restrictions in such software.
+ */
+
+package com.appliedanalog.rcspeedo.doppler;
+
+/**
+ * Finds the bins of a spectrum that are strictly greater than every other bin within a peak width on
+ * either side, where the peak width varies across the divisions of the configuration.
+ *
+ * Checking every neighbour of every bin costs O(bins * width) on smooth spectra. Instead, each run of
+ * bins sharing a width is scanned so that every comparison rules out the bins it proves cannot be peaks:
+ *  - If bin x + i is the first bin to the right that is not smaller than x, every bin between them is
+ *    smaller than x and within reach of it, so the scan resumes at x + i.
+ *  - If no bin within the width to the right is as large as x, those bins are all beaten by x, so
+ *    whether or not x is a peak the scan resumes one width past x. Only bins that got this far are
+ *    checked to the left, and they are at least a width apart.
+ * Every bin is therefore compared against a bounded number of times, O(bins) overall.
+ */
+public class PeakDetector {
+    private PeakDetector() {
+    }
+
+    /**
+     * Scans aSpec for peaks over precomputed runs of bins sharing a peak width, see
+     * AudioDopplerPlan.getPeakRunStart().
+     * @param aSpec The spectrum.
+     * @param aRunStart Start bin of each run, followed by the end of the last run.
+     * @param aRunWidth Peak width of each run.
+     * @param aPeaks Receives the bins of the peaks found, in ascending order.
+     * @return The number of peaks found.
+     */
+    public static int findPeaks(float[] aSpec, int[] aRunStart, int[] aRunWidth, int[] aPeaks) {
+        int count = 0;
+        for (int r = 0; r < aRunWidth.length; r++) {
+            count = scanRun(aSpec, aRunStart[r], aRunStart[r + 1], aRunWidth[r], aPeaks, count);
+        }
+        return count;
+    }
+
+    // Finds the peaks in [aFrom, aTo), all of which share the peak width aWidth. Skips never cross
+    // aTo, since the bins beyond it may use a narrower width.
+    private static int scanRun(float[] aSpec, int aFrom, int aTo, int aWidth, int[] aPeaks, int aCount) {
+        int x = aFrom;
+        while (x < aTo) {
+            final float v = aSpec[x];
+            int i = 1;
+            while (i <= aWidth && aSpec[x + i] < v) {
+                i++;
+            }
+            if (i <= aWidth) {
+                x += i;
+                continue;
+            }
+            i = 1;
+            while (i <= aWidth && aSpec[x - i] < v) {
+                i++;
+            }
+            if (i > aWidth) {
+                aPeaks[aCount++] = x;
+            }
+            x += aWidth + 1;
+        }
+        return aCount;
+    }
+
+    /**
+     * Refines peaks to fractional bins by fitting a parabola through the log magnitudes of each peak
+     * and its two neighbours. The main lobe of a windowed tone is close to a Gaussian, whose log is a
+     * parabola, so this is far more accurate than the bin centre. Log power spectra are fitted as they
+     * are. Power spectra are fitted on the magnitudes of the three bins, rounded as a magnitude
+     * spectrum would have held them, so the offsets match those found in magnitude spectra while the
+     * square roots are only taken at the peaks.
+     * @param aSpec The spectrum the peaks were found in.
+     * @param aScale Scale of aSpec, one of the FourierTransform.SCALE_ constants.
+     * @param aPeaks Peak bins, as returned by findPeaks().
+     * @param aNumPeaks Number of peaks in aPeaks.
+     * @param aOffsets Receives the offset of each peak from its bin, within [-.5, .5].
+     */
+    public static void interpolate(float[] aSpec, int aScale, int[] aPeaks, int aNumPeaks, float[] aOffsets) {
+        final boolean log = aScale == FourierTransform.SCALE_LOG;
+        final boolean power = aScale == FourierTransform.SCALE_POWER;
+        for (int p = 0; p < aNumPeaks; p++) {
+            final int x = aPeaks[p];
+            float offset = 0.f;
+            if (x > 0 && x < aSpec.length - 1 && (log || (aSpec[x - 1] > 0.f && aSpec[x + 1] > 0.f))) {
+                double left;
+                double center;
+                double right;
+                if (log) {
+                    left = aSpec[x - 1];
+                    center = aSpec[x];
+                    right = aSpec[x + 1];
+                } else if (power) {
+                    left = Math.log((float) Math.sqrt(aSpec[x - 1]));
+                    center = Math.log((float) Math.sqrt(aSpec[x]));
+                    right = Math.log((float) Math.sqrt(aSpec[x + 1]));
+                } else {
+                    left = Math.log(aSpec[x - 1]);
+                    center = Math.log(aSpec[x]);
+                    right = Math.log(aSpec[x + 1]);
+                }
+                double curvature = left - 2. * center + right;
+                if (curvature < 0.) {
+                    offset = (float) Math.max(-.5, Math.min(.5, .5 * (left - right) / curvature));
+                }
+            }
+            aOffsets[p] = offset;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright Applied Analog (c) 2015/2016
+ *
+ * This code is free for use in any non-commercial software. It carries
+ * no restrictions in such software.
+ */
+
+package com.appliedanalog.rcspeedo.doppler;
+
+import java.util.Arrays;
+
+/**
+ * Anti-aliased rational resampler used to fit a capture buffer of one length into an analysis frame
+ * of another, e.g. 2048 samples captured at 44.1 kHz into a 1024 sample frame at 22.05 kHz, or with
+ * decimate() a stream captured at one rate into a stream at another. The ratio is reduced to
+ * up/down factors L/M and a Kaiser-windowed sinc lowpass is split into L coefficient banks, so each
+ * output sample costs only one bank's worth of multiply-adds.
+ *
+ * The lowpass only has to keep aliases out of the analysis band, not out of the whole output
+ * spectrum: anything folded above the pass band edge is never looked at. That lets the transition
+ * band extend from the pass band edge to its mirror image around the output Nyquist frequency,
+ * which keeps the filter short.
+ */
+public class PolyphaseDecimator {
+    // Stopband attenuation of the prototype filter, in dB.
+    static final double STOPBAND_DB = 60.;
+    // Pass band edges beyond this fraction of the output rate are clamped to leave a usable transition band.
+    static final float MAX_PASS_BAND = .45f;
+
+    private final int mInLength;
+    private final int mOutLength;
+    private final int mUp;
+    private final int mDown;
+    private final int mTaps;
+    // Coefficient banks, bank p occupying [p * mTaps, (p + 1) * mTaps).
+    private final float[] mBanks;
+    // For each output sample: the newest input sample it uses and the offset of its bank.
+    private final int[] mInputIndex;
+    private final int[] mBankOffset;
+    // Streaming state, see decimate(): the last mTaps input samples, newest first from mStreamPos and
+    // stored twice over so they never wrap. mWait input samples are due before the next output, which
+    // uses bank mPhase.
+    private float[] mStream;
+    private int mStreamPos = 0;
+    private int mWait = 1;
+    private int mPhase = 0;
+
+    /**
+     * Constructs a PolyphaseDecimator.
+     * @param aInLength Number of input samples per frame.
+     * @param aOutLength Number of output samples per frame.
+     * @param aPassBand Upper edge of the band that must be alias free, as a fraction of the output
+     *                  sampling rate (e.g. freqMax / samplingFreq).
+     */
+    public PolyphaseDecimator(int aInLength, int aOutLength, float aPassBand) {
+        mInLength = aInLength;
+        mOutLength = aOutLength;
+        int g = gcd(aInLength, aOutLength);
+        int up = aOutLength / g;
+        int down = aInLength / g;
+        mUp = up;
+        mDown = down;
+
+        // Band edges in cycles per input sample.
+        double ratio = (double) up / down;
+        double pass = Math.min(aPassBand, MAX_PASS_BAND) * ratio;
+        double stop = (1. - Math.min(aPassBand, MAX_PASS_BAND)) * ratio;
+        double transition = 2. * Math.PI * (stop - pass);
+        mTaps = (int) Math.ceil((STOPBAND_DB - 8.) / (2.285 * transition)) + 1;
+
+        // Prototype lowpass at the upsampled rate, scaled by the up factor to preserve gain.
+        int length = mTaps * up;
+        double cutoff = (pass + stop) / 2. / up;
+        double beta = .1102 * (STOPBAND_DB - 8.7);
+        double i0Beta = besselI0(beta);
+        double center = (length - 1) / 2.;
+        double[] proto = new double[length];
+        for (int k = 0; k < length; k++) {
+            double t = k - center;
+            double sinc = t == 0 ? 2. * cutoff : Math.sin(2. * Math.PI * cutoff * t) / (Math.PI * t);
+            double r = 2. * k / (length - 1) - 1.;
+            proto[k] = up * sinc * besselI0(beta * Math.sqrt(Math.max(0., 1. - r * r))) / i0Beta;
+        }
+        mBanks = new float[length];
+        for (int p = 0; p < up; p++) {
+            for (int j = 0; j < mTaps; j++) {
+                mBanks[p * mTaps + j] = (float) proto[p + j * up];
+            }
+        }
+
+        mInputIndex = new int[aOutLength];
+        mBankOffset = new int[aOutLength];
+        for (int n = 0; n < aOutLength; n++) {
+            long pos = (long) n * down;
+            mInputIndex[n] = (int) (pos / up);
+            mBankOffset[n] = (int) (pos % up) * mTaps;
+        }
+    }
+
+    /**
+     * Number of input samples per frame this decimator was built for.
+     * @return
+     */
+    public int getInLength() {
+        return mInLength;
+    }
+
+    /**
+     * Number of output samples per frame this decimator was built for.
+     * @return
+     */
+    public int getOutLength() {
+        return mOutLength;
+    }
+
+    /**
+     * Computes output sample aOut of the frame stored in the rotating buffer aIn. Input samples
+     * from before the start of the frame are treated as silence.
+     * @param aIn Rotating PCM buffer of getInLength() samples.
+     * @param aStartLoc Index of the oldest sample in aIn.
+     * @param aOut Output sample index.
+     * @return The filtered sample, in PCM units.
+     */
+    public float sample(short[] aIn, int aStartLoc, int aOut) {
+        final int newest = mInputIndex[aOut];
+        final int taps = Math.min(mTaps, newest + 1);
+        final float[] bank = mBanks;
+        int b = mBankOffset[aOut];
+        int x = aStartLoc + newest;
+        if (x >= mInLength) {
+            x -= mInLength;
+        }
+        float acc = 0.f;
+        for (int j = 0; j < taps; j++, b++) {
+            acc += bank[b] * aIn[x];
+            if (--x < 0) {
+                x = mInLength - 1;
+            }
+        }
+        return acc;
+    }
+
+    /**
+     * Resamples a stretch of a continuous stream, carrying the filter state over from the last call so
+     * the stream can be passed in blocks of any length. The stream starts from silence.
+     * @param aIn PCM samples at the input rate.
+     * @param aOffset First sample of the stretch in aIn.
+     * @param aLength Number of samples in the stretch.
+     * @param aOut Receives the resampled stretch, at most aLength * getOutLength() / getInLength() + 1 samples.
+     * @param aOutOffset Where the first output sample is written in aOut.
+     * @return The number of samples written to aOut.
+     */
+    public int decimate(short[] aIn, int aOffset, int aLength, short[] aOut, int aOutOffset) {
+        if (mStream == null) {
+            mStream = new float[2 * mTaps];
+        }
+        final float[] stream = mStream;
+        final float[] bank = mBanks;
+        final int taps = mTaps;
+        int out = aOutOffset;
+        for (int i = aOffset, end = aOffset + aLength; i < end; i++) {
+            mStreamPos = mStreamPos == 0 ? taps - 1 : mStreamPos - 1;
+            stream[mStreamPos] = aIn[i];
+            stream[mStreamPos + taps] = aIn[i];
+            mWait--;
+            while (mWait == 0) {
+                float acc = 0.f;
+                for (int j = 0, b = mPhase * taps, x = mStreamPos; j < taps; j++, b++, x++) {
+                    acc += bank[b] * stream[x];
+                }
+                aOut[out++] = (short) Math.max(-32768, Math.min(32767, Math.round(acc)));
+                mWait = (mPhase + mDown) / mUp;
+                mPhase = (mPhase + mDown) % mUp;
+            }
+        }
+        return out - aOutOffset;
+    }
+
+    /**
+     * Forgets the stream passed to decimate(), so the next call starts a new one from silence.
+     */
+    public void resetStream() {
+        if (mStream != null) {
+            Arrays.fill(mStream, 0.f);
+        }
+        mStreamPos = 0;
+        mWait = 1;
+        mPhase = 0;
+    }
+
+    static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    // Zeroth order modified Bessel function of the first kind, by its power series.
+    private static double besselI0(double x) {
+        double sum = 1.;
+        double term = 1.;
+        double q = x * x / 4.;
+        for (int k = 1; k < 50 && term > 1e-12 * sum; k++) {
+            term *= q / ((double) k * k);
+            sum += term;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright Applied Analog (c) 2015/2016
+ *
+ * This code is free for use in any non-commercial software. It carries
+ * no restrictions in such software.
+ */
+
+package com.appliedanalog.rcspeedo.doppler;
+
+/**
+ * Picks the AudioDopplerConfiguration preset that suits the passes being flown, from the
+ * TrendStatistics of the preset currently in use. The statistics are judged over windows of frames:
+ *  - A doppler shift of at least TrendStatistics.FAST_SHIFT_RATIO calls for CFG_200_PLUS.
+ *  - Under DEFAULT, trends that mostly end before they could be certified are passes too brief for
+ *    it, and call for FAST_PASS.
+ *  - Under FAST_PASS or CFG_200_PLUS, trends that live long enough for DEFAULT to certify them,
+ *    without any fast shifts, call for DEFAULT. Under FAST_PASS, brief trends call for it again.
+ * Windows with nothing to judge by leave things as they are. To avoid flapping between presets on
+ * the strength of a single pass, a new preset must be called for in CONFIRMATIONS windows before
+ * any window calls for the current one again.
+ */
+public class PresetClassifier {
+    public static final int PRESET_DEFAULT = 0;
+    public static final int PRESET_FAST_PASS = 1;
+    public static final int PRESET_HI_SPEED = 2;
+
+    // Number of consecutive windows that must call for a preset before it is selected.
+    static final int CONFIRMATIONS = 2;
+    // Number of counted trends that must end in a window before their lifetimes are judged.
+    static final int MIN_ENDED_TRENDS = 3;
+    // Under DEFAULT, short lived trends must outnumber long lived ones by this much to call for FAST_PASS.
+    static final int SHORT_TO_LONG_RATIO = 2;
+    // Under FAST_PASS or CFG_200_PLUS, this many long lived trends in a window call for DEFAULT.
+    static final int MIN_LONG_TRENDS = 2;
+
+    private final int mWindowFrames;
+    private final TrendStatistics mWindowStart = new TrendStatistics();
+    private boolean mStarted = false;
+    private int mPreset;
+    private int mCandidate;
+    private int mConfirmations = 0;
+
+    /**
+     * Constructs a PresetClassifier.
+     * @param aWindowFrames Number of frames the statistics are judged over at a time. A few seconds of
+     *                      frames make sure each window can hold a pass.
+     * @param aPreset The preset in use, one of the PRESET_ constants.
+     */
+    public PresetClassifier(int aWindowFrames, int aPreset) {
+        mWindowFrames = aWindowFrames;
+        mPreset = aPreset;
+        mCandidate = aPreset;
+    }
+
+    /**
+     * Fetch the selected preset.
+     * @return One of the PRESET_ constants.
+     */
+    public int getPreset() {
+        return mPreset;
+    }
+
+    /**
+     * Takes in the statistics of the preset in use, judging them whenever a window of frames has been
+     * tracked since the last judgement. Should be called after every frame, or every few frames.
+     * @param aStats Statistics of the detector running getPreset(). A detector that was replaced, and
+     *               whose counts therefore went backwards, starts a new window.
+     * @return The selected preset, one of the PRESET_ constants.
+     */
+    public int update(TrendStatistics aStats) {
+        if (!mStarted || aStats.getFrames() < mWindowStart.getFrames()) {
+            mWindowStart.copyFrom(aStats);
+            mStarted = true;
+            return mPreset;
+        }
+        if (aStats.getFrames() - mWindowStart.getFrames() < mWindowFrames) {
+            return mPreset;
+        }
+        int called = judge(aStats.getShortTrends() - mWindowStart.getShortTrends(),
+                aStats.getLongTrends() - mWindowStart.getLongTrends(),
+                aStats.getFastShifts() - mWindowStart.getFastShifts());
+        mWindowStart.copyFrom(aStats);
+        if (called < 0) {
+            return mPreset;
+        }
+        if (called == mPreset) {
+            mCandidate = mPreset;
+            mConfirmations = 0;
+        } else {
+            if (called != mCandidate) {
+                mCandidate = called;
+                mConfirmations = 0;
+            }
+            if (++mConfirmations >= CONFIRMATIONS) {
+                // The statistics of the new preset start afresh; a new window starts with them.
+                mPreset = called;
+                mConfirmations = 0;
+                mStarted = false;
+            }
+        }
+        return mPreset;
+    }
+
+    // Decides which preset a window calls for, or -1 if it does not call for any.
+    private int judge(long aShortTrends, long aLongTrends, long aFastShifts) {
+        if (aFastShifts > 0) {
+            return PRESET_HI_SPEED;
+        }
+        if (mPreset == PRESET_DEFAULT) {
+            if (aShortTrends + aLongTrends < MIN_ENDED_TRENDS) {
+                return -1;
+            }
+            return (aShortTrends >= SHORT_TO_LONG_RATIO * aLongTrends) ? PRESET_FAST_PASS : PRESET_DEFAULT;
+        }
+        if (aLongTrends >= MIN_LONG_TRENDS) {
+            return PRESET_DEFAULT;
+        }
+        // Under FAST_PASS, brief trends keep confirming it. Under CFG_200_PLUS only fast shifts do.
+        return (mPreset == PRESET_FAST_PASS && aShortTrends >= MIN_ENDED_TRENDS) ? PRESET_FAST_PASS : -1;
+    }
+}
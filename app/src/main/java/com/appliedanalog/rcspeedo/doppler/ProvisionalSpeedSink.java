@@ -0,0 +1,43 @@
+/*
+ * Copyright Applied Analog (c) 2015/2016
+ *
+ * This code is free for use in any non-commercial software. It carries
+ * no restrictions in such software.
+ */
+
+package com.appliedanalog.rcspeedo.doppler;
+
+/**
+ * Receives the provisional speeds published by AudioDoppler.process(). A provisional speed is
+ * published for a pass as soon as a trend that went missing finds a trend below it, is refined every
+ * frame that trend is followed, and ends either confirmed, once the pass yields a speed through the
+ * SpeedSink, or retracted. Each pass has its own id, so a sink can follow several at once.
+ */
+public interface ProvisionalSpeedSink {
+    /**
+     * Called when a provisional speed is published or refined.
+     * @param aId Id of the pass the speed is provisional for.
+     * @param aSpeed Speed in m/s.
+     * @param aConfidence Confidence in the speed from 0 to 1, see TrendDetector.getProvisionalConfidence().
+     * @param aWeight Weight of the speed, see AudioDoppler.getSpeedWeight().
+     * @param aFromFreq Frequency of the source while approaching, in Hz.
+     * @param aToFreq Frequency the source is suspected to have while receding, in Hz.
+     * @param aFrame Index of the frame the speed was published in.
+     */
+    public void provisionalSpeed(int aId, double aSpeed, double aConfidence, double aWeight, float aFromFreq, float aToFreq, int aFrame);
+
+    /**
+     * Called when the pass of a provisional speed yields its speed. The speed itself is reported to
+     * the SpeedSink, possibly later if AudioDoppler.setEscalation() holds it back.
+     * @param aId
+     * @param aFrame
+     */
+    public void provisionalConfirmed(int aId, int aFrame);
+
+    /**
+     * Called when a provisional speed turns out not to belong to a pass.
+     * @param aId
+     * @param aFrame
+     */
+    public void provisionalRetracted(int aId, int aFrame);
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright Applied Analog (c) 2015/2016
+ *
+ * This code is free for use in any non-commercial software. It carries
+ * no restrictions in such software.
+ */
+
+package com.appliedanalog.rcspeedo.doppler;
+
+/**
+ * Re-analyzes the audio around a pass with a high resolution configuration, on behalf of an
+ * AudioDoppler that normally runs a cheap one (see AudioDoppler.setEscalation()).
+ *
+ * The escalator keeps the most recent audio in a ring. When the cheap configuration loses a certified
+ * trend, which is how every pass starts, trigger() opens a window reaching back far enough for the
+ * high resolution configuration to certify that trend, and forward far enough for it to find the
+ * shifted trend. Speeds the cheap configuration detects meanwhile are held back, and close the window
+ * once the high resolution configuration has had time to catch up with them. When the window closes,
+ * its audio has been replayed through an AudioDoppler running the high resolution configuration. The
+ * speeds it detects replace the held ones; if it detects none, the held speeds are reported after all.
+ *
+ * The replay runs while the window is open, REPLAY_FRAMES frames of the high resolution configuration
+ * per call to replayIfDue() at the most, which is once per frame of the cheap configuration. It starts
+ * that far behind the recording, catches up within a second or so and then keeps pace with it, so no
+ * frame of the cheap configuration pays for more than a few frames of the high resolution one, and
+ * the window is done soon after its end is recorded.
+ *
+ * Triggers while a window is open extend it, unless a speed has been held, which fixes the end of the
+ * window: triggers after that, such as the shifted trend dying away, open a new window once it
+ * closes. Windows never reach back into a window that speeds were reported for, so a pass is not
+ * reported twice. The replays therefore cost at most about as much as running the high resolution
+ * configuration all the time, and nothing while no pass is in progress.
+ */
+public class ResolutionEscalator {
+    /**
+     * Most frames of the high resolution configuration one call to replayIfDue() replays. The replay
+     * catches up with the recording as long as this many of its hops are longer than a hop of the cheap
+     * configuration.
+     */
+    static final int REPLAY_FRAMES = 4;
+
+    private final AudioDopplerConfiguration mConfig;
+    final AudioDoppler mAnalysis;
+
+    // Retained audio. Sample n of the stream, counting from the first recorded, is at mHistory[n % length].
+    private final short[] mHistory;
+    private long mWritten = 0; //number of samples recorded.
+    private long mOldest = 0; //the oldest sample that is still valid.
+
+    // Window lengths, in samples, around a trigger and after a held speed.
+    private final int mBefore;
+    private final int mAfter;
+    private final int mCatchUp;
+
+    // The open window, if mPending, and whether its end is fixed.
+    private boolean mPending = false;
+    private boolean mEndFixed;
+    private boolean mExtended; //whether the fixed end was put off once for a replay that found nothing yet.
+    private long mStart;
+    private long mEnd;
+    private long mRetrigger = -1; //position of the first trigger after the end was fixed, or -1.
+    private long mReplayed = 0; //end of the last window that speeds were reported for.
+    private long mReplayPos; //next sample of the open window to replay.
+
+    // Speeds held back while the window is open, speeds its replay has detected so far, and then the
+    // speeds to report instead.
+    private final SpeedList mHeld;
+    private final SpeedList mFound;
+    private final SpeedList mResults;
+
+    /**
+     * Parallel arrays of speeds, as in AudioDoppler. Speeds beyond the capacity are dropped.
+     */
+    static class SpeedList implements SpeedSink {
+        final double[] mSpeeds;
+        final double[] mWeights;
+        final float[] mFrom;
+        final float[] mTo;
+        int mSize = 0;
+
+        SpeedList(int aCapacity) {
+            mSpeeds = new double[aCapacity];
+            mWeights = new double[aCapacity];
+            mFrom = new float[aCapacity];
+            mTo = new float[aCapacity];
+        }
+
+        @Override
+        public void speedDetected(double aSpeed, double aWeight, float aFromFreq, float aToFreq, int aFrame) {
+            if (mSize < mSpeeds.length) {
+                mSpeeds[mSize] = aSpeed;
+                mWeights[mSize] = aWeight;
+                mFrom[mSize] = aFromFreq;
+                mTo[mSize] = aToFreq;
+                mSize++;
+            }
+        }
+    }
+
+    /**
+     * Constructs a ResolutionEscalator.
+     * @param aConfig The high resolution configuration, normally a bigger frame than the cheap one with
+     *                its frames overlapping.
+     * @param aSamplingFreq Sampling rate of the audio, in Hz.
+     */
+    public ResolutionEscalator(AudioDopplerConfiguration aConfig, int aSamplingFreq) {
+        mConfig = aConfig;
+        mAnalysis = new AudioDoppler(aConfig, aSamplingFreq);
+        final int hop = aConfig.getHopSize();
+        // Enough for a trend to be certified twice over, and for a missing trend to be waited out.
+        mBefore = 2 * aConfig.getMinTrendCountUntilCertified() * hop + aConfig.getFrameSize();
+        mCatchUp = aConfig.getMinTillAccept() * hop + aConfig.getFrameSize();
+        mAfter = aConfig.getMaxDopplerWindow() * hop + mCatchUp;
+        mHistory = new short[mBefore + mAfter];
+        mHeld = new SpeedList(aConfig.getSpectrumSize() / 4);
+        mFound = new SpeedList(aConfig.getSpectrumSize() / 4);
+        mResults = new SpeedList(aConfig.getSpectrumSize() / 4);
+    }
+
+    public AudioDopplerConfiguration getConfiguration() {
+        return mConfig;
+    }
+
+    /**
+     * Appends the newest samples of a rotating frame buffer to the retained audio.
+     * @param aIn Rotating buffer holding a frame at the analysis rate.
+     * @param aStartLoc Index of the oldest sample in aIn.
+     * @param aNewSamples Number of samples written to aIn since the last call. The whole buffer is taken
+     *                    when nothing has been recorded yet.
+     */
+    public void record(short[] aIn, int aStartLoc, int aNewSamples) {
+        int n = (mWritten == mOldest) ? aIn.length : Math.min(aNewSamples, aIn.length);
+        int from = (aStartLoc + aIn.length - n) % aIn.length;
+        while (n > 0) {
+            int to = (int) (mWritten % mHistory.length);
+            int run = Math.min(n, Math.min(aIn.length - from, mHistory.length - to));
+            System.arraycopy(aIn, from, mHistory, to, run);
+            from = (from + run) % aIn.length;
+            mWritten += run;
+            n -= run;
+        }
+        mOldest = Math.max(mOldest, mWritten - mHistory.length);
+    }
+
+    /**
+     * Drops the retained audio, for when the stream is interrupted. An open window is closed without
+     * a replay and its held speeds are released.
+     */
+    public void interrupt() {
+        mOldest = mWritten;
+        // An empty window replays to nothing, which releases the held speeds.
+        mStart = mWritten;
+        mEnd = mWritten;
+        mExtended = true;
+        mRetrigger = -1;
+        mReplayPos = mWritten;
+        mFound.mSize = 0;
+    }
+
+    /**
+     * Opens a window around the current position, or extends the open one.
+     */
+    public void trigger() {
+        if (!mPending) {
+            open(mWritten);
+        } else if (!mEndFixed) {
+            // A window longer than the retained audio gives up its oldest part.
+            mEnd = Math.max(mEnd, mWritten + mAfter);
+            mStart = Math.max(mStart, mEnd - mHistory.length);
+        } else if (mRetrigger < 0) {
+            mRetrigger = mWritten;
+        }
+    }
+
+    private void open(long aTrigger) {
+        mPending = true;
+        mEndFixed = false;
+        mExtended = false;
+        mRetrigger = -1;
+        mStart = Math.max(Math.max(mOldest, mReplayed), aTrigger - mBefore);
+        mEnd = aTrigger + mAfter;
+        mHeld.mSize = 0;
+        mReplayPos = mStart;
+        mFound.mSize = 0;
+        mAnalysis.reset();
+    }
+
+    /**
+     * Whether a window is open, in which case speeds should be passed to hold() instead of reported.
+     * @return
+     */
+    public boolean isPending() {
+        return mPending;
+    }
+
+    /**
+     * Holds back a speed detected by the cheap configuration while a window is open. The window is
+     * shortened to close once the high resolution configuration can have detected it too.
+     */
+    public void hold(double aSpeed, double aWeight, float aFromFreq, float aToFreq) {
+        mHeld.speedDetected(aSpeed, aWeight, aFromFreq, aToFreq, 0);
+        if (!mEndFixed) {
+            mEnd = Math.min(mEnd, mWritten + mCatchUp);
+            mEndFixed = true;
+        }
+    }
+
+    /**
+     * Replays the next REPLAY_FRAMES frames at most of the open window's recorded audio. Once all of the
+     * window has been recorded and replayed, the speeds to report are available through numSpeeds()
+     * and its siblings, until the next call.
+     * @param aTemperature Air temperature in Centigrade.
+     * @return Whether the window was done.
+     */
+    public boolean replayIfDue(double aTemperature) {
+        mResults.mSize = 0;
+        if (!mPending) {
+            return false;
+        }
+        mAnalysis.mTemperature = aTemperature;
+        // Audio that was not replayed before it was overwritten is skipped.
+        mReplayPos = Math.max(mReplayPos, mOldest);
+        final long limit = Math.min(Math.min(mEnd, mWritten), mReplayPos + REPLAY_FRAMES * mConfig.getHopSize());
+        while (mReplayPos < limit) {
+            int from = (int) (mReplayPos % mHistory.length);
+            int length = (int) Math.min(limit - mReplayPos, mHistory.length - from);
+            mAnalysis.process(mHistory, from, length, mFound);
+            mReplayPos += length;
+        }
+        if (mReplayPos >= mEnd && mEndFixed && !mExtended && mFound.mSize == 0 && mHeld.mSize > 0) {
+            // The high resolution configuration can lag the cheap one by more than mCatchUp when a slow
+            // sweep crosses the cheap configuration's bins early; it gets one more catch up to report.
+            mEnd += mCatchUp;
+            mExtended = true;
+        }
+        if (mReplayPos < mEnd) {
+            return false;
+        }
+        mPending = false;
+        copy(mFound.mSize > 0 ? mFound : mHeld, mResults);
+        if (mResults.mSize > 0) {
+            mReplayed = mEnd;
+        }
+        if (mRetrigger >= 0) {
+            open(mRetrigger);
+        }
+        return true;
+    }
+
+    /**
+     * Fetch the number of speeds to report, see replayIfDue().
+     * @return
+     */
+    public int numSpeeds() {
+        return mResults.mSize;
+    }
+
+    public double getSpeed(int aIndex) {
+        return mResults.mSpeeds[aIndex];
+    }
+
+    public double getSpeedWeight(int aIndex) {
+        return mResults.mWeights[aIndex];
+    }
+
+    public float getSpeedFromFreq(int aIndex) {
+        return mResults.mFrom[aIndex];
+    }
+
+    public float getSpeedToFreq(int aIndex) {
+        return mResults.mTo[aIndex];
+    }
+
+    private static void copy(SpeedList aFrom, SpeedList aTo) {
+        aTo.mSize = 0;
+        for (int s = 0; s < aFrom.mSize; s++) {
+            aTo.speedDetected(aFrom.mSpeeds[s], aFrom.mWeights[s], aFrom.mFrom[s], aFrom.mTo[s], 0);
+        }
+        aFrom.mSize = 0;
+    }
+}
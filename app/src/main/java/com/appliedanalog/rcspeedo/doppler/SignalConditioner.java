@@ -0,0 +1,169 @@
+/*
+ * Copyright Applied Analog (c) 2015/2016
+ *
+ * This code is free for use in any non-commercial software. It carries
+ * no restrictions in such software.
+ */
+
+package com.appliedanalog.rcspeedo.doppler;
+
+/**
+ * Converts 16-bit PCM into the frames consumed by the spectral transforms. A single pass over the
+ * frame unwraps the rotating audio buffer (resampling it through a PolyphaseDecimator when it was
+ * captured at a higher rate), scales samples to [-1, 1), removes DC and wind rumble with a first
+ * order high-pass filter and applies the analysis window.
+ *
+ * Two frames are produced: the filtered samples before windowing (which convertHop() shifts into
+ * the next frame) and the windowed samples fed to the FFT.
+ */
+public class SignalConditioner {
+    static final float PCM_SCALE = 1.f / 32768.f;
+
+    // Cosine-sum coefficients a0, a1, ... for each window: w[n] = a0 - a1 cos(2PIn/N) + a2 cos(4PIn/N) - ...
+    private static final float[] RECTANGULAR = { 1.f };
+    private static final float[] HANN = { .5f, .5f };
+    private static final float[] BLACKMAN_HARRIS = { .35875f, .48829f, .14128f, .01168f };
+
+    private final float[] mWindowTable;
+    private final float mHighPassAlpha;
+    // High-pass filter state, carried from one frame to the next while the frames follow one another.
+    private float mLastInput;
+    private float mLastOutput;
+    private boolean mFiltering = false; //whether mLastInput and mLastOutput belong to the sample before the next frame.
+
+    /**
+     * Constructs a SignalConditioner.
+     * @param aFrameSize Number of samples in each frame.
+     * @param aWindow One of the AudioDopplerConfiguration.WINDOW_ constants.
+     * @param aHighPassCutoff High-pass cutoff frequency in Hz. 0 disables the filter.
+     * @param aSampleRate Sampling rate of the frames, in Hz.
+     */
+    public SignalConditioner(int aFrameSize, int aWindow, float aHighPassCutoff, float aSampleRate) {
+        float[] coeffs = windowCoefficients(aWindow);
+        mWindowTable = new float[aFrameSize];
+        for (int n = 0; n < aFrameSize; n++) {
+            double w = 0.;
+            for (int m = 0; m < coeffs.length; m++) {
+                double term = coeffs[m] * Math.cos(2. * Math.PI * m * n / aFrameSize);
+                w += (m % 2 == 0) ? term : -term;
+            }
+            mWindowTable[n] = (float) w;
+        }
+        if (aHighPassCutoff > 0) {
+            mHighPassAlpha = (float) (1. / (1. + 2. * Math.PI * aHighPassCutoff / aSampleRate));
+        } else {
+            mHighPassAlpha = 1.f;
+        }
+    }
+
+    /**
+     * Fetch the cosine-sum coefficients of the given window.
+     * @param aWindow One of the AudioDopplerConfiguration.WINDOW_ constants.
+     * @return
+     */
+    public static float[] windowCoefficients(int aWindow) {
+        switch (aWindow) {
+            case AudioDopplerConfiguration.WINDOW_HANN:
+                return HANN;
+            case AudioDopplerConfiguration.WINDOW_BLACKMAN_HARRIS:
+                return BLACKMAN_HARRIS;
+            default:
+                return RECTANGULAR;
+        }
+    }
+
+    /**
+     * Makes the next frame start the high-pass filter afresh, for when it does not follow the last one.
+     */
+    public void reset() {
+        mFiltering = false;
+    }
+
+    /**
+     * Conditions a whole frame that follows the previous one. The high-pass state continues from the
+     * previous frame; after a reset() the filter is instead primed with the first sample so the frame
+     * does not start with a DC step.
+     * @param aIn Rotating PCM buffer.
+     * @param aStartLoc Index of the oldest sample in aIn.
+     * @param aDecimator Resamples aIn down to the frame length, or null if aIn is already frame sized.
+     * @param aRaw Receives the filtered, unwindowed frame.
+     * @param aWindowed Receives the windowed frame.
+     */
+    public void convertFrame(short[] aIn, int aStartLoc, PolyphaseDecimator aDecimator, float[] aRaw, float[] aWindowed) {
+        final int len = aIn.length;
+        final int size = aRaw.length;
+        final float alpha = mHighPassAlpha;
+        float lastIn = mLastInput;
+        float lastOut = mLastOutput;
+        if (aDecimator == null) {
+            if (!mFiltering) {
+                lastIn = aIn[aStartLoc] * PCM_SCALE;
+                lastOut = 0.f;
+            }
+            for (int n = 0, x = aStartLoc; n < size; n++) {
+                float in = aIn[x] * PCM_SCALE;
+                lastOut = alpha * (lastOut + in - lastIn);
+                lastIn = in;
+                aRaw[n] = lastOut;
+                aWindowed[n] = lastOut * mWindowTable[n];
+                if (++x == len) {
+                    x = 0;
+                }
+            }
+        } else {
+            if (!mFiltering) {
+                lastIn = aDecimator.sample(aIn, aStartLoc, 0) * PCM_SCALE;
+                lastOut = 0.f;
+            }
+            for (int n = 0; n < size; n++) {
+                float in = aDecimator.sample(aIn, aStartLoc, n) * PCM_SCALE;
+                lastOut = alpha * (lastOut + in - lastIn);
+                lastIn = in;
+                aRaw[n] = lastOut;
+                aWindowed[n] = lastOut * mWindowTable[n];
+            }
+        }
+        mLastInput = lastIn;
+        mLastOutput = lastOut;
+        mFiltering = true;
+    }
+
+    /**
+     * Conditions a frame that overlaps the previous one by all but aHop samples. Only the new
+     * samples are filtered; the high-pass state continues from the previous frame so the
+     * overlapping samples are bit-identical to the ones already in aPrevRaw.
+     * @param aIn Rotating PCM buffer at the frame sample rate.
+     * @param aStartLoc Index of the oldest sample in aIn.
+     * @param aHop Number of new samples at the end of the frame.
+     * @param aPrevRaw The previous unwindowed frame.
+     * @param aRaw Receives the filtered, unwindowed frame.
+     * @param aWindowed Receives the windowed frame.
+     */
+    public void convertHop(short[] aIn, int aStartLoc, int aHop, float[] aPrevRaw, float[] aRaw, float[] aWindowed) {
+        final int size = aRaw.length;
+        final int keep = size - aHop;
+        final int len = aIn.length;
+        final float alpha = mHighPassAlpha;
+        float lastIn = mLastInput;
+        float lastOut = mLastOutput;
+        int n = 0;
+        for (; n < keep; n++) {
+            float v = aPrevRaw[n + aHop];
+            aRaw[n] = v;
+            aWindowed[n] = v * mWindowTable[n];
+        }
+        for (int x = (aStartLoc + keep) % len; n < size; n++) {
+            float in = aIn[x] * PCM_SCALE;
+            lastOut = alpha * (lastOut + in - lastIn);
+            lastIn = in;
+            aRaw[n] = lastOut;
+            aWindowed[n] = lastOut * mWindowTable[n];
+            if (++x == len) {
+                x = 0;
+            }
+        }
+        mLastInput = lastIn;
+        mLastOutput = lastOut;
+        mFiltering = true;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright Applied Analog (c) 2015/2016
+ *
+ * This code is free for use in any non-commercial software. It carries
+ * no restrictions in such software.
+ */
+
+package com.appliedanalog.rcspeedo.doppler;
+
+/**
+ * Turns conditioned audio frames into the spectrum the trend passes work on, for one combination of
+ * frame size, zoom, window, high-pass filter and spectrum scale. mDist holds the windowed frame for
+ * mTransform, mRaw the unwindowed frame that the next hop is shifted from.
+ *
+ * AudioDoppler keeps one front end per distinct combination in use, so configurations that agree on
+ * these parameters share a single transform per frame.
+ */
+public class SpectrumFrontEnd {
+    private final int mFrameSize;
+    private final int mZoom;
+    private final int mWindow;
+    private final float mHighPassCutoff;
+    private final float mFreqMin;
+    private final float mFreqMax;
+    private final boolean mPyramid;
+    private final int mScale;
+
+    private final FourierTransform mTransform;
+    private final SignalConditioner mConditioner;
+    private final float[] mDist;
+    private float[] mRaw;
+    private float[] mPrevRaw;
+    private float[] mSpectrum; //spectrum of the current frame, or null until transform() is called.
+
+    /**
+     * Constructs a SpectrumFrontEnd.
+     * @param aConfig Configuration whose frame size, zoom, window, high-pass cutoff, band and spectrum
+     *                scale are used.
+     * @param aSampleRate Sampling rate of the frames, in Hz.
+     */
+    public SpectrumFrontEnd(AudioDopplerConfiguration aConfig, int aSampleRate) {
+        mFrameSize = aConfig.getFrameSize();
+        mZoom = aConfig.getZoom();
+        mWindow = aConfig.getWindow();
+        mHighPassCutoff = aConfig.getHighPassCutoff();
+        mFreqMin = aConfig.getFreqMin();
+        mFreqMax = aConfig.getFreqMax();
+        mPyramid = aConfig.isPyramid();
+        mScale = aConfig.getSpectrumScale();
+        if (mZoom > 1) {
+            mTransform = new ZoomSpectrum(mFrameSize, mZoom, aSampleRate, mFreqMin, mFreqMax);
+        } else {
+            mTransform = new FFT(mFrameSize, aSampleRate);
+        }
+        mTransform.setScale(mScale);
+        mConditioner = new SignalConditioner(mFrameSize, mWindow, mHighPassCutoff, aSampleRate);
+        mDist = new float[mFrameSize];
+        mRaw = new float[mFrameSize];
+        mPrevRaw = new float[mFrameSize];
+    }
+
+    /**
+     * Creates the front end aConfig asks for: a SpectrumPyramid if it is in pyramid mode, or else a
+     * plain SpectrumFrontEnd.
+     * @param aConfig
+     * @param aSampleRate Sampling rate of the frames, in Hz.
+     * @return
+     */
+    public static SpectrumFrontEnd create(AudioDopplerConfiguration aConfig, int aSampleRate) {
+        if (aConfig.isPyramid()) {
+            return new SpectrumPyramid(aConfig, aSampleRate);
+        }
+        return new SpectrumFrontEnd(aConfig, aSampleRate);
+    }
+
+    /**
+     * Whether this front end produces the spectrum aConfig asks for.
+     * @param aConfig
+     * @return
+     */
+    public boolean matches(AudioDopplerConfiguration aConfig) {
+        return mFrameSize == aConfig.getFrameSize() && mZoom == aConfig.getZoom() && mWindow == aConfig.getWindow()
+                && mHighPassCutoff == aConfig.getHighPassCutoff() && mFreqMin == aConfig.getFreqMin() && mFreqMax == aConfig.getFreqMax()
+                && mPyramid == aConfig.isPyramid() && mScale == aConfig.getSpectrumScale();
+    }
+
+    public int getFrameSize() {
+        return mFrameSize;
+    }
+
+    /**
+     * Makes the next frame start the high-pass filter afresh, for when it does not follow the last one.
+     */
+    public void reset() {
+        mConditioner.reset();
+    }
+
+    /**
+     * Conditions a whole new frame, see SignalConditioner.convertFrame().
+     * @param aIn Rotating PCM buffer.
+     * @param aStartLoc Index of the oldest sample in aIn.
+     * @param aDecimator Resamples aIn down to the frame length, or null if aIn is already frame sized.
+     */
+    public void convertFrame(short[] aIn, int aStartLoc, PolyphaseDecimator aDecimator) {
+        swapBuffers();
+        mConditioner.convertFrame(aIn, aStartLoc, aDecimator, mRaw, mDist);
+    }
+
+    /**
+     * Conditions a frame that overlaps the previous one by all but aHop samples, see
+     * SignalConditioner.convertHop().
+     * @param aIn Rotating PCM buffer.
+     * @param aStartLoc Index of the oldest sample in aIn.
+     * @param aHop Number of new samples at the end of the frame.
+     */
+    public void convertHop(short[] aIn, int aStartLoc, int aHop) {
+        swapBuffers();
+        mConditioner.convertHop(aIn, aStartLoc, aHop, mPrevRaw, mRaw, mDist);
+    }
+
+    /**
+     * Computes the spectrum of the current frame.
+     * @return The spectrum, valid until the next call.
+     */
+    public float[] transform() {
+        mTransform.forward(mDist);
+        mSpectrum = mTransform.getSpectrum();
+        return mSpectrum;
+    }
+
+    /**
+     * The spectrum computed by the last call to transform().
+     * @return
+     */
+    public float[] getSpectrum() {
+        return mSpectrum;
+    }
+
+    /**
+     * The transform used for whole frames.
+     * @return
+     */
+    public FourierTransform getTransform() {
+        return mTransform;
+    }
+
+    // Retains the current unwindowed frame as the previous frame before a new one is written.
+    private void swapBuffers() {
+        float[] t = mPrevRaw;
+        mPrevRaw = mRaw;
+        mRaw = t;
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright Applied Analog (c) 2015/2016
+ *
+ * This code is free for use in any non-commercial software. It carries
+ * no restrictions in such software.
+ */
+
+package com.appliedanalog.rcspeedo.doppler;
+
+/**
+ * A SpectrumFrontEnd that builds its spectrum from transforms of several sizes over the same rotating
+ * buffer, see AudioDopplerConfiguration.setPyramid(). The full frame (the top level) is transformed
+ * by the front end itself; the smaller levels each have a front end of their own, fed the newest
+ * samples of the frame.
+ *
+ * A level is recomputed once half of its size in new samples has arrived, so the smaller levels are
+ * recomputed every frame and the top level only every few. Every division of the detection band is
+ * taken from one level: the coarsest whose bins are no wider than 1 / RESOLUTION of the lowest
+ * frequency of the division. The relative shift of a doppler pass is the same at any frequency, so
+ * this gives every division about the same speed resolution at the least latency.
+ *
+ * The composite spectrum is sampled on the bins of the top level, which the detection parameters
+ * refer to, in the configured spectrum scale. The smaller levels produce log power spectra, which are
+ * scaled to the top level's power and interpolated onto its bins with a parabola through the nearest
+ * three bins. That is the same model PeakDetector.interpolate() fits to peaks, so a peak keeps its
+ * sub-bin position on the finer bins.
+ */
+public class SpectrumPyramid extends SpectrumFrontEnd {
+    /**
+     * A division of the band is taken from the coarsest level whose bin width is at most its lowest
+     * frequency divided by this.
+     */
+    public static final int RESOLUTION = 100;
+
+    private final int mTopSize;
+    private final int mScale;
+    // The lower levels, smallest first, and the samples each has received since it was last converted.
+    private final SpectrumFrontEnd[] mLevels;
+    private final int[] mLevelPending;
+    private final boolean[] mLevelDue;
+    private int mTopPending;
+    private boolean mTopDue;
+
+    // Composite bins [mLevelFrom[l], mLevelTo[l]) come from mLevels[l], the rest from the top level.
+    private final int[] mLevelFrom;
+    private final int[] mLevelTo;
+    private final float[][] mLevelLog; //log2 power of the bins of each level, scaled to the top level.
+    private final float[] mComposite;
+
+    /**
+     * Constructs a SpectrumPyramid.
+     * @param aConfig Configuration with isPyramid() set. Its frame size is the size of the top level.
+     * @param aSampleRate Sampling rate of the frames, in Hz.
+     */
+    public SpectrumPyramid(AudioDopplerConfiguration aConfig, int aSampleRate) {
+        super(aConfig, aSampleRate);
+        if (aConfig.getZoom() != 1) {
+            throw new IllegalArgumentException("Pyramid spectra cannot be zoomed");
+        }
+        final int[] sizes = aConfig.getLevelSizes();
+        mTopSize = sizes[sizes.length - 1];
+        mScale = aConfig.getSpectrumScale();
+        final int levels = sizes.length - 1;
+        mLevels = new SpectrumFrontEnd[levels];
+        mLevelPending = new int[levels];
+        mLevelDue = new boolean[levels];
+        mLevelFrom = new int[levels];
+        mLevelTo = new int[levels];
+        mLevelLog = new float[levels][];
+        AudioDopplerConfiguration plain = aConfig.setPyramid(false).setSpectrumScale(FourierTransform.SCALE_LOG);
+        for (int l = 0; l < levels; l++) {
+            mLevels[l] = new SpectrumFrontEnd(plain.scaleFrameSize(sizes[l]), aSampleRate);
+            mLevelLog[l] = new float[sizes[l] / 2 + 1];
+        }
+        mComposite = new float[mTopSize / 2 + 1];
+
+        // Assign the divisions to levels. Their lowest frequencies rise, so the level chosen never grows
+        // and each level gets one run of divisions, the smallest level the highest run.
+        final int[] divisionStart = aConfig.compile(aSampleRate).getDivisionStart();
+        final int divisions = divisionStart.length - 1;
+        final int bandEnd = Math.min(mComposite.length, FourierTransform.freqToIndex(aConfig.getFreqMax(), mTopSize, aSampleRate) + 1);
+        for (int l = 0; l < levels; l++) {
+            mLevelFrom[l] = mComposite.length;
+            mLevelTo[l] = mComposite.length;
+        }
+        for (int div = 0; div < divisions; div++) {
+            float low = Math.max(aConfig.getFreqMin(), FourierTransform.indexToFreq(divisionStart[div], mTopSize, aSampleRate));
+            int l = 0;
+            while (l < levels && (float) aSampleRate / sizes[l] * RESOLUTION > low) {
+                l++;
+            }
+            if (l < levels) {
+                mLevelFrom[l] = Math.min(mLevelFrom[l], divisionStart[div]);
+                // The last division also takes the bins up to the end of the band, the last ones peaks are searched in.
+                mLevelTo[l] = (div + 1 < divisions) ? divisionStart[div + 1] : bandEnd;
+            }
+        }
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        for (SpectrumFrontEnd level : mLevels) {
+            level.reset();
+        }
+    }
+
+    /**
+     * Conditions a whole new frame for every level. Resampled input is not supported.
+     * @param aIn Rotating PCM buffer of at least the top level's size.
+     * @param aStartLoc Index of the oldest sample of the top level's frame in aIn.
+     * @param aDecimator Must be null.
+     */
+    @Override
+    public void convertFrame(short[] aIn, int aStartLoc, PolyphaseDecimator aDecimator) {
+        if (aDecimator != null) {
+            throw new IllegalArgumentException("Pyramid spectra cannot be built from resampled audio");
+        }
+        super.convertFrame(aIn, aStartLoc, null);
+        mTopPending = 0;
+        mTopDue = true;
+        for (int l = 0; l < mLevels.length; l++) {
+            // A level's frame is the end of the top level's, so it does not follow the level's last frame.
+            mLevels[l].reset();
+            mLevels[l].convertFrame(aIn, levelStart(aIn, aStartLoc, l), null);
+            mLevelPending[l] = 0;
+            mLevelDue[l] = true;
+        }
+    }
+
+    /**
+     * Takes in aHop new samples at the end of the frame. Each level is only converted once it has
+     * received half of its size since it was last converted.
+     * @param aIn Rotating PCM buffer of at least the top level's size.
+     * @param aStartLoc Index of the oldest sample of the top level's frame in aIn.
+     * @param aHop Number of new samples at the end of the frame.
+     */
+    @Override
+    public void convertHop(short[] aIn, int aStartLoc, int aHop) {
+        mTopPending += aHop;
+        if (mTopPending >= mTopSize / 2) {
+            super.convertHop(aIn, aStartLoc, Math.min(mTopPending, mTopSize));
+            mTopPending = 0;
+            mTopDue = true;
+        }
+        for (int l = 0; l < mLevels.length; l++) {
+            SpectrumFrontEnd level = mLevels[l];
+            mLevelPending[l] += aHop;
+            if (mLevelPending[l] >= level.getFrameSize() / 2) {
+                if (mLevelPending[l] < level.getFrameSize()) {
+                    level.convertHop(aIn, levelStart(aIn, aStartLoc, l), mLevelPending[l]);
+                } else {
+                    if (mLevelPending[l] > level.getFrameSize()) {
+                        level.reset();
+                    }
+                    level.convertFrame(aIn, levelStart(aIn, aStartLoc, l), null);
+                }
+                mLevelPending[l] = 0;
+                mLevelDue[l] = true;
+            }
+        }
+    }
+
+    /**
+     * Transforms the levels converted since the last call and updates their part of the composite
+     * spectrum. The other parts are left as they were.
+     * @return The composite spectrum, valid until the next call.
+     */
+    @Override
+    public float[] transform() {
+        if (mTopDue) {
+            float[] top = super.transform();
+            // The top level's bins fill the composite, less whatever the smaller levels provide.
+            int end = mComposite.length;
+            for (int l = 0; l < mLevels.length; l++) {
+                end = Math.min(end, mLevelFrom[l]);
+            }
+            System.arraycopy(top, 0, mComposite, 0, end);
+            mTopDue = false;
+        }
+        for (int l = 0; l < mLevels.length; l++) {
+            if (mLevelDue[l]) {
+                interpolate(l, mLevels[l].transform());
+                mLevelDue[l] = false;
+            }
+        }
+        return mComposite;
+    }
+
+    @Override
+    public float[] getSpectrum() {
+        return mComposite;
+    }
+
+    // Fills the composite bins of level aLevel from its spectrum aSpec.
+    private void interpolate(int aLevel, float[] aSpec) {
+        final int from = mLevelFrom[aLevel];
+        final int to = mLevelTo[aLevel];
+        if (from >= to) {
+            return;
+        }
+        final int ratio = mTopSize / mLevels[aLevel].getFrameSize();
+        final float step = 1.f / ratio;
+        // The power of a tone grows with the square of the frame size, a power of two. Amplitudes are
+        // half the log power.
+        final float gain = 2.f * Integer.numberOfTrailingZeros(ratio);
+        final float half = (mScale == FourierTransform.SCALE_MAGNITUDE) ? .5f : 1.f;
+        final boolean linear = mScale != FourierTransform.SCALE_LOG;
+        final float[] log = mLevelLog[aLevel];
+        // Level bin k is nearest to the composite bins within half a level bin of k * ratio.
+        final int firstK = (from + ratio / 2) / ratio;
+        final int lastK = (to - 1 + ratio / 2) / ratio;
+        final int lo = Math.max(0, firstK - 1);
+        final int hi = Math.min(log.length - 1, lastK + 1);
+        for (int k = lo; k <= hi; k++) {
+            log[k] = (aSpec[k] + gain) * half;
+        }
+        for (int k = firstK; k <= lastK; k++) {
+            float center = log[k];
+            float left = log[Math.max(lo, k - 1)];
+            float right = log[Math.min(hi, k + 1)];
+            float slope = .5f * (right - left);
+            float curve = .5f * (left - 2.f * center + right);
+            int j = Math.max(from, k * ratio - ratio / 2);
+            final int end = Math.min(to, k * ratio + ratio / 2);
+            for (; j < end; j++) {
+                float t = (j - k * ratio) * step;
+                float y = center + t * (slope + t * curve);
+                mComposite[j] = linear ? FastLog.exp2(y) : y;
+            }
+        }
+    }
+
+    // Index in aIn of the oldest sample of level aLevel's frame, the newest samples of the top level's frame.
+    private int levelStart(short[] aIn, int aStartLoc, int aLevel) {
+        return (aStartLoc + mTopSize - mLevels[aLevel].getFrameSize()) % aIn.length;
+    }
+}
@@ -0,0 +1,23 @@
+/*
+ * Copyright Applied Analog (c) 2015/2016
+ *
+ * This code is free for use in any non-commercial software. It carries
+ * no restrictions in such software.
+ */
+
+package com.appliedanalog.rcspeedo.doppler;
+
+/**
+ * Receives the speeds detected by AudioDoppler.process().
+ */
+public interface SpeedSink {
+    /**
+     * Called for every speed detected, in the frame it was detected in.
+     * @param aSpeed Speed in m/s.
+     * @param aWeight Weight of the speed, see AudioDoppler.getSpeedWeight().
+     * @param aFromFreq Frequency of the source while approaching, in Hz.
+     * @param aToFreq Frequency of the source while receding, in Hz.
+     * @param aFrame Index of the frame the speed was detected in.
+     */
+    public void speedDetected(double aSpeed, double aWeight, float aFromFreq, float aToFreq, int aFrame);
+}
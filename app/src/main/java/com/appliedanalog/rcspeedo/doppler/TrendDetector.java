@@ -0,0 +1,699 @@
+/*
+ * Copyright Applied Analog (c) 2015/2016
+ *
+ * This code is free for use in any non-commercial software. It carries
+ * no restrictions in such software.
+ */
+
+package com.appliedanalog.rcspeedo.doppler;
+
+/**
+ * The detection passes of AudioDoppler for one configuration: peaks are found in each spectrum,
+ * followed from frame to frame as trends, and a speed is calculated when a trend that went missing
+ * re-appears shifted down in frequency.
+ *
+ * A TrendDetector only depends on the spectra it is given, so several can track the same spectrum
+ * independently, each with its own configuration.
+ */
+public class TrendDetector {
+    AudioDopplerConfiguration mConfig;
+    AudioDopplerPlan mPlan; //per-bin lookup tables compiled from mConfig.
+    final int mSamplingFreq;
+
+    // State of the frame being tracked, see track().
+    int mFrameCount;
+    double mTemperature;
+    TrendTracer mTracer;
+
+    // First pass properties - For finding frequency amplitude peaks.
+    // By the nature of peaks, there cannot be more than one peak for every mConfig.getPeakWidth() * 2 data values, and the frequency distribution is inherently less than the spectrum size / 2
+    int[] mPeaks;
+    // Sub-bin position of each peak relative to its bin in mPeaks.
+    float[] mPeakOffsets;
+    int mNumPeaks = 0;
+    NoiseFloorTracker mNoiseFloor; //created once the configuration asks for a minimum peak SNR.
+    HarmonicGrouper mGrouper; //created once the configuration asks for harmonic grouping.
+
+    // Second pass properties - Finding trends in the peaked frequencies.
+    // Frames a wounded trend survives at BASE_SAMPLES_PER_FRAME new samples per frame.
+    final int WOUNDED_LIFE_EXPECTANCY = 3;
+    int mWoundedLife; //WOUNDED_LIFE_EXPECTANCY scaled to the samples per frame of the configuration.
+    TrendTable mTrends = null;
+    MissingTrendList mWoundedTrends; //this is a list of trends that retains a short lifespan before 'graduating' to a full on missing trend.
+    MissingTrendList mMissingTrends;
+    MissingTrendPool mMissingTrendPool; //wounded and missing trends are recycled through here so the detection loop does not allocate.
+    int mNumLost = 0; //certified trends that went from wounded to missing this frame.
+    KalmanTracker mKalman; //created once the configuration asks for the Kalman tracker, which replaces the second and third pass.
+    HoughChirpDetector mHough; //likewise for the Hough tracker.
+
+    // Third pass properties - Finding speeds from trends that exhibit a doppler shift.
+    double[] mCalculatedSpeeds;
+    //this is the source frequency from which the above speeds were calculated. it is used to scale the calculated speed to favor speeds
+    //derived from higher frequencies.
+    int[] mCalculatedSpeedsSource;
+    //the frequencies of the trends on either side of the shift.
+    float[] mCalculatedSpeedsFrom;
+    float[] mCalculatedSpeedsTo;
+    //the provisional speed each of the above speeds confirms, or 0 if none was published for it.
+    int[] mCalculatedSpeedsProvisional;
+    int mNumSpeeds = 0;
+
+    // Provisional speeds - published for a missing trend as soon as it finds an interest below it, and
+    // refined as the interest moves and accrues counts, until a speed is found or the trend is dropped.
+    int mNextProvisionalId = 1;
+    int[] mProvisionalIds;
+    double[] mProvisionalSpeeds;
+    double[] mProvisionalConfidences;
+    int[] mProvisionalSource;
+    float[] mProvisionalFrom;
+    float[] mProvisionalTo;
+    int mNumProvisional = 0;
+    //provisional speeds that were dropped this frame without a speed.
+    int[] mRetractedIds;
+    int mNumRetracted = 0;
+
+    final TrendStatistics mStatistics = new TrendStatistics();
+
+    /**
+     * Constructs a TrendDetector.
+     * @param aConfig
+     * @param aSamplingFreq Sampling rate of the audio the spectra are computed from, in Hz.
+     */
+    public TrendDetector(AudioDopplerConfiguration aConfig, int aSamplingFreq) {
+        mSamplingFreq = aSamplingFreq;
+        mConfig = aConfig;
+        mPlan = aConfig.compile(aSamplingFreq);
+        mWoundedLife = woundedLife(aConfig);
+        initArrays();
+    }
+
+    /**
+     * Switches to another configuration. If the spectrum size is unchanged, trends and passes in
+     * progress carry over to the new configuration. Otherwise they are forgotten like in reset().
+     * @param aConfig
+     */
+    public void setConfiguration(AudioDopplerConfiguration aConfig) {
+        boolean resize = aConfig.getSpectrumSize() != mConfig.getSpectrumSize();
+        mConfig = aConfig;
+        mPlan = aConfig.compile(mSamplingFreq);
+        mWoundedLife = woundedLife(aConfig);
+        if (resize) {
+            initArrays();
+        }
+    }
+
+    public AudioDopplerConfiguration getConfiguration() {
+        return mConfig;
+    }
+
+    /**
+     * Runs the peak, trend and speed passes over the spectrum of a frame.
+     * @param aSpec Spectrum of mConfig.getSpectrumSize() points, in the scale mConfig.getSpectrumScale().
+     * @param aFrame Index of the frame.
+     * @param aTemperature Air temperature in Centigrade.
+     * @param aTracer Receives trend events, or null.
+     */
+    public void track(float[] aSpec, int aFrame, double aTemperature, TrendTracer aTracer) {
+        mFrameCount = aFrame;
+        mTemperature = aTemperature;
+        mTracer = aTracer;
+        mNumLost = 0;
+        mNumProvisional = 0;
+        mNumRetracted = 0;
+        findPeaks(aSpec);
+        if (mConfig.getTracker() == AudioDopplerConfiguration.TRACKER_KALMAN) {
+            trackKalman();
+        } else if (mConfig.getTracker() == AudioDopplerConfiguration.TRACKER_HOUGH) {
+            trackHough();
+        } else {
+            updateTrends(aSpec, mNumPeaks);
+            calculateSpeeds();
+        }
+        mStatistics.mFrames++;
+        mStatistics.mPeaks += mNumPeaks;
+        mStatistics.mSpeeds += mNumSpeeds;
+    }
+
+    /**
+     * Forgets all trends and tracks, passes in progress, the noise floor and harmonic groups, as if no spectrum
+     * had been tracked yet. Provisional speeds still published are dropped without being retracted.
+     * The statistics are kept.
+     */
+    public void reset() {
+        while (mWoundedTrends.size() > 0) {
+            mMissingTrendPool.recycle(mWoundedTrends.removeAt(0));
+        }
+        while (mMissingTrends.size() > 0) {
+            mMissingTrendPool.recycle(mMissingTrends.removeAt(0));
+        }
+        for (int x = mTrends.nextLive(0); x >= 0; x = mTrends.nextLive(x + 1)) {
+            mTrends.reset(x);
+        }
+        mNumPeaks = 0;
+        mNumSpeeds = 0;
+        mNumProvisional = 0;
+        mNumRetracted = 0;
+        mNumLost = 0;
+        if (mNoiseFloor != null) {
+            mNoiseFloor.reset();
+        }
+        if (mGrouper != null) {
+            mGrouper.reset();
+        }
+        if (mKalman != null) {
+            mKalman.reset();
+        }
+        if (mHough != null) {
+            mHough.reset();
+        }
+    }
+
+    /**
+     * Fetch the number of certified trends that went missing in the last frame, or with the Kalman
+     * tracker the number of stable tracks that started to sweep down, or with the Hough tracker the
+     * number of certified lines that ended. Each may be about to re-appear doppler shifted.
+     * @return
+     */
+    public int numLostTrends() {
+        return mNumLost;
+    }
+
+    /**
+     * Statistics of everything tracked so far. They are updated by track() and must be read on the
+     * thread that calls it.
+     * @return
+     */
+    public TrendStatistics getStatistics() {
+        return mStatistics;
+    }
+
+    /**
+     * Fetch the number of speeds detected in the last frame.
+     * @return
+     */
+    public int numSpeeds() {
+        return mNumSpeeds;
+    }
+
+    /**
+     * Fetch a speed detected in the last frame.
+     * @param aIndex
+     * @return Speed in m/s.
+     */
+    public double getSpeed(int aIndex) {
+        return mCalculatedSpeeds[aIndex];
+    }
+
+    /**
+     * Fetch the weight of a speed detected in the last frame, see AudioDoppler.getSpeedWeight().
+     * @param aIndex
+     * @return
+     */
+    public double getSpeedWeight(int aIndex) {
+        return mPlan.speedWeight(mCalculatedSpeedsSource[aIndex]);
+    }
+
+    /**
+     * Fetch the frequency, in Hz, the source of a speed had while approaching.
+     * @param aIndex
+     * @return
+     */
+    public float getSpeedFromFreq(int aIndex) {
+        return mCalculatedSpeedsFrom[aIndex];
+    }
+
+    /**
+     * Fetch the frequency, in Hz, the source of a speed had while receding.
+     * @param aIndex
+     * @return
+     */
+    public float getSpeedToFreq(int aIndex) {
+        return mCalculatedSpeedsTo[aIndex];
+    }
+
+    /**
+     * Fetch the id of the provisional speed a speed detected in the last frame confirms.
+     * @param aIndex
+     * @return The id, or 0 if no provisional speed was published for the pass.
+     */
+    public int getSpeedProvisionalId(int aIndex) {
+        return mCalculatedSpeedsProvisional[aIndex];
+    }
+
+    /**
+     * Fetch the number of provisional speeds published or refined in the last frame. Provisional
+     * speeds are only published by the trend passes, see AudioDopplerConfiguration.setTracker().
+     * @return
+     */
+    public int numProvisionalSpeeds() {
+        return mNumProvisional;
+    }
+
+    /**
+     * Fetch the id of a provisional speed published or refined in the last frame. Ids are unique to
+     * the pass the speed is provisional for, and are only reused after some four billion passes.
+     * @param aIndex
+     * @return
+     */
+    public int getProvisionalId(int aIndex) {
+        return mProvisionalIds[aIndex];
+    }
+
+    /**
+     * Fetch a provisional speed published or refined in the last frame.
+     * @param aIndex
+     * @return Speed in m/s.
+     */
+    public double getProvisionalSpeed(int aIndex) {
+        return mProvisionalSpeeds[aIndex];
+    }
+
+    /**
+     * Fetch the confidence in a provisional speed published or refined in the last frame: the share
+     * of the getMinTillAccept() frames the trend below the missing trend has lasted, from 0 to 1.
+     * @param aIndex
+     * @return
+     */
+    public double getProvisionalConfidence(int aIndex) {
+        return mProvisionalConfidences[aIndex];
+    }
+
+    /**
+     * Fetch the weight of a provisional speed published or refined in the last frame, see getSpeedWeight().
+     * @param aIndex
+     * @return
+     */
+    public double getProvisionalWeight(int aIndex) {
+        return mPlan.speedWeight(mProvisionalSource[aIndex]);
+    }
+
+    /**
+     * Fetch the frequency, in Hz, the source of a provisional speed had while approaching.
+     * @param aIndex
+     * @return
+     */
+    public float getProvisionalFromFreq(int aIndex) {
+        return mProvisionalFrom[aIndex];
+    }
+
+    /**
+     * Fetch the frequency, in Hz, the source of a provisional speed is suspected to have while receding.
+     * @param aIndex
+     * @return
+     */
+    public float getProvisionalToFreq(int aIndex) {
+        return mProvisionalTo[aIndex];
+    }
+
+    /**
+     * Fetch the number of provisional speeds retracted in the last frame, because their trend was
+     * dropped or re-appeared without a doppler shift.
+     * @return
+     */
+    public int numRetractedSpeeds() {
+        return mNumRetracted;
+    }
+
+    /**
+     * Fetch the id of a provisional speed retracted in the last frame.
+     * @param aIndex
+     * @return
+     */
+    public int getRetractedId(int aIndex) {
+        return mRetractedIds[aIndex];
+    }
+
+    private double getSpeed(double aFreq1, double aFreq2, double aTemperature, double aHumidity) {
+        double sos = (331 + .606 * aTemperature); //current mTemperature is in Centigrade, this returns m/s
+        return aFreq1 / ((aFreq1 + aFreq2) / 2) * sos - sos;
+    }
+
+    // The frames a wounded trend survives under aConfig, so that it survives as long in time.
+    private int woundedLife(AudioDopplerConfiguration aConfig) {
+        return Math.max(1, Math.round(WOUNDED_LIFE_EXPECTANCY * (float) AudioDopplerConfiguration.BASE_SAMPLES_PER_FRAME
+                / aConfig.getSamplesPerFrame()));
+    }
+
+    private void initArrays() {
+        mPeaks = new int[mConfig.getSpectrumSize() / 4];
+        mPeakOffsets = new float[mPeaks.length];
+        mGrouper = null;
+        mKalman = null;
+        mHough = null;
+        mTrends = new TrendTable(mConfig.getSpectrumSize() / 2);
+        int maxFamily = 0;
+        for (int f : mPlan.getDivisionFamily()) {
+            maxFamily = Math.max(maxFamily, f);
+        }
+        //wounded trends are looked up by bin when peaks revive them, so they are indexed on a family sized grid.
+        mWoundedTrends = new MissingTrendList(mTrends.size(), mTrends.size(), maxFamily);
+        mMissingTrends = new MissingTrendList(mTrends.size());
+        mMissingTrendPool = new MissingTrendPool(2 * mTrends.size());
+        mCalculatedSpeeds = new double[mConfig.getSpectrumSize() / 4];
+        mCalculatedSpeedsSource = new int[mConfig.getSpectrumSize() / 4];
+        mCalculatedSpeedsFrom = new float[mConfig.getSpectrumSize() / 4];
+        mCalculatedSpeedsTo = new float[mConfig.getSpectrumSize() / 4];
+        mCalculatedSpeedsProvisional = new int[mConfig.getSpectrumSize() / 4];
+        mNumSpeeds = 0;
+        //every missing trend publishes or retracts at most one provisional speed a frame.
+        mProvisionalIds = new int[mTrends.size()];
+        mProvisionalSpeeds = new double[mTrends.size()];
+        mProvisionalConfidences = new double[mTrends.size()];
+        mProvisionalSource = new int[mTrends.size()];
+        mProvisionalFrom = new float[mTrends.size()];
+        mProvisionalTo = new float[mTrends.size()];
+        mRetractedIds = new int[mTrends.size()];
+        mNumProvisional = 0;
+        mNumRetracted = 0;
+    }
+
+    private void findPeaks(float[] aSpec) {
+        final int[] runStart = mPlan.getPeakRunStart();
+        final int[] runWidth = mPlan.getPeakRunWidth();
+        mNumPeaks = PeakDetector.findPeaks(aSpec, runStart, runWidth, mPeaks);
+        final float snr = mConfig.getMinPeakSnr();
+        if (snr > 0.f && runWidth.length > 0) {
+            if (mNoiseFloor == null || !mNoiseFloor.matches(aSpec.length, mConfig.getSpectrumScale())) {
+                mNoiseFloor = new NoiseFloorTracker(aSpec.length, mConfig.getSpectrumScale());
+            }
+            //the floor is needed up to a peak width beyond the peaks on either side.
+            mNoiseFloor.update(aSpec, runStart[0] - runWidth[0], runStart[runWidth.length] + runWidth[runWidth.length - 1] + 1);
+            mNumPeaks = mNoiseFloor.prune(aSpec, runStart, runWidth, mPeaks, mNumPeaks, snr);
+        }
+        PeakDetector.interpolate(aSpec, mConfig.getSpectrumScale(), mPeaks, mNumPeaks, mPeakOffsets);
+        if (mConfig.isHarmonicGrouping()) {
+            if (mGrouper == null) {
+                mGrouper = new HarmonicGrouper(mPeaks.length, mConfig.getMaxDopplerWindow());
+            }
+            mNumPeaks = mGrouper.group(mPeaks, mPeakOffsets, mNumPeaks, mPlan);
+        }
+    }
+
+    private void trackKalman() {
+        if (mKalman == null) {
+            mKalman = new KalmanTracker(mPeaks.length);
+        }
+        final KalmanTracker kalman = mKalman;
+        kalman.track(mPeaks, mPeakOffsets, mNumPeaks, mPlan, mFrameCount, mStatistics, mTracer);
+        mNumLost = kalman.numSweeps();
+        mNumSpeeds = 0;
+        for (int s = 0; s < kalman.numShifts(); s++) {
+            shiftFound(mPlan.fuzzyFreq(kalman.getShiftFrom(s)), mPlan.fuzzyFreq(kalman.getShiftTo(s)),
+                    (int) kalman.getShiftFrom(s), (int) kalman.getShiftTo(s));
+        }
+    }
+
+    private void trackHough() {
+        if (mHough == null) {
+            mHough = new HoughChirpDetector(mPeaks.length);
+        }
+        final HoughChirpDetector hough = mHough;
+        hough.track(mPeaks, mPeakOffsets, mNumPeaks, mConfig, mPlan, mFrameCount, mTemperature, mStatistics, mTracer);
+        mNumLost = hough.numSweeps();
+        mNumSpeeds = 0;
+        //the detector works in Hz, the trace is in bins.
+        final double binWidth = (double) mSamplingFreq / mConfig.getSpectrumSize();
+        for (int s = 0; s < hough.numShifts(); s++) {
+            shiftFound(hough.getShiftFrom(s), hough.getShiftTo(s),
+                    (int) (hough.getShiftFrom(s) / binWidth), (int) (hough.getShiftTo(s) / binWidth));
+        }
+    }
+
+    // Records a shift found by the Kalman or Hough tracker as a speed, if it is in range.
+    private void shiftFound(double aFrom, double aTo, int aFromBin, int aToBin) {
+        double nspeed = getSpeed(aFrom, aTo, mTemperature, 0.);
+        mStatistics.shiftFound(aFrom / aTo);
+        if (nspeed > mConfig.getMinSpeed() && nspeed < mConfig.getMaxSpeed()) {
+            mCalculatedSpeeds[mNumSpeeds] = nspeed;
+            mCalculatedSpeedsSource[mNumSpeeds] = (int) ((aFrom + aTo) / 2.);
+            mCalculatedSpeedsFrom[mNumSpeeds] = (float) aFrom;
+            mCalculatedSpeedsTo[mNumSpeeds] = (float) aTo;
+            mCalculatedSpeedsProvisional[mNumSpeeds] = 0;
+            mNumSpeeds++;
+        }
+        if (mTracer != null) {
+            mTracer.record(mFrameCount, TrendTracer.EVENT_SPEED, aFromBin, aToBin, (float) nspeed);
+        }
+    }
+
+    private void updateTrends(float[] aSpec, int aNumPeaks) {
+        final TrendTracer tracer = mTracer;
+        //clean out the mMissingTrends array
+        for (int x = 0; x < mMissingTrends.size(); x++) {
+            mMissingTrends.get(x).count--;
+            if (mMissingTrends.get(x).count <= 0) {
+                retract(mMissingTrends.get(x));
+                mMissingTrendPool.recycle(mMissingTrends.removeAt(x));
+                x--;
+            }
+        }
+
+        //clear out any wounded trends that have truly died
+        for (int x = 0; x < mWoundedTrends.size(); x++) {
+            MissingTrend mt = mWoundedTrends.get(x);
+            if (mt.count <= 0) {
+                mStatistics.trendEnded(mt.oldCount);
+                if (mt.oldCount >= mConfig.getMinTrendCountUntilCertified()) {
+                    mNumLost++;
+                    if (tracer != null) {
+                        tracer.record(mFrameCount, TrendTracer.EVENT_LOST, mt.origIndex - mPlan.getFamilyAt()[mt.origIndex],
+                                mt.oldCount, (float) mPlan.fuzzyFreq(mt.index));
+                    }
+                    mt.count = mConfig.getMaxDopplerWindow();
+                    if (!mMissingTrends.add(mt)) {
+                        mMissingTrendPool.recycle(mt);
+                    }
+                } else {
+                    mMissingTrendPool.recycle(mt);
+                }
+                mWoundedTrends.removeAt(x);
+                x--;
+            } else {
+                mt.count--;
+            }
+        }
+
+        //this variable points to the current 'peak' being referenced
+        int c_peak_ptr = 0;
+        //every trend starts the frame 'untouched'
+        mTrends.clearAllTouched();
+        //Conceptually x sweeps across the whole spectrum: the trend a family behind x is checked as it leaves x's
+        //family, and peaks are applied as x reaches them. Checking a dead trend does nothing, so instead of visiting
+        //every x the sweep jumps straight to the next live trend or peak. The family is constant within a division,
+        //so the sweep is done a division at a time.
+        final int size = mTrends.size();
+        final int[] divisionStart = mPlan.getDivisionStart();
+        for (int div = 0; div < mConfig.getDivisions(); div++) {
+            final int family = mPlan.getDivisionFamily()[div];
+            int x = divisionStart[div];
+            final int divEnd = divisionStart[div + 1];
+            while (x < divEnd) {
+                int tsel = mTrends.nextLive(Math.max(0, x - family));
+                int checkX = (tsel < 0) ? divEnd : tsel + family;
+                int peakX = (c_peak_ptr < aNumPeaks) ? mPeaks[c_peak_ptr] : divEnd;
+                x = Math.min(checkX, peakX);
+                if (x >= divEnd) {
+                    break;
+                }
+                //did the guy that just left the current family stay untouched?
+                if (x == checkX && !mTrends.isTouched(tsel)) {
+                    //does the trend have enough count to be certified and saved as 'wounded'?
+                    if (mTrends.getCount(tsel) >= (mConfig.getMinTrendCountUntilCertified() / 2)) {
+                        MissingTrend mt = mMissingTrendPool.obtain(mTrends, tsel, mWoundedLife);
+                        if (!mWoundedTrends.add(mt)) {
+                            mMissingTrendPool.recycle(mt);
+                        }
+                    } else {
+                        mStatistics.trendEnded(mTrends.getCount(tsel));
+                    }
+                    //reset the index
+                    mTrends.reset(tsel);
+                }
+                //is the current pointer also a peak pointer?
+                if (x == peakX) {
+                    //see if there is a wounded trend we can revive
+                    MissingTrend mt = mWoundedTrends.findNear(x, family);
+                    if (mt != null) {
+                        //revive the trend
+                        mTrends.setCount(mt.origIndex, mConfig.getMinTrendCountUntilCertified() + mWoundedLife - mt.count);
+                        mWoundedTrends.remove(mt);
+
+                        //also, remove any trending info building up elsewhere in the family due to this guy's absense
+                        for (int f = 1; f < family; f++) {
+                            mTrends.reset(mt.origIndex + f);
+                            mTrends.reset(mt.origIndex - f);
+                        }
+                        mMissingTrendPool.recycle(mt);
+                    }
+
+                    //find the highest trend within the immediate family
+                    int highest_trend = mTrends.getCount(x);
+                    int highest_trend_index = x;
+                    for (int f = 0; f < family; f++) {
+                        if (x - f >= 0 && mTrends.getCount(x - f) > highest_trend) {
+                            highest_trend_index = x - f;
+                            highest_trend = mTrends.getCount(highest_trend_index);
+                        }
+                        if (x + f < size && mTrends.getCount(x + f) > highest_trend) {
+                            highest_trend_index = x + f;
+                            highest_trend = mTrends.getCount(highest_trend_index);
+                        }
+                    }
+                    //ignore it if there are two trends in one family.
+                    if (mTrends.isTouched(highest_trend_index)) {
+                        if (tracer != null) {
+                            tracer.record(mFrameCount, TrendTracer.EVENT_MERGED, highest_trend_index,
+                                    mTrends.getCount(highest_trend_index), (float) mPlan.fuzzyFreq(x + mPeakOffsets[c_peak_ptr]));
+                        }
+                        //the peak pointer has always been left on the merged peak, so the rest of this frame's peaks
+                        //are never applied.
+                        c_peak_ptr = aNumPeaks;
+                    } else {
+                        //apply this new trend to the family member and mark it as touched
+                        //the mark is the interpolated peak position rather than its bin, so trends carry sub-bin frequencies.
+                        mTrends.mark(highest_trend_index, x + mPeakOffsets[c_peak_ptr], aSpec[highest_trend_index]);
+
+                        if (tracer != null && mTrends.getCount(highest_trend_index) == mConfig.getMinTrendCountUntilCertified()) {
+                            tracer.record(mFrameCount, TrendTracer.EVENT_PEAKED, highest_trend_index,
+                                    mTrends.getCount(highest_trend_index), (float) mPlan.fuzzyFreq(mTrends.getIndex(highest_trend_index)));
+                        }
+
+                        //increment the peak pointer
+                        c_peak_ptr++;
+                    }
+                }
+                x++;
+            }
+        }
+    }
+
+    final int MAX_MISSING_FREQS_ACCEPTED = 3;
+
+    private void calculateSpeeds() {
+        mNumSpeeds = 0;
+        final double temperature = mTemperature;
+        final TrendTracer tracer = mTracer;
+        //for each missing trend, we need to find new "interests", or see if the current
+        //"interest" is accruing trend counts.
+        for (int x = 0; x < mMissingTrends.size(); x++) {
+            MissingTrend trend = mMissingTrends.get(x);
+            if (trend.timeSinceLastInterest >= MAX_MISSING_FREQS_ACCEPTED) {
+                if (tracer != null) {
+                    tracer.record(mFrameCount, TrendTracer.EVENT_DIED, trend.origIndex, trend.oldCount, (float) mPlan.fuzzyFreq(trend.index));
+                }
+                retract(trend);
+                mMissingTrendPool.recycle(mMissingTrends.removeAt(x));
+                x--;
+                continue;
+            }
+
+            //find the latest closest frequency that is trending
+            boolean removed = false;
+            int i_limit = trend.currentInterest - mPlan.getFreqSeparationAt()[trend.currentInterest];
+            if (i_limit < 0) i_limit = 0;
+            for (int i = mTrends.previousLive(trend.currentInterest, i_limit); i >= i_limit; i = mTrends.previousLive(i - 1, i_limit)) {
+                //found a trending frequency nearby! is it in the family?
+                if (trend.origIndex - i < mPlan.getFamilyAt()[i]) {
+                    //well it appears that this trend has re-appeared, take it out of the missing list and add the counts together
+                    mTrends.setCount(trend.origIndex, trend.oldCount + mTrends.getCount(i));
+                    mTrends.setCount(i, 0);
+                    retract(trend);
+                    mMissingTrendPool.recycle(mMissingTrends.removeAt(x));
+                    x--;
+                    removed = true;
+                    break;
+                }
+                //well then, is it going to GO THE DISTANCE?
+                if (trend.currentInterest == i && mTrends.getCount(i) > mConfig.getMinTillAccept()
+                        && !holdSweep(trend, i, temperature)) {
+                    //well then we found us a speed!
+                    double from = mPlan.fuzzyFreq(trend.index);
+                    double to = mPlan.fuzzyFreq(mTrends.getIndex(i));
+                    double nspeed = getSpeed(from, to, temperature, 0.);
+                    mStatistics.shiftFound(from / to);
+                    if (nspeed > mConfig.getMinSpeed() && nspeed < mConfig.getMaxSpeed()) {
+                        mCalculatedSpeeds[mNumSpeeds] = nspeed;
+                        mCalculatedSpeedsSource[mNumSpeeds] = (int) ((from + to) / 2.);
+                        mCalculatedSpeedsFrom[mNumSpeeds] = (float) from;
+                        mCalculatedSpeedsTo[mNumSpeeds] = (float) to;
+                        mCalculatedSpeedsProvisional[mNumSpeeds] = trend.provisionalId;
+                        mNumSpeeds++;
+                    } else {
+                        retract(trend);
+                    }
+                    //don't need this missing trend anymore
+                    if (tracer != null) {
+                        tracer.record(mFrameCount, TrendTracer.EVENT_SPEED, trend.origIndex, i, (float) nspeed);
+                    }
+                    mMissingTrendPool.recycle(mMissingTrends.removeAt(x));
+                    x--;
+                    removed = true;
+                    break;
+                }
+                if (trend.currentInterest == i) {
+                    //the trend is persisting still
+                    trend.timeSinceLastInterest = -1;
+                    trend.sig = mTrends.getSig(i);
+                } else {
+                    trend.currentInterest = i;
+                    trend.sig = mTrends.getSig(i);
+                    trend.timeSinceLastInterest = -1;
+                    break;
+                }
+            }
+            if (!removed && trend.timeSinceLastInterest < 0 && !trend.swept) {
+                publish(trend, temperature);
+            }
+            trend.timeSinceLastInterest++;
+        }
+    }
+
+    // Whether the interest aBin of a missing trend is still too close to the trend for a speed the
+    // configuration accepts. A slow sweep can hold a bin for getMinTillAccept() frames on its way down,
+    // most of all with small frames; the tone after the pass is further along. Such a trend keeps
+    // dwelling in the bins of the sweep, so it reports its final speed only, not provisional ones.
+    private boolean holdSweep(MissingTrend aTrend, int aBin, double aTemperature) {
+        double from = mPlan.fuzzyFreq(aTrend.index);
+        double to = mPlan.fuzzyFreq(mTrends.getIndex(aBin));
+        if (getSpeed(from, to, aTemperature, 0.) > mConfig.getMinSpeed()) {
+            return false;
+        }
+        retract(aTrend);
+        aTrend.swept = true;
+        return true;
+    }
+
+    // Publishes or refines the provisional speed of a missing trend whose interest is trending this
+    // frame, or retracts it if the interest gives a speed the configuration does not accept.
+    private void publish(MissingTrend aTrend, double aTemperature) {
+        double from = mPlan.fuzzyFreq(aTrend.index);
+        double to = mPlan.fuzzyFreq(mTrends.getIndex(aTrend.currentInterest));
+        double nspeed = getSpeed(from, to, aTemperature, 0.);
+        if (nspeed <= mConfig.getMinSpeed() || nspeed >= mConfig.getMaxSpeed()) {
+            retract(aTrend);
+            return;
+        }
+        if (aTrend.provisionalId == 0) {
+            aTrend.provisionalId = mNextProvisionalId++;
+            if (mNextProvisionalId == 0) {
+                mNextProvisionalId = 1;
+            }
+        }
+        mProvisionalIds[mNumProvisional] = aTrend.provisionalId;
+        mProvisionalSpeeds[mNumProvisional] = nspeed;
+        mProvisionalConfidences[mNumProvisional] = Math.min(1., (double) mTrends.getCount(aTrend.currentInterest) / (mConfig.getMinTillAccept() + 1));
+        mProvisionalSource[mNumProvisional] = (int) ((from + to) / 2.);
+        mProvisionalFrom[mNumProvisional] = (float) from;
+        mProvisionalTo[mNumProvisional] = (float) to;
+        mNumProvisional++;
+    }
+
+    // Retracts the provisional speed of a missing trend, if one was published.
+    private void retract(MissingTrend aTrend) {
+        if (aTrend.provisionalId != 0) {
+            mRetractedIds[mNumRetracted++] = aTrend.provisionalId;
+            aTrend.provisionalId = 0;
+        }
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,126 @@
+/*
+ * Copyright Applied Analog (c) 2015/2016
+ *
+ * This code is free for use in any non-commercial software. It carries
+ * no restrictions in such software.
+ */
+
+package com.appliedanalog.rcspeedo.doppler;
+
+/**
+ * Running counts of what a TrendDetector sees while tracking, from which the character of the signal
+ * can be judged without looking at the spectra again. The counts only ever grow; callers that want
+ * the statistics of a stretch of frames take the difference between two snapshots, see copyFrom().
+ *
+ * Updating the counts costs a few increments per frame and per ended trend.
+ */
+public class TrendStatistics {
+    /**
+     * Trends that ended with fewer frames than this are considered noise and are not counted.
+     */
+    public static final int MIN_COUNTED_LIFETIME = 5;
+    /**
+     * Trends that ended with at least this many frames are counted as long lived, the others as short
+     * lived. This is the certification count of the default configuration.
+     */
+    public static final int LONG_LIFETIME = 15;
+    /**
+     * Doppler shifts whose approaching to receding frequency ratio is at least this are counted as
+     * fast. This is the shift of a source passing at about 95m/s, a little under the minimum speed of
+     * AudioDopplerConfiguration.CFG_200_PLUS.
+     */
+    public static final double FAST_SHIFT_RATIO = 1.75;
+
+    long mFrames;
+    long mPeaks;
+    long mShortTrends;
+    long mLongTrends;
+    long mShifts;
+    long mFastShifts;
+    long mSpeeds;
+
+    /**
+     * Sets these statistics to a copy of aOther.
+     * @param aOther
+     */
+    public void copyFrom(TrendStatistics aOther) {
+        mFrames = aOther.mFrames;
+        mPeaks = aOther.mPeaks;
+        mShortTrends = aOther.mShortTrends;
+        mLongTrends = aOther.mLongTrends;
+        mShifts = aOther.mShifts;
+        mFastShifts = aOther.mFastShifts;
+        mSpeeds = aOther.mSpeeds;
+    }
+
+    /**
+     * Number of frames tracked.
+     * @return
+     */
+    public long getFrames() {
+        return mFrames;
+    }
+
+    /**
+     * Number of spectral peaks found over all frames.
+     * @return
+     */
+    public long getPeaks() {
+        return mPeaks;
+    }
+
+    /**
+     * Number of trends that ended after at least MIN_COUNTED_LIFETIME but fewer than LONG_LIFETIME frames.
+     * @return
+     */
+    public long getShortTrends() {
+        return mShortTrends;
+    }
+
+    /**
+     * Number of trends that ended after at least LONG_LIFETIME frames.
+     * @return
+     */
+    public long getLongTrends() {
+        return mLongTrends;
+    }
+
+    /**
+     * Number of doppler shifts found, including those whose speed the configuration rejected.
+     * @return
+     */
+    public long getShifts() {
+        return mShifts;
+    }
+
+    /**
+     * Number of doppler shifts found with a frequency ratio of at least FAST_SHIFT_RATIO.
+     * @return
+     */
+    public long getFastShifts() {
+        return mFastShifts;
+    }
+
+    /**
+     * Number of speeds calculated and accepted by the configuration.
+     * @return
+     */
+    public long getSpeeds() {
+        return mSpeeds;
+    }
+
+    void trendEnded(int aLifetime) {
+        if (aLifetime >= LONG_LIFETIME) {
+            mLongTrends++;
+        } else if (aLifetime >= MIN_COUNTED_LIFETIME) {
+            mShortTrends++;
+        }
+    }
+
+    void shiftFound(double aRatio) {
+        mShifts++;
+        if (aRatio >= FAST_SHIFT_RATIO) {
+            mFastShifts++;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright Applied Analog (c) 2015/2016
+ *
+ * This code is free for use in any non-commercial software. It carries
+ * no restrictions in such software.
+ */
+
+package com.appliedanalog.rcspeedo.doppler;
+
+/**
+ * The Trend of every spectrum bin. The table keeps a bitset of the live trends (count > 0) next to
+ * them, so nextLive() and previousLive() can skip over empty stretches of the spectrum 64 bins at a
+ * time.
+ */
+public class TrendTable {
+    private final Trend[] mTrends;
+    private final long[] mLive;
+
+    /**
+     * Constructs a TrendTable with one reset Trend per bin.
+     * @param aSize Number of bins.
+     */
+    public TrendTable(int aSize) {
+        mTrends = new Trend[aSize];
+        mLive = new long[(aSize + 63) >>> 6];
+        for (int x = 0; x < aSize; x++) {
+            mTrends[x] = new Trend();
+            mTrends[x].index = x;
+        }
+    }
+
+    /**
+     * Number of bins in the table.
+     * @return
+     */
+    public int size() {
+        return mTrends.length;
+    }
+
+    /**
+     * The averaged (fractional) FFT index the Trend at aBin is tracking.
+     * @param aBin
+     * @return
+     */
+    public float getIndex(int aBin) {
+        return mTrends[aBin].index;
+    }
+
+    /**
+     * Spectrum value at aBin, in the scale of the spectrum, when its Trend was last marked.
+     * @param aBin
+     * @return
+     */
+    public float getSig(int aBin) {
+        return mTrends[aBin].sig;
+    }
+
+    /**
+     * Number of frames in which the Trend at aBin has been encountered.
+     * @param aBin
+     * @return
+     */
+    public int getCount(int aBin) {
+        return mTrends[aBin].count;
+    }
+
+    public void setCount(int aBin, int aCount) {
+        updateLive(aBin, aCount);
+        mTrends[aBin].count = aCount;
+    }
+
+    /**
+     * Finds the lowest bin at or above aBin holding a live trend (count > 0).
+     * @param aBin
+     * @return The bin, or -1 if there is none.
+     */
+    public int nextLive(int aBin) {
+        if (aBin >= mTrends.length) {
+            return -1;
+        }
+        int w = aBin >>> 6;
+        long word = mLive[w] & (-1L << aBin);
+        while (word == 0) {
+            if (++w == mLive.length) {
+                return -1;
+            }
+            word = mLive[w];
+        }
+        return (w << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    /**
+     * Finds the highest bin in [aLimit, aBin] holding a live trend (count > 0).
+     * @param aBin
+     * @param aLimit
+     * @return The bin, or -1 if there is none.
+     */
+    public int previousLive(int aBin, int aLimit) {
+        if (aBin < aLimit) {
+            return -1;
+        }
+        int w = aBin >>> 6;
+        long word = mLive[w] & (-1L >>> (63 - (aBin & 63)));
+        while (word == 0) {
+            if (--w < (aLimit >>> 6)) {
+                return -1;
+            }
+            word = mLive[w];
+        }
+        int bin = (w << 6) + 63 - Long.numberOfLeadingZeros(word);
+        return bin >= aLimit ? bin : -1;
+    }
+
+    public boolean isTouched(int aBin) {
+        return mTrends[aBin].touched;
+    }
+
+    public void clearTouched(int aBin) {
+        mTrends[aBin].touched = false;
+    }
+
+    /**
+     * Marks every Trend as untouched.
+     */
+    public void clearAllTouched() {
+        for (Trend trend : mTrends) {
+            trend.touched = false;
+        }
+    }
+
+    /**
+     * Adds a peak at the fractional index aIndex to the Trend at aBin, averaging it into the tracked
+     * index and marking the Trend as touched for this frame.
+     * @param aBin
+     * @param aIndex
+     * @param aSig
+     */
+    public void mark(int aBin, float aIndex, float aSig) {
+        Trend trend = mTrends[aBin];
+        updateLive(aBin, trend.count + 1);
+        trend.index = (trend.index * (float) trend.count + aIndex) / (trend.count + 1); //this is the current avg plus the new mark.
+        trend.count++;
+        trend.sig = aSig;
+        trend.touched = true;
+    }
+
+    /**
+     * Resets the count and FFT index of the Trend at aBin.
+     * @param aBin
+     */
+    public void reset(int aBin) {
+        updateLive(aBin, 0);
+        mTrends[aBin].reset(aBin);
+    }
+
+    private void updateLive(int aBin, int aCount) {
+        if (aCount > 0) {
+            mLive[aBin >>> 6] |= 1L << aBin;
+        } else {
+            mLive[aBin >>> 6] &= ~(1L << aBin);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright Applied Analog (c) 2015/2016
+ *
+ * This code is free for use in any non-commercial software. It carries
+ * no restrictions in such software.
+ */
+
+package com.appliedanalog.rcspeedo.doppler;
+
+import java.io.PrintWriter;
+
+/**
+ * Ring buffer of the trend events AudioDoppler encounters while tracking, kept as parallel primitive
+ * arrays so that recording an event never allocates. Once the ring is full the oldest events are
+ * overwritten. AudioDoppler only records events while a tracer is attached, so an AudioDoppler
+ * without one pays a single null check per event.
+ *
+ * Each event holds the frame it happened in, its type, the bin it concerns, a trend count and a
+ * frequency. The meaning of the last three depends on the type, see the EVENT_ constants.
+ */
+public class TrendTracer {
+    /**
+     * A trend reached the count needed to be certified. bin: the trend. count: its count.
+     * value: its frequency in Hz.
+     */
+    public static final int EVENT_PEAKED = 0;
+    /**
+     * A certified trend disappeared and became a missing trend. bin: the start of its family.
+     * count: the count it had. value: its frequency in Hz.
+     */
+    public static final int EVENT_LOST = 1;
+    /**
+     * A peak landed in a family that another peak had already extended this frame. bin: the trend.
+     * count: its count. value: the frequency of the peak in Hz.
+     */
+    public static final int EVENT_MERGED = 2;
+    /**
+     * A missing trend was dropped before a speed was found for it. bin: the trend. count: the
+     * count it had. value: its frequency in Hz.
+     */
+    public static final int EVENT_DIED = 3;
+    /**
+     * A speed was found for a missing trend. bin: the missing trend. count: the bin of the trend it
+     * shifted to. value: the speed in m/s.
+     */
+    public static final int EVENT_SPEED = 4;
+
+    private static final String[] EVENT_NAMES = { "peaked", "lost", "merged", "died", "speed" };
+
+    private final int[] mFrame;
+    private final byte[] mType;
+    private final int[] mBin;
+    private final int[] mCount;
+    private final float[] mValue;
+    private int mNext = 0; //slot the next event is written to.
+    private long mRecorded = 0; //events recorded since the last clear().
+
+    /**
+     * Constructs a TrendTracer.
+     * @param aCapacity Number of events retained.
+     */
+    public TrendTracer(int aCapacity) {
+        mFrame = new int[aCapacity];
+        mType = new byte[aCapacity];
+        mBin = new int[aCapacity];
+        mCount = new int[aCapacity];
+        mValue = new float[aCapacity];
+    }
+
+    /**
+     * Records an event, overwriting the oldest one if the ring is full.
+     * @param aFrame
+     * @param aType One of the EVENT_ constants.
+     * @param aBin
+     * @param aCount
+     * @param aValue
+     */
+    public synchronized void record(int aFrame, int aType, int aBin, int aCount, float aValue) {
+        mFrame[mNext] = aFrame;
+        mType[mNext] = (byte) aType;
+        mBin[mNext] = aBin;
+        mCount[mNext] = aCount;
+        mValue[mNext] = aValue;
+        mNext = (mNext + 1) % mFrame.length;
+        mRecorded++;
+    }
+
+    /**
+     * Number of events currently held, at most the capacity.
+     * @return
+     */
+    public synchronized int size() {
+        return (int) Math.min(mRecorded, mFrame.length);
+    }
+
+    /**
+     * Number of events recorded since the tracer was created or cleared, including those that have
+     * been overwritten.
+     * @return
+     */
+    public synchronized long getRecorded() {
+        return mRecorded;
+    }
+
+    /**
+     * Discards all events.
+     */
+    public synchronized void clear() {
+        mNext = 0;
+        mRecorded = 0;
+    }
+
+    /**
+     * Writes the events held, oldest first, as CSV lines of frame, event, bin, count and value.
+     * @param aOut
+     */
+    public synchronized void export(PrintWriter aOut) {
+        aOut.println("frame,event,bin,count,value");
+        int size = size();
+        int slot = (mNext - size + mFrame.length) % mFrame.length;
+        for (int e = 0; e < size; e++) {
+            aOut.println(mFrame[slot] + "," + EVENT_NAMES[mType[slot]] + "," + mBin[slot] + "," + mCount[slot] + "," + mValue[slot]);
+            slot = (slot + 1) % mFrame.length;
+        }
+        aOut.flush();
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright Applied Analog (c) 2015/2016
+ *
+ * This code is free for use in any non-commercial software. It carries
+ * no restrictions in such software.
+ */
+
+package com.appliedanalog.rcspeedo.doppler;
+
+/**
+ * Band-limited spectrum with finer bin spacing than a plain FFT of the frame. Frames of frameSize
+ * samples are evaluated on the grid of a zoom * frameSize point transform, but only for the bins
+ * between a low and a high band edge; every other bin is left at 0. To the rest of AudioDoppler this
+ * looks exactly like an FFT of size zoom * frameSize (see timeSize()).
+ *
+ * Two algorithms produce the same bins:
+ *  - A chirp-z transform (Bluestein's algorithm), which expresses the band as a convolution computed
+ *    with two power-of-two FFTs whose size depends on frameSize + band bins rather than on the zoom.
+ *  - A zero-padded real FFT of size zoom * frameSize.
+ * The chirp-z transform wins when the band is a small part of the spectrum or the zoom is large;
+ * for wide bands the padded FFT is cheaper. The cheaper of the two is picked at construction.
+ */
+public class ZoomSpectrum extends FourierTransform {
+    private final int mFrameSize;
+    private final int mLowBin;
+    private final int mHighBin;
+    private final boolean mUseChirpZ;
+
+    // Zero-padded FFT path.
+    private FFT mPaddedFft;
+    private float[] mPadded;
+
+    // Chirp-z path. Work buffers of mConvSize points, the input chirp (including the shift to
+    // mLowBin), the transformed convolution kernel and the output chirp.
+    private int mConvSize;
+    private float[] mWorkReal;
+    private float[] mWorkImag;
+    private float[] mInChirpReal;
+    private float[] mInChirpImag;
+    private float[] mKernelReal;
+    private float[] mKernelImag;
+    private float[] mOutChirpReal;
+    private float[] mOutChirpImag;
+
+    /**
+     * Constructs a ZoomSpectrum.
+     * @param aFrameSize Number of samples in each frame. Must be a power of two.
+     * @param aZoom Bin spacing reduction relative to an FFT of aFrameSize. Must be a power of two.
+     * @param aSampleRate Sampling rate of the frames, in Hz.
+     * @param aFreqLow Lower edge of the band to compute, in Hz.
+     * @param aFreqHigh Upper edge of the band to compute, in Hz.
+     */
+    public ZoomSpectrum(int aFrameSize, int aZoom, float aSampleRate, float aFreqLow, float aFreqHigh) {
+        super(aFrameSize * aZoom, aSampleRate);
+        mFrameSize = aFrameSize;
+        mLowBin = freqToIndex(aFreqLow);
+        mHighBin = freqToIndex(aFreqHigh);
+        int bins = mHighBin - mLowBin + 1;
+
+        int convSize = Integer.highestOneBit(aFrameSize + bins - 1);
+        if (convSize < aFrameSize + bins - 1) {
+            convSize <<= 1;
+        }
+        mUseChirpZ = chirpZCost(convSize) < paddedCost(mTimeSize);
+        if (mUseChirpZ) {
+            initChirpZ(convSize, bins);
+        } else {
+            mPaddedFft = new FFT(mTimeSize, aSampleRate);
+            mPadded = new float[mTimeSize];
+        }
+    }
+
+    /**
+     * Whether this spectrum is computed with the chirp-z transform rather than a padded FFT.
+     * @return
+     */
+    public boolean usesChirpZ() {
+        return mUseChirpZ;
+    }
+
+    @Override
+    public void setScale(int aScale) {
+        super.setScale(aScale);
+        if (mPaddedFft != null) {
+            mPaddedFft.setScale(aScale);
+        }
+    }
+
+    /**
+     * Computes the band of the spectrum of the first frameSize samples of aBuffer.
+     * @param aBuffer
+     */
+    @Override
+    public void forward(float[] aBuffer) {
+        if (mUseChirpZ) {
+            forwardChirpZ(aBuffer);
+        } else {
+            System.arraycopy(aBuffer, 0, mPadded, 0, mFrameSize);
+            mPaddedFft.forward(mPadded);
+            System.arraycopy(mPaddedFft.getSpectrum(), mLowBin, mSpectrum, mLowBin, mHighBin - mLowBin + 1);
+        }
+    }
+
+    // X[lo + m] = sum_n x[n] e^(-j2PI(lo + m)n/Z)
+    //           = C[m] * sum_n (x[n] A[n]) B[m - n]
+    // with A[n] = e^(-j2PI lo n/Z) e^(-jPI n^2/Z), B[k] = e^(jPI k^2/Z) and C[m] = e^(-jPI m^2/Z).
+    private void forwardChirpZ(float[] aBuffer) {
+        final float[] re = mWorkReal;
+        final float[] im = mWorkImag;
+        for (int n = 0; n < mFrameSize; n++) {
+            re[n] = aBuffer[n] * mInChirpReal[n];
+            im[n] = aBuffer[n] * mInChirpImag[n];
+        }
+        for (int n = mFrameSize; n < mConvSize; n++) {
+            re[n] = 0.f;
+            im[n] = 0.f;
+        }
+        FFT.complexTransform(re, im, false);
+        for (int k = 0; k < mConvSize; k++) {
+            float r = re[k] * mKernelReal[k] - im[k] * mKernelImag[k];
+            im[k] = re[k] * mKernelImag[k] + im[k] * mKernelReal[k];
+            re[k] = r;
+        }
+        FFT.complexTransform(re, im, true);
+        // The 1/mConvSize inverse scale is folded into the output chirp.
+        for (int m = 0; m <= mHighBin - mLowBin; m++) {
+            float r = re[m] * mOutChirpReal[m] - im[m] * mOutChirpImag[m];
+            float i = re[m] * mOutChirpImag[m] + im[m] * mOutChirpReal[m];
+            mSpectrum[mLowBin + m] = scaled(r * r + i * i);
+        }
+    }
+
+    private void initChirpZ(int aConvSize, int aBins) {
+        mConvSize = aConvSize;
+        mWorkReal = new float[aConvSize];
+        mWorkImag = new float[aConvSize];
+        mInChirpReal = new float[mFrameSize];
+        mInChirpImag = new float[mFrameSize];
+        for (int n = 0; n < mFrameSize; n++) {
+            double angle = -(2. * Math.PI * ((long) mLowBin * n % mTimeSize) / mTimeSize + chirpAngle(n));
+            mInChirpReal[n] = (float) Math.cos(angle);
+            mInChirpImag[n] = (float) Math.sin(angle);
+        }
+        mKernelReal = new float[aConvSize];
+        mKernelImag = new float[aConvSize];
+        for (int k = 0; k < aBins; k++) {
+            mKernelReal[k] = (float) Math.cos(chirpAngle(k));
+            mKernelImag[k] = (float) Math.sin(chirpAngle(k));
+        }
+        for (int n = 1; n < mFrameSize; n++) {
+            mKernelReal[aConvSize - n] = (float) Math.cos(chirpAngle(n));
+            mKernelImag[aConvSize - n] = (float) Math.sin(chirpAngle(n));
+        }
+        FFT.complexTransform(mKernelReal, mKernelImag, false);
+        mOutChirpReal = new float[aBins];
+        mOutChirpImag = new float[aBins];
+        for (int m = 0; m < aBins; m++) {
+            mOutChirpReal[m] = (float) (Math.cos(-chirpAngle(m)) / aConvSize);
+            mOutChirpImag[m] = (float) (Math.sin(-chirpAngle(m)) / aConvSize);
+        }
+    }
+
+    // PI k^2 / Z, reduced modulo 2PI before converting to floating point to keep precision.
+    private double chirpAngle(long aK) {
+        return Math.PI * ((aK * aK) % (2L * mTimeSize)) / mTimeSize;
+    }
+
+    // Rough operation counts, in butterflies, of the two approaches. The chirp-z transform also pays
+    // for three complex multiplies per point on top of its two transforms.
+    private static float chirpZCost(int aConvSize) {
+        int log = Integer.numberOfTrailingZeros(aConvSize);
+        return 1.5f * (2.f * (aConvSize / 2) * log + 2.f * aConvSize);
+    }
+
+    private static float paddedCost(int aSize) {
+        int log = Integer.numberOfTrailingZeros(aSize);
+        return (aSize / 4) * (log - 1) + aSize / 2;
+    }
+}
@@ -11,6 +11,7 @@ import android.app.Dialog;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.content.res.ColorStateList;
 import android.graphics.Color;
 import android.os.Bundle;
 import android.os.PowerManager;
@@ -63,10 +64,13 @@ public class MainFragment extends Fragment implements DopplerController.DopplerL
     private Button mAction;
     private ListView mSpeeds;
     private SpeedViewAdapter mSpeedsAdapter;
+    private ColorStateList mSpeedColors;
+    private CharSequence mFinalSpeedText; // Speed shown before a provisional speed replaced it.
 
     // Functional components.
     private TextToSpeech mTts;
     private boolean mTtsReady;
+    private String mSpokenProvisional; // Vocal term spoken for the provisional speed of the current pass, or null.
 
     /**
      * Default constructor.
@@ -100,6 +104,7 @@ public class MainFragment extends Fragment implements DopplerController.DopplerL
         final View view = inflater.inflate(R.layout.fragment_main, container, false);
 
         mSpeed = (TextView)view.findViewById(R.id.tSpeed);
+        mSpeedColors = mSpeed.getTextColors();
         mHighestSpeed = (TextView)view.findViewById(R.id.tHighestSpeed);
         mTemperature = (TextView)view.findViewById(R.id.tTemperature);
         mStatus = (TextView)view.findViewById(R.id.tExtraStatus);
@@ -181,13 +186,49 @@ public class MainFragment extends Fragment implements DopplerController.DopplerL
             public void run() {
                 SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(getContext());
                 mSpeed.setText(UnitManager.getInstance().getDisplaySpeed(aSpeedInMps.getSpeed()));
+                mSpeed.setTextColor(mSpeedColors);
+                mFinalSpeedText = null;
                 mSpeedsAdapter.add(aSpeedInMps);
-                if(mTtsReady && prefs.getBoolean(ENABLE_SOUND_KEY, true)) {
-                    String term = UnitManager.getInstance().getVocalSpeed(aSpeedInMps.getSpeed());
-
+                String term = UnitManager.getInstance().getVocalSpeed(aSpeedInMps.getSpeed());
+                // Only correct the provisional speed if it would be heard differently.
+                if(mTtsReady && prefs.getBoolean(ENABLE_SOUND_KEY, true) && !term.equals(mSpokenProvisional)) {
                     // Using the deprecated speak for backwards compatibility.
                     mTts.speak(term, TextToSpeech.QUEUE_FLUSH, null);
                 }
+                mSpokenProvisional = null;
+            }
+        });
+    }
+
+    @Override
+    public void provisionalSpeedDetected(final DetectedSpeed aSpeedInMps, double aConfidence) {
+        getActivity().runOnUiThread(new Runnable() {
+            public void run() {
+                if(mFinalSpeedText == null) {
+                    mFinalSpeedText = mSpeed.getText();
+                }
+                mSpeed.setText(UnitManager.getInstance().getDisplaySpeed(aSpeedInMps.getSpeed()));
+                mSpeed.setTextColor(Color.GRAY);
+                // Speak the first provisional speed of a pass right away; refinements are left to the final speed.
+                SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(getContext());
+                if(mSpokenProvisional == null && mTtsReady && prefs.getBoolean(ENABLE_SOUND_KEY, true)) {
+                    mSpokenProvisional = UnitManager.getInstance().getVocalSpeed(aSpeedInMps.getSpeed());
+                    mTts.speak(mSpokenProvisional, TextToSpeech.QUEUE_FLUSH, null);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void provisionalSpeedRetracted(final DetectedSpeed aSpeedInMps) {
+        getActivity().runOnUiThread(new Runnable() {
+            public void run() {
+                if(mFinalSpeedText != null) {
+                    mSpeed.setText(mFinalSpeedText);
+                    mFinalSpeedText = null;
+                }
+                mSpeed.setTextColor(mSpeedColors);
+                mSpokenProvisional = null;
             }
         });
     }
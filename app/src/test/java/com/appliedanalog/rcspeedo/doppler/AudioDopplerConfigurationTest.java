@@ -0,0 +1,73 @@
+package com.appliedanalog.rcspeedo.doppler;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that scaling a configuration keeps its windows as long in time and its families at least a
+ * bin wide, and that the modes DopplerController ships find low fundamentals as the presets do.
+ */
+public class AudioDopplerConfigurationTest {
+    // As DopplerController.
+    static final int FRAME_SIZE = 512;
+    static final int ESCALATION_FRAME_SIZE = 2048;
+    static final float MIN_PEAK_SNR_DB = 10.f;
+
+    static FlyBys.Recorder run(short[] aPcm, AudioDopplerConfiguration aConfig, AudioDopplerConfiguration aEscalation) {
+        AudioDoppler doppler = new AudioDoppler(aConfig, FlyBys.SAMPLING_RATE);
+        doppler.setEscalation(aEscalation);
+        FlyBys.Recorder recorder = new FlyBys.Recorder();
+        for (int off = 0; off + aConfig.getHopSize() <= aPcm.length; off += aConfig.getHopSize()) {
+            doppler.process(aPcm, off, aConfig.getHopSize(), recorder);
+        }
+        return recorder;
+    }
+
+    @Test
+    public void smallerHopsCountMoreFrames() throws Exception {
+        // The counts of DEFAULT are for frames BASE_SAMPLES_PER_FRAME apart.
+        AudioDopplerConfiguration base = AudioDopplerConfiguration.DEFAULT;
+        AudioDopplerConfiguration scaled = base.scaleFrameSize(512).scaleSamplesPerFrame(512);
+        assertEquals(512, scaled.getHopSize());
+        assertEquals(base.getMaxDopplerWindow() * AudioDopplerConfiguration.BASE_SAMPLES_PER_FRAME,
+                scaled.getMaxDopplerWindow() * scaled.getHopSize());
+        assertEquals(base.getMinTrendCountUntilCertified() * AudioDopplerConfiguration.BASE_SAMPLES_PER_FRAME,
+                scaled.getMinTrendCountUntilCertified() * scaled.getHopSize());
+        assertEquals(base.getMinTillAccept(), scaled.getMinTillAccept());
+        // Scaling is idempotent, so the controller can scale modes that are already scaled.
+        assertSame(scaled, scaled.scaleSamplesPerFrame(512));
+    }
+
+    @Test
+    public void smallerFramesKeepFamiliesABinWide() throws Exception {
+        // A family of 0 bins resets every trend before its peak is applied.
+        AudioDopplerConfiguration scaled = AudioDopplerConfiguration.DEFAULT.scaleFrameSize(256);
+        for (int div = 0; div < scaled.getDivisions(); div++) {
+            assertTrue("family of division " + div, scaled.getFamilyBoundary()[div] >= 1);
+            assertTrue("peak width of division " + div, scaled.getPeakWidth()[div] >= 1);
+            assertTrue("separation of division " + div, scaled.getMaxFreqSeparation()[div] >= 1);
+        }
+    }
+
+    @Test
+    public void shippedModesFindLowFundamentals() throws Exception {
+        AudioDopplerConfiguration[] presets = { AudioDopplerConfiguration.DEFAULT, AudioDopplerConfiguration.FAST_PASS };
+        AudioDopplerConfiguration escalation = AudioDopplerConfiguration.DEFAULT.scaleFrameSize(ESCALATION_FRAME_SIZE)
+                .setMinPeakSnr(MIN_PEAK_SNR_DB);
+        for (double fundamental : new double[] { 800, 1200, 1600, 4000 }) {
+            // A single tone, so no harmonic above the low divisions helps.
+            short[] pcm = new FlyBys(7).speed(35).fundamental(fundamental).harmonics(1, 1).synthesize();
+            for (int p = 0; p < presets.length; p++) {
+                AudioDopplerConfiguration shipped = presets[p].scaleFrameSize(FRAME_SIZE).scaleSamplesPerFrame(FRAME_SIZE)
+                        .setMinPeakSnr(MIN_PEAK_SNR_DB);
+                FlyBys.Recorder baseline = run(pcm, presets[p], null);
+                FlyBys.Recorder recorder = run(pcm, shipped, escalation);
+                // Reports are counted in frames of the configuration that detected them.
+                String at = "preset " + p + " at " + fundamental + "Hz";
+                assertTrue(at + " found " + recorder.reports(50), recorder.reports(50) >= Math.min(FlyBys.PASSES, baseline.reports(25)));
+                assertTrue(at + " off by " + recorder.meanError(35), recorder.meanError(35) < baseline.meanError(35) + 1.);
+            }
+        }
+    }
+}
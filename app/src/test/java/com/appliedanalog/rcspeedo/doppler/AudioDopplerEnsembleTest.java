@@ -0,0 +1,100 @@
+package com.appliedanalog.rcspeedo.doppler;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that an ensemble reports each pass its configurations detect, and reports it once.
+ */
+public class AudioDopplerEnsembleTest {
+    static final int SAMPLING_RATE = FlyBys.SAMPLING_RATE;
+    static final AudioDopplerConfiguration[] CONFIGS = {
+            AudioDopplerConfiguration.DEFAULT.scaleFrameSize(512),
+            AudioDopplerConfiguration.FAST_PASS.scaleFrameSize(512),
+            AudioDopplerConfiguration.CFG_200_PLUS.scaleFrameSize(512) };
+
+    static class Recorder implements SpeedSink {
+        final ArrayList<double[]> mSpeeds = new ArrayList<double[]>();
+
+        @Override
+        public void speedDetected(double aSpeed, double aWeight, float aFromFreq, float aToFreq, int aFrame) {
+            mSpeeds.add(new double[] { aSpeed, aFrame });
+        }
+    }
+
+    static ArrayList<double[]> run(AudioDoppler aDoppler, short[] aPcm) {
+        Recorder recorder = new Recorder();
+        aDoppler.process(aPcm, 0, aPcm.length, recorder);
+        aDoppler.release();
+        return recorder.mSpeeds;
+    }
+
+    static boolean near(double[] aA, double[] aB) {
+        return Math.abs(aA[1] - aB[1]) < AudioDoppler.DUPLICATE_FRAMES
+                && Math.abs(aA[0] - aB[0]) <= AudioDoppler.DUPLICATE_SPEED_RATIO * Math.max(aA[0], aB[0]);
+    }
+
+    @Test
+    public void reportsEveryPassOnce() throws Exception {
+        short[] pcm = FlyBys.varied(11).passes(10).synthesize();
+        ArrayList<double[]> single = new ArrayList<double[]>();
+        for (AudioDopplerConfiguration config : CONFIGS) {
+            single.addAll(run(new AudioDoppler(config, SAMPLING_RATE), pcm));
+        }
+        AudioDoppler ensemble = new AudioDoppler(CONFIGS[0], SAMPLING_RATE);
+        ensemble.applyEnsemble(CONFIGS);
+        ArrayList<double[]> merged = run(ensemble, pcm);
+
+        assertFalse(merged.isEmpty());
+        assertTrue(merged.size() < single.size());
+        // Every speed the ensemble reports was detected by one of its configurations in that frame.
+        for (double[] speed : merged) {
+            boolean found = false;
+            for (double[] s : single) {
+                found |= s[0] == speed[0] && s[1] == speed[1];
+            }
+            assertTrue("unexpected speed " + speed[0], found);
+        }
+        // Every speed a configuration detects is covered by a speed the ensemble reports.
+        for (double[] s : single) {
+            boolean covered = false;
+            for (double[] speed : merged) {
+                covered |= near(s, speed);
+            }
+            assertTrue("lost speed " + s[0] + " at frame " + s[1], covered);
+        }
+        // No pass is reported twice in the same frame.
+        for (int a = 0; a < merged.size(); a++) {
+            for (int b = a + 1; b < merged.size(); b++) {
+                assertFalse(merged.get(a)[1] == merged.get(b)[1] && near(merged.get(a), merged.get(b)));
+            }
+        }
+    }
+
+    @Test
+    public void interruptStopsWorkersUntilTheNextFrame() throws Exception {
+        short[] pcm = FlyBys.varied(11).passes(2).synthesize();
+        int half = pcm.length / 2;
+        AudioDoppler ensemble = new AudioDoppler(CONFIGS[0], SAMPLING_RATE);
+        ensemble.applyEnsemble(CONFIGS);
+        boolean threaded = Runtime.getRuntime().availableProcessors() > 1;
+        Recorder recorder = new Recorder();
+        try {
+            ensemble.process(pcm, 0, half, recorder);
+            assertEquals(threaded, ensemble.mWorkers != null);
+            // As DopplerController.stop() does to the thread feeding audio.
+            Thread.currentThread().interrupt();
+            ensemble.process(pcm, half, half, recorder);
+            assertNull(ensemble.mWorkers);
+        } finally {
+            Thread.interrupted();
+        }
+        ensemble.process(pcm, half, pcm.length - half, recorder);
+        assertEquals(threaded, ensemble.mWorkers != null);
+        ensemble.release();
+        assertNull(ensemble.mWorkers);
+    }
+}
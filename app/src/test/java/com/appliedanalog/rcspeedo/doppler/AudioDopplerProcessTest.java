@@ -0,0 +1,71 @@
+package com.appliedanalog.rcspeedo.doppler;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that AudioDoppler.process() detects the same speeds as driving audioToBuffer() and nextFrame()
+ * frame by frame, whatever the sizes of the blocks it is fed.
+ */
+public class AudioDopplerProcessTest {
+    static final int SAMPLING_RATE = FlyBys.SAMPLING_RATE;
+
+    static class Recorder implements SpeedSink {
+        final ArrayList<String> mSpeeds = new ArrayList<String>();
+
+        @Override
+        public void speedDetected(double aSpeed, double aWeight, float aFromFreq, float aToFreq, int aFrame) {
+            mSpeeds.add(aFrame + ": " + aSpeed + " w" + aWeight + " " + aFromFreq + "->" + aToFreq);
+        }
+    }
+
+    // Feeds aPcm to a new AudioDoppler one frame at a time through the polling API.
+    static ArrayList<String> frameByFrame(AudioDopplerConfiguration aConfig, short[] aPcm) {
+        AudioDoppler doppler = new AudioDoppler(aConfig, SAMPLING_RATE);
+        Recorder recorder = new Recorder();
+        int frameSize = aConfig.getFrameSize();
+        int hop = Math.min(aConfig.getSamplesPerFrame(), frameSize);
+        short[] frame = new short[frameSize];
+        for (int start = 0; start + frameSize <= aPcm.length; start += hop) {
+            System.arraycopy(aPcm, start, frame, 0, frameSize);
+            doppler.audioToBuffer(frame, 0, start == 0 ? frameSize : hop);
+            doppler.nextFrame();
+            for (int s = 0; s < doppler.numSpeeds(); s++) {
+                recorder.speedDetected(doppler.getSpeed(s), doppler.getSpeedWeight(s),
+                        doppler.getSpeedFromFreq(s), doppler.getSpeedToFreq(s), doppler.mFrameCount);
+            }
+        }
+        return recorder.mSpeeds;
+    }
+
+    // Feeds aPcm to a new AudioDoppler through process(), in blocks of random length.
+    static ArrayList<String> inBlocks(AudioDopplerConfiguration aConfig, short[] aPcm, Random aRandom) {
+        AudioDoppler doppler = new AudioDoppler(aConfig, SAMPLING_RATE);
+        Recorder recorder = new Recorder();
+        int offset = 0;
+        while (offset < aPcm.length) {
+            int length = Math.min(aPcm.length - offset, aRandom.nextInt(3 * aConfig.getFrameSize()));
+            doppler.process(aPcm, offset, length, recorder);
+            offset += length;
+        }
+        return recorder.mSpeeds;
+    }
+
+    @Test
+    public void blocksMatchFrames() throws Exception {
+        short[] pcm = FlyBys.varied(3).passes(4).synthesize();
+        Random random = new Random(5);
+        AudioDopplerConfiguration[] configs = {
+                AudioDopplerConfiguration.DEFAULT.scaleFrameSize(512),
+                AudioDopplerConfiguration.DEFAULT.scaleFrameSize(1024).scaleSamplesPerFrame(768) };
+        for (AudioDopplerConfiguration config : configs) {
+            ArrayList<String> expected = frameByFrame(config, pcm);
+            assertFalse(expected.isEmpty());
+            assertEquals(expected, inBlocks(config, pcm, random));
+        }
+    }
+}
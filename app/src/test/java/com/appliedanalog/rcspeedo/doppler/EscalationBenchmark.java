@@ -0,0 +1,45 @@
+package com.appliedanalog.rcspeedo.doppler;
+
+import org.junit.Test;
+
+/**
+ * Times AudioDoppler.process() hop by hop on synthetic passes, with 512 point frames alone and escalated
+ * to 2048 point frames, printing the mean and the worst time a hop took against the time it takes to
+ * arrive. ResolutionEscalatorTest checks how many frames the worst hop replays.
+ */
+public class EscalationBenchmark {
+    static final int SAMPLING_RATE = FlyBys.SAMPLING_RATE;
+    static final int HOP = 512;
+    static final int RUNS = 5;
+
+    @Test
+    public void timePerHop() throws Exception {
+        short[] pcm = new FlyBys(7).speed(30).synthesize();
+        double budget = HOP * 1000000. / SAMPLING_RATE;
+        AudioDopplerConfiguration[] escalations = { null, AudioDopplerConfiguration.DEFAULT.scaleFrameSize(2048) };
+        String[] names = { "512 points", "escalated to 2048 points" };
+        for (int e = 0; e < escalations.length; e++) {
+            // The best of the runs, hop by hop, so a pause of the JVM in one run does not count.
+            long[] best = new long[pcm.length / HOP];
+            for (int run = 0; run < RUNS; run++) {
+                AudioDoppler doppler = new AudioDoppler(AudioDopplerConfiguration.DEFAULT.scaleFrameSize(HOP), SAMPLING_RATE);
+                doppler.setEscalation(escalations[e]);
+                FlyBys.Recorder recorder = new FlyBys.Recorder();
+                for (int h = 0; h < best.length; h++) {
+                    long start = System.nanoTime();
+                    doppler.process(pcm, h * HOP, HOP, recorder);
+                    long time = System.nanoTime() - start;
+                    best[h] = run == 0 ? time : Math.min(best[h], time);
+                }
+            }
+            long total = 0;
+            long worst = 0;
+            for (long time : best) {
+                total += time;
+                worst = Math.max(worst, time);
+            }
+            System.out.println(String.format("EscalationBenchmark: %s, %.1f us/hop mean, %.1f us worst, of %.0f",
+                    names[e], total / 1000. / best.length, worst / 1000., budget));
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.appliedanalog.rcspeedo.doppler;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the packed real FFT and the complex transform beneath it against a direct DFT.
+ */
+public class FFTTest {
+    static final float SAMPLING_RATE = 22050.f;
+
+    /**
+     * Direct DFT of a real frame, X[k] = sum x[n] e^(-j2PIkn/N) for k = 0..N/2.
+     * @return Real parts in [0], imaginary parts in [1].
+     */
+    static double[][] directDft(float[] aFrame) {
+        final int size = aFrame.length;
+        double[][] out = new double[2][size / 2 + 1];
+        for (int k = 0; k <= size / 2; k++) {
+            for (int n = 0; n < size; n++) {
+                // Reduced modulo size so the angle stays exact for large k * n.
+                double angle = 2. * Math.PI * (((long) k * n) % size) / size;
+                out[0][k] += aFrame[n] * Math.cos(angle);
+                out[1][k] -= aFrame[n] * Math.sin(angle);
+            }
+        }
+        return out;
+    }
+
+    static float[] noise(int aSize, long aSeed) {
+        Random random = new Random(aSeed);
+        float[] frame = new float[aSize];
+        for (int n = 0; n < aSize; n++) {
+            frame[n] = (float) random.nextGaussian();
+        }
+        return frame;
+    }
+
+    @Test
+    public void forwardMatchesDirectDft() throws Exception {
+        for (int size = 4; size <= 4096; size *= 4) {
+            float[] frame = noise(size, size);
+            // A tone on top of the noise, so the bands differ by orders of magnitude.
+            for (int n = 0; n < size; n++) {
+                frame[n] += 10. * Math.sin(2. * Math.PI * n * (size / 8 + .3) / size);
+            }
+            FFT fft = new FFT(size, SAMPLING_RATE);
+            fft.forward(frame);
+            double[][] expected = directDft(frame);
+            // Single precision rounding, which grows with the size of the sums.
+            double tolerance = 1e-5 * size;
+            for (int k = 0; k <= size / 2; k++) {
+                assertEquals("real of bin " + k + " of " + size, expected[0][k], fft.getReal()[k], tolerance);
+                assertEquals("imag of bin " + k + " of " + size, expected[1][k], fft.getImag()[k], tolerance);
+            }
+        }
+    }
+
+    @Test
+    public void scalesOfTheSpectrum() throws Exception {
+        final int size = 256;
+        float[] frame = noise(size, 5);
+        double[][] expected = directDft(frame);
+        FFT fft = new FFT(size, SAMPLING_RATE);
+        int[] scales = { FourierTransform.SCALE_MAGNITUDE, FourierTransform.SCALE_POWER };
+        for (int scale : scales) {
+            fft.setScale(scale);
+            fft.forward(frame);
+            for (int k = 0; k <= size / 2; k++) {
+                double power = expected[0][k] * expected[0][k] + expected[1][k] * expected[1][k];
+                double want = scale == FourierTransform.SCALE_POWER ? power : Math.sqrt(power);
+                assertEquals("bin " + k, want, fft.getSpectrum()[k], 1e-3 * Math.max(1., want));
+            }
+        }
+    }
+
+    @Test
+    public void complexTransformInvertsItself() throws Exception {
+        for (int size = 2; size <= 1024; size *= 2) {
+            float[] re = noise(size, 2 * size);
+            float[] im = noise(size, 2 * size + 1);
+            float[] re0 = re.clone();
+            float[] im0 = im.clone();
+            FFT.complexTransform(re, im, false);
+            // Bin 1 against its direct sum.
+            double sumRe = 0;
+            double sumIm = 0;
+            for (int n = 0; n < size; n++) {
+                double angle = 2. * Math.PI * n / size;
+                sumRe += re0[n] * Math.cos(angle) + im0[n] * Math.sin(angle);
+                sumIm += im0[n] * Math.cos(angle) - re0[n] * Math.sin(angle);
+            }
+            assertEquals(sumRe, re[1 % size], 1e-4 * size);
+            assertEquals(sumIm, im[1 % size], 1e-4 * size);
+            // The inverse is unscaled.
+            FFT.complexTransform(re, im, true);
+            for (int n = 0; n < size; n++) {
+                assertEquals(re0[n], re[n] / size, 1e-4);
+                assertEquals(im0[n], im[n] / size, 1e-4);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sizeMustBeAPowerOfTwo() throws Exception {
+        new FFT(384, SAMPLING_RATE);
+    }
+}
@@ -0,0 +1,245 @@
+package com.appliedanalog.rcspeedo.doppler;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Synthesizes the recordings the tests and benchmarks run: passes, PASS_SECONDS apart unless set
+ * otherwise, by a source with a few harmonics over background noise, with the closest approach in the
+ * middle of each pass. The setters
+ * return this, so a recording reads new FlyBys(7).speed(40).distance(5).synthesize(). Recorder
+ * collects the speeds AudioDoppler reports for them.
+ */
+class FlyBys {
+    static final int SAMPLING_RATE = 22050;
+    static final double PASS_SECONDS = 5.;
+    static final int PASSES = 6;
+    // Speed of sound in m/s at 27C.
+    static final double SPEED_OF_SOUND = 331 + .606 * 27;
+
+    static class Recorder implements SpeedSink {
+        final ArrayList<Double> mSpeeds = new ArrayList<Double>();
+        final ArrayList<Integer> mFrames = new ArrayList<Integer>();
+
+        @Override
+        public void speedDetected(double aSpeed, double aWeight, float aFromFreq, float aToFreq, int aFrame) {
+            mSpeeds.add(aSpeed);
+            mFrames.add(aFrame);
+        }
+
+        double meanError(double aSpeed) {
+            double error = 0;
+            for (double speed : mSpeeds) {
+                error += Math.abs(speed - aSpeed);
+            }
+            return error / mSpeeds.size();
+        }
+
+        // Number of distinct frames speeds were reported in, each at least aGap frames after the last.
+        int reports(int aGap) {
+            int reports = 0;
+            int last = -aGap;
+            for (int frame : mFrames) {
+                if (frame - last >= aGap) {
+                    reports++;
+                }
+                last = frame;
+            }
+            return reports;
+        }
+
+        // Mean number of frames from the closest approach of each pass to the first speed reported for it.
+        double latency(int aHopSize) {
+            final double passFrames = PASS_SECONDS * SAMPLING_RATE / aHopSize;
+            double latency = 0;
+            int last = -1;
+            for (int frame : mFrames) {
+                int pass = (int) (frame / passFrames);
+                if (pass != last) {
+                    latency += frame - (pass + .5) * passFrames;
+                    last = pass;
+                }
+            }
+            return latency / PASSES;
+        }
+
+        // Standard deviation of the speeds.
+        double spread() {
+            double mean = 0;
+            for (double speed : mSpeeds) {
+                mean += speed;
+            }
+            mean /= mSpeeds.size();
+            double variance = 0;
+            for (double speed : mSpeeds) {
+                variance += (speed - mean) * (speed - mean);
+            }
+            return Math.sqrt(variance / mSpeeds.size());
+        }
+    }
+
+    private final long mSeed;
+    private double mSpeed = 30;
+    private double mSpeedRange = 0;
+    private double mDistance = 10;
+    private double mAudible = 0;
+    private int mPasses = PASSES;
+    private double mPassSeconds = PASS_SECONDS;
+    private double mWind = 0;
+    private double mFundamental = 1500;
+    private double mFundamentalRange = 0;
+    private int mHarmonics = 4;
+    private double mRolloff = 1;
+    private double mLevel = .3;
+
+    FlyBys(long aSeed) {
+        mSeed = aSeed;
+    }
+
+    /**
+     * Passes 4 seconds apart by different models, from 20 to 80 m/s with fundamentals from 900 to 2100Hz.
+     */
+    static FlyBys varied(long aSeed) {
+        return new FlyBys(aSeed).speed(20, 80).fundamental(900, 2100).passSeconds(4.);
+    }
+
+    /**
+     * @param aSpeed Speed of the source in m/s, 0 for a steady drone.
+     */
+    FlyBys speed(double aSpeed) {
+        return speed(aSpeed, aSpeed);
+    }
+
+    /**
+     * Draws the speed of each pass between aMin and aMax m/s.
+     */
+    FlyBys speed(double aMin, double aMax) {
+        mSpeed = aMin;
+        mSpeedRange = aMax - aMin;
+        return this;
+    }
+
+    /**
+     * @param aDistance Closest distance of the source in m.
+     */
+    FlyBys distance(double aDistance) {
+        mDistance = aDistance;
+        return this;
+    }
+
+    /**
+     * @param aAudible If non-zero, the source is only audible for about this many seconds around its
+     *                 closest approach, as when it flies an arc with the phone at one end.
+     */
+    FlyBys audible(double aAudible) {
+        mAudible = aAudible;
+        return this;
+    }
+
+    FlyBys fundamental(double aFundamental) {
+        return fundamental(aFundamental, aFundamental);
+    }
+
+    /**
+     * Draws the fundamental of each pass between aMin and aMax Hz.
+     */
+    FlyBys fundamental(double aMin, double aMax) {
+        mFundamental = aMin;
+        mFundamentalRange = aMax - aMin;
+        return this;
+    }
+
+    /**
+     * @param aHarmonics Number of harmonics, counting the fundamental.
+     * @param aRolloff Harmonic h, counting the fundamental as 1, has an amplitude of 1/h^aRolloff.
+     */
+    FlyBys harmonics(int aHarmonics, double aRolloff) {
+        mHarmonics = aHarmonics;
+        mRolloff = aRolloff;
+        return this;
+    }
+
+    /**
+     * @param aLevel Amplitude of the fundamental at the microphone, halving by 20m away. Full scale
+     *               is about 2.
+     */
+    FlyBys level(double aLevel) {
+        mLevel = aLevel;
+        return this;
+    }
+
+    /**
+     * @param aWind If non-zero, the background is gusty low-passed noise like wind on the microphone,
+     *              of about this level relative to the source at its closest.
+     */
+    FlyBys wind(double aWind) {
+        mWind = aWind;
+        return this;
+    }
+
+    FlyBys passes(int aPasses) {
+        mPasses = aPasses;
+        return this;
+    }
+
+    FlyBys passSeconds(double aPassSeconds) {
+        mPassSeconds = aPassSeconds;
+        return this;
+    }
+
+    /**
+     * @return 16 bit PCM at SAMPLING_RATE.
+     */
+    short[] synthesize() {
+        Random random = new Random(mSeed);
+        short[] pcm = new short[(int) (mPasses * mPassSeconds * SAMPLING_RATE)];
+        double[] phase = new double[mHarmonics];
+        double[] rolloff = new double[mHarmonics];
+        for (int h = 0; h < mHarmonics; h++) {
+            rolloff[h] = Math.pow(h + 1, mRolloff);
+        }
+        double wind = 0;
+        double smooth = 0;
+        double gust = 1;
+        double speed = mSpeed;
+        double fundamental = mFundamental;
+        int pass = -1;
+        for (int i = 0; i < pcm.length; i++) {
+            double time = (double) i / SAMPLING_RATE;
+            if ((int) (time / mPassSeconds) != pass) {
+                pass = (int) (time / mPassSeconds);
+                if (mSpeedRange > 0) {
+                    speed = mSpeed + mSpeedRange * random.nextDouble();
+                }
+                if (mFundamentalRange > 0) {
+                    fundamental = mFundamental + mFundamentalRange * random.nextDouble();
+                }
+            }
+            double t = time % mPassSeconds - mPassSeconds / 2;
+            double x = speed * t;
+            double dist = Math.sqrt(x * x + mDistance * mDistance);
+            double freq = fundamental * SPEED_OF_SOUND / (SPEED_OF_SOUND + speed * x / dist);
+            double sample = 0;
+            for (int h = 0; h < phase.length; h++) {
+                phase[h] += 2 * Math.PI * freq * (h + 1) / SAMPLING_RATE;
+                sample += Math.sin(phase[h]) / rolloff[h];
+            }
+            sample = sample * mLevel * 20 / (dist + 20);
+            if (mAudible > 0) {
+                sample *= Math.exp(-4 * t * t / (mAudible * mAudible));
+            }
+            if (mWind > 0) {
+                if (i % (SAMPLING_RATE / 10) == 0) {
+                    gust = .3 + 1.4 * random.nextDouble();
+                }
+                wind += .2 * (random.nextGaussian() - wind);
+                smooth += .3 * (wind - smooth);
+                sample += mWind * gust * (3 * smooth + .3 * random.nextGaussian());
+            } else {
+                sample += .02 * random.nextGaussian();
+            }
+            pcm[i] = (short) Math.max(-32768, Math.min(32767, sample * 16000));
+        }
+        return pcm;
+    }
+}
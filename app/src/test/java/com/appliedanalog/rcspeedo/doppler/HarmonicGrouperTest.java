@@ -0,0 +1,46 @@
+package com.appliedanalog.rcspeedo.doppler;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that grouping the harmonics of an engine follows it as a few trends, without losing passes
+ * and with less spread in the speeds than one speed per harmonic gives.
+ */
+public class HarmonicGrouperTest {
+    static final int SAMPLING_RATE = FlyBys.SAMPLING_RATE;
+
+    @Test
+    public void groupedEngineKeepsPassesWithFewerTrends() throws Exception {
+        // An engine, with a low fundamental and many harmonics.
+        short[] pcm = new FlyBys(3).speed(45).fundamental(250).harmonics(30, .5).level(.15).synthesize();
+        long[] trends = new long[2];
+        FlyBys.Recorder[] recorders = new FlyBys.Recorder[2];
+        for (int run = 0; run < 2; run++) {
+            AudioDoppler doppler = new AudioDoppler(AudioDopplerConfiguration.DEFAULT.setHarmonicGrouping(run == 1), SAMPLING_RATE);
+            recorders[run] = new FlyBys.Recorder();
+            doppler.process(pcm, 0, pcm.length, recorders[run]);
+            trends[run] = doppler.getStatistics().getShortTrends() + doppler.getStatistics().getLongTrends();
+        }
+        assertEquals(FlyBys.PASSES, recorders[0].reports(50));
+        assertEquals(FlyBys.PASSES, recorders[1].reports(50));
+        assertTrue("grouping left " + trends[1] + " of " + trends[0] + " trends", trends[1] * 4 < trends[0]);
+        assertTrue("grouped speeds spread further", recorders[1].spread() < recorders[0].spread());
+    }
+
+    @Test
+    public void subharmonicNoiseDoesNotClaimHarmonics() throws Exception {
+        AudioDopplerPlan plan = AudioDopplerConfiguration.DEFAULT.compile(SAMPLING_RATE);
+        // A noise peak near half the fundamental, then the first four harmonics of a source.
+        int[] peaks = { 37, 75, 150, 224, 299 };
+        float[] offsets = { .03f, -.22f, -.47f, .33f, .13f };
+        HarmonicGrouper grouper = new HarmonicGrouper(peaks.length, 10);
+        int numPeaks = grouper.group(peaks, offsets, peaks.length, plan);
+        assertEquals(1, grouper.numGroups());
+        assertEquals(2, numPeaks);
+        assertEquals(37, peaks[0]);
+        // The group is placed on its fourth harmonic.
+        assertEquals(299.f, peaks[1] + offsets[1], .5f);
+    }
+}
@@ -0,0 +1,48 @@
+package com.appliedanalog.rcspeedo.doppler;
+
+import org.junit.Test;
+
+/**
+ * Runs the trend passes and the Hough tracker over the same synthetic recordings, printing the passes
+ * each reports, their error, how many frames after the closest approach the first speed of a pass
+ * arrives and the time per hop. HoughChirpDetectorTest checks what the Hough tracker detects.
+ */
+public class HoughChirpBenchmark {
+    static final int SAMPLING_RATE = FlyBys.SAMPLING_RATE;
+    static final int TIMED_RUNS = 5;
+
+    @Test
+    public void trackersOnTheSameRecordings() throws Exception {
+        String[] names = { "30m/s", "70m/s", "150m/s", "engine 45m/s", "windy 30m/s" };
+        double[] speeds = { 30, 70, 150, 45, 30 };
+        short[][] recordings = {
+                new FlyBys(7).speed(30).synthesize(),
+                new FlyBys(7).speed(70).synthesize(),
+                new FlyBys(7).speed(150).synthesize(),
+                new FlyBys(3).speed(45).fundamental(250).harmonics(30, .5).level(.15).synthesize(),
+                new FlyBys(7).speed(30).wind(.3).synthesize() };
+        int[] trackers = { AudioDopplerConfiguration.TRACKER_TRENDS, AudioDopplerConfiguration.TRACKER_HOUGH };
+        String[] trackerNames = { "trends", "hough" };
+        for (int r = 0; r < recordings.length; r++) {
+            for (int t = 0; t < trackers.length; t++) {
+                // Engines are grouped for either tracker, see HarmonicGrouper.
+                AudioDopplerConfiguration config = AudioDopplerConfiguration.DEFAULT.setTracker(trackers[t])
+                        .setHarmonicGrouping(r == 3);
+                FlyBys.Recorder recorder = null;
+                long best = Long.MAX_VALUE;
+                for (int run = 0; run < TIMED_RUNS; run++) {
+                    AudioDoppler doppler = new AudioDoppler(config, SAMPLING_RATE);
+                    recorder = new FlyBys.Recorder();
+                    long start = System.nanoTime();
+                    doppler.process(recordings[r], 0, recordings[r].length, recorder);
+                    best = Math.min(best, System.nanoTime() - start);
+                }
+                double perHop = best / 1000. / (recordings[r].length / config.getHopSize());
+                boolean any = !recorder.mSpeeds.isEmpty();
+                System.out.println(String.format("HoughChirpBenchmark: %s, %s, %d of %d passes, %.2f m/s error, %.1f frames late, %.1f us/hop",
+                        names[r], trackerNames[t], recorder.reports(50), FlyBys.PASSES,
+                        any ? recorder.meanError(speeds[r]) : 0., any ? recorder.latency(config.getHopSize()) : 0., perHop));
+            }
+        }
+    }
+}
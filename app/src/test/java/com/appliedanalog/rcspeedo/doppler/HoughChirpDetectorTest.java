@@ -0,0 +1,135 @@
+package com.appliedanalog.rcspeedo.doppler;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the Hough tracker finds the step of a pass between the lines before and after it,
+ * including passes that shift too fast for the trend passes, and not steps without a sweep.
+ */
+public class HoughChirpDetectorTest {
+    static final int SAMPLING_RATE = FlyBys.SAMPLING_RATE;
+    static final AudioDopplerConfiguration HOUGH = AudioDopplerConfiguration.DEFAULT.setTracker(AudioDopplerConfiguration.TRACKER_HOUGH);
+
+    // Runs aNumFrames frames of two harmonics at aFreq(frame) and twice that through a detector, returning
+    // the frame of each shift found, with aShifts filled with from and to.
+    static int run(HoughChirpDetector aDetector, double[] aFreqs, double[][] aShifts) {
+        AudioDopplerPlan plan = HOUGH.compile(SAMPLING_RATE);
+        TrendStatistics statistics = new TrendStatistics();
+        Random random = new Random(3);
+        int[] peaks = new int[2];
+        float[] offsets = new float[2];
+        int shiftFrame = -1;
+        int numShifts = 0;
+        for (int frame = 0; frame < aFreqs.length; frame++) {
+            int numPeaks = 0;
+            if (aFreqs[frame] > 0) {
+                for (int h = 1; h <= 2; h++) {
+                    double freq = h * aFreqs[frame] + .05 * random.nextGaussian();
+                    peaks[numPeaks] = (int) Math.round(freq);
+                    offsets[numPeaks] = (float) (freq - peaks[numPeaks]);
+                    numPeaks++;
+                }
+            }
+            aDetector.track(peaks, offsets, numPeaks, HOUGH, plan, frame, 27, statistics, null);
+            for (int s = 0; s < aDetector.numShifts(); s++) {
+                aShifts[numShifts][0] = aDetector.getShiftFrom(s);
+                aShifts[numShifts][1] = aDetector.getShiftTo(s);
+                numShifts++;
+                shiftFrame = frame;
+            }
+        }
+        return numShifts == 0 ? -1 : shiftFrame;
+    }
+
+    @Test
+    public void stepIsFoundAcrossItsSweep() throws Exception {
+        AudioDopplerPlan plan = HOUGH.compile(SAMPLING_RATE);
+        double[] freqs = new double[80];
+        for (int frame = 0; frame < freqs.length; frame++) {
+            // A sweep from bin 80 to bin 60 centered on frame 30, like the shift of a pass.
+            freqs[frame] = 70. - 10. * Math.tanh((frame - 30) / 2.);
+        }
+        double[][] shifts = new double[4][2];
+        int shiftFrame = run(new HoughChirpDetector(4), freqs, shifts);
+        assertTrue("no shift found", shiftFrame >= 0);
+        // The harmonics voted together for one shift.
+        assertEquals(0., shifts[1][0], 0.);
+        assertEquals(4. / 3., shifts[0][0] / shifts[0][1], .01);
+        // From is a mean over the harmonics, weighted towards the second for its precision.
+        assertTrue("shift from " + shifts[0][0] + "Hz", shifts[0][0] > plan.fuzzyFreq(80) && shifts[0][0] < plan.fuzzyFreq(160));
+        // The line after the pass is steady from about frame 36, and is accepted a few frames later.
+        assertTrue("shift found in frame " + shiftFrame, shiftFrame < 36 + HOUGH.getMinTillAccept() + HoughChirpDetector.SETTLE_FRAMES + 3);
+    }
+
+    @Test
+    public void stepUpIsNotAPass() throws Exception {
+        double[] freqs = new double[80];
+        for (int frame = 0; frame < freqs.length; frame++) {
+            // A source at bin 60 stops, and a few frames later one at bin 80 starts.
+            freqs[frame] = frame < 30 ? 60. : frame < 33 ? 0. : 80.;
+        }
+        assertEquals(-1, run(new HoughChirpDetector(4), freqs, new double[4][2]));
+    }
+
+    @Test
+    public void fastPassesAreFound() throws Exception {
+        for (double speed : new double[] { 30, 70, 150 }) {
+            short[] pcm = new FlyBys(7).speed(speed).synthesize();
+            AudioDoppler doppler = new AudioDoppler(HOUGH, SAMPLING_RATE);
+            FlyBys.Recorder recorder = new FlyBys.Recorder();
+            doppler.process(pcm, 0, pcm.length, recorder);
+            assertEquals(FlyBys.PASSES, recorder.reports(50));
+            assertTrue("speeds off at " + speed + "m/s", recorder.meanError(speed) < 3.);
+        }
+    }
+
+    @Test
+    public void trendsLoseTheFastestPasses() throws Exception {
+        short[] pcm = new FlyBys(7).speed(150).synthesize();
+        AudioDoppler doppler = new AudioDoppler(AudioDopplerConfiguration.DEFAULT, SAMPLING_RATE);
+        FlyBys.Recorder recorder = new FlyBys.Recorder();
+        doppler.process(pcm, 0, pcm.length, recorder);
+        assertTrue("trends found " + recorder.reports(50) + " passes", recorder.reports(50) < FlyBys.PASSES);
+    }
+
+    @Test
+    public void tracedSpeedsAreInBins() throws Exception {
+        short[] pcm = new FlyBys(7).speed(70).synthesize();
+        AudioDoppler doppler = new AudioDoppler(HOUGH, SAMPLING_RATE);
+        TrendTracer tracer = new TrendTracer(100000);
+        doppler.setTracer(tracer);
+        final ArrayList<float[]> freqs = new ArrayList<float[]>();
+        doppler.process(pcm, 0, pcm.length, new SpeedSink() {
+            @Override
+            public void speedDetected(double aSpeed, double aWeight, float aFromFreq, float aToFreq, int aFrame) {
+                freqs.add(new float[] { aFromFreq, aToFreq });
+            }
+        });
+        final double binWidth = (double) SAMPLING_RATE / HOUGH.getSpectrumSize();
+        int speeds = 0;
+        for (String line : TrendTracerTest.export(tracer).split("\\r?\\n")) {
+            String[] fields = line.split(",");
+            if (!fields[1].equals("speed")) {
+                continue;
+            }
+            float[] shift = freqs.get(speeds++);
+            assertEquals((int) (shift[0] / binWidth), Integer.parseInt(fields[2]));
+            assertEquals((int) (shift[1] / binWidth), Integer.parseInt(fields[3]));
+        }
+        assertEquals(freqs.size(), speeds);
+    }
+
+    @Test
+    public void steadyDroneReportsNothing() throws Exception {
+        short[] pcm = new FlyBys(7).speed(0).synthesize();
+        AudioDoppler doppler = new AudioDoppler(HOUGH, SAMPLING_RATE);
+        FlyBys.Recorder recorder = new FlyBys.Recorder();
+        doppler.process(pcm, 0, pcm.length, recorder);
+        assertTrue(recorder.mSpeeds.isEmpty());
+    }
+}
@@ -0,0 +1,72 @@
+package com.appliedanalog.rcspeedo.doppler;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the Kalman tracker follows a peak through the sweep of a pass, and reports the passes
+ * the trend passes report, sooner after the source goes by.
+ */
+public class KalmanTrackerTest {
+    static final int SAMPLING_RATE = FlyBys.SAMPLING_RATE;
+
+    @Test
+    public void kalmanReportsPassesSooner() throws Exception {
+        for (double speed : new double[] { 30, 70 }) {
+            short[] pcm = new FlyBys(7).speed(speed).synthesize();
+            double[] latency = new double[2];
+            for (int tracker = 0; tracker < 2; tracker++) {
+                AudioDopplerConfiguration config = AudioDopplerConfiguration.DEFAULT.setTracker(tracker);
+                AudioDoppler doppler = new AudioDoppler(config, SAMPLING_RATE);
+                FlyBys.Recorder recorder = new FlyBys.Recorder();
+                doppler.process(pcm, 0, pcm.length, recorder);
+                assertEquals(FlyBys.PASSES, recorder.reports(50));
+                assertTrue("speeds off at " + speed + "m/s", recorder.meanError(speed) < 2.);
+                latency[tracker] = recorder.latency(config.getHopSize());
+                assertTrue("speed before the pass at " + speed + "m/s", latency[tracker] > 0);
+            }
+            assertTrue("kalman took " + latency[1] + " frames, trends " + latency[0],
+                    latency[1] + 3 < latency[0]);
+        }
+    }
+
+    @Test
+    public void steadyDroneReportsNothing() throws Exception {
+        short[] pcm = new FlyBys(7).speed(0).synthesize();
+        AudioDoppler doppler = new AudioDoppler(AudioDopplerConfiguration.DEFAULT.setTracker(AudioDopplerConfiguration.TRACKER_KALMAN), SAMPLING_RATE);
+        FlyBys.Recorder recorder = new FlyBys.Recorder();
+        doppler.process(pcm, 0, pcm.length, recorder);
+        assertTrue(recorder.mSpeeds.isEmpty());
+    }
+
+    @Test
+    public void sweepIsFollowedToItsPlateau() throws Exception {
+        AudioDopplerPlan plan = AudioDopplerConfiguration.DEFAULT.compile(SAMPLING_RATE);
+        KalmanTracker tracker = new KalmanTracker(4);
+        TrendStatistics statistics = new TrendStatistics();
+        Random random = new Random(3);
+        int[] peaks = new int[1];
+        float[] offsets = new float[1];
+        int shiftFrame = -1;
+        for (int frame = 0; frame < 60; frame++) {
+            // A sweep from bin 80 to bin 60 centered on frame 25, like the shift of a pass.
+            double freq = 70. - 10. * Math.tanh((frame - 25) / 3.);
+            freq += .05 * random.nextGaussian();
+            peaks[0] = (int) Math.round(freq);
+            offsets[0] = (float) (freq - peaks[0]);
+            tracker.track(peaks, offsets, 1, plan, frame, statistics, null);
+            assertEquals(1, tracker.numTracks());
+            if (tracker.numShifts() > 0) {
+                assertEquals(-1, shiftFrame);
+                assertEquals(80.f, tracker.getShiftFrom(0), .3f);
+                assertEquals(60.f, tracker.getShiftTo(0), .3f);
+                shiftFrame = frame;
+            }
+        }
+        // The sweep comes within a quarter bin of 60 in frame 33.
+        assertTrue("shift reported in frame " + shiftFrame, shiftFrame > 25 && shiftFrame <= 33 + KalmanTracker.MIN_STEADY);
+    }
+}
@@ -0,0 +1,64 @@
+package com.appliedanalog.rcspeedo.doppler;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the noise floor prunes the peaks wind makes without losing steady tones or passes.
+ */
+public class NoiseFloorTrackerTest {
+    static final int SAMPLING_RATE = FlyBys.SAMPLING_RATE;
+
+    @Test
+    public void windyPeaksArePrunedAndPassesKept() throws Exception {
+        short[] pcm = new FlyBys(7).speed(30).wind(.3).synthesize();
+        long[] peaks = new long[2];
+        int[] reports = new int[2];
+        for (int run = 0; run < 2; run++) {
+            AudioDoppler doppler = new AudioDoppler(AudioDopplerConfiguration.DEFAULT.setMinPeakSnr(run * 10.f), SAMPLING_RATE);
+            FlyBys.Recorder recorder = new FlyBys.Recorder();
+            doppler.process(pcm, 0, pcm.length, recorder);
+            peaks[run] = doppler.getStatistics().getPeaks();
+            reports[run] = recorder.reports(50);
+        }
+        assertTrue("only " + peaks[0] + " peaks pruned to " + peaks[1], peaks[1] * 5 < peaks[0] * 4);
+        assertEquals(FlyBys.PASSES, reports[0]);
+        assertEquals(FlyBys.PASSES, reports[1]);
+    }
+
+    @Test
+    public void steadyToneOutlastsItsFloor() throws Exception {
+        final int bins = 513;
+        final int[] runStart = { 20, 490 };
+        final int[] runWidth = { 8 };
+        Random random = new Random(5);
+        NoiseFloorTracker tracker = new NoiseFloorTracker(bins, FourierTransform.SCALE_POWER);
+        float[] spec = new float[bins];
+        int[] peaks = new int[bins];
+        int found = 0;
+        int kept = 0;
+        for (int frame = 0; frame < 2000; frame++) {
+            for (int x = 0; x < bins; x++) {
+                spec[x] = (float) -Math.log(1. - random.nextDouble()); // exponentially distributed, like noise power.
+            }
+            spec[199] += 300.f;
+            spec[200] += 1000.f;
+            spec[201] += 300.f;
+            tracker.update(spec, 12, 499);
+            int numPeaks = PeakDetector.findPeaks(spec, runStart, runWidth, peaks);
+            found += numPeaks;
+            numPeaks = tracker.prune(spec, runStart, runWidth, peaks, numPeaks, 10.f);
+            kept += numPeaks;
+            boolean tone = false;
+            for (int p = 0; p < numPeaks; p++) {
+                tone |= peaks[p] == 200;
+            }
+            assertTrue("tone pruned in frame " + frame, tone);
+        }
+        // The highest of a peak width of noise bins often is 10dB above their median, but less often than not.
+        assertTrue("kept " + kept + " of " + found + " peaks", kept < found / 2);
+    }
+}
@@ -0,0 +1,207 @@
+package com.appliedanalog.rcspeedo.doppler;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks PeakDetector against the neighbour-by-neighbour scan AudioDoppler originally used.
+ */
+public class PeakDetectorTest {
+    static final int SAMPLING_RATE = 22050;
+    static final AudioDopplerConfiguration[] PRESETS = {
+            AudioDopplerConfiguration.DEFAULT,
+            AudioDopplerConfiguration.FAST_PASS,
+            AudioDopplerConfiguration.CFG_200_PLUS };
+
+    // The original AudioDoppler.findPeaks().
+    static int referencePeaks(float[] aSpec, int aStart, int aEnd, int[] aPeakWidth, int[] aPeaks) {
+        int p_point = 0;
+        for (int x = aStart + aPeakWidth[0]; x < aEnd - aPeakWidth[aPeakWidth.length - 1]; x++) {
+            float pros_peak = aSpec[x];
+            boolean peak_found = true;
+            int cond = aPeakWidth[aPeakWidth.length * (x - aStart) / aEnd];
+            for (int i = 1; peak_found && i <= cond; i++) {
+                if (aSpec[x + i] >= pros_peak || aSpec[x - i] >= pros_peak) {
+                    peak_found = false;
+                }
+            }
+            if (peak_found) {
+                aPeaks[p_point] = x;
+                p_point++;
+            }
+        }
+        return p_point;
+    }
+
+    // The runs of bins sharing a peak width that AudioDopplerPlan splits the band into: {start of each
+    // run followed by the end of the last, width of each run}.
+    static int[][] runs(int aStart, int aEnd, int[] aPeakWidth) {
+        final int divisions = aPeakWidth.length;
+        final int first = aStart + aPeakWidth[0];
+        final int last = Math.max(first, aEnd - aPeakWidth[divisions - 1]);
+        int[] runStart = new int[divisions + 1];
+        int[] runWidth = new int[divisions];
+        int runs = 0;
+        for (int x = first; x < last; runs++) {
+            int div = divisions * (x - aStart) / aEnd;
+            runStart[runs] = x;
+            runWidth[runs] = aPeakWidth[div];
+            x = Math.min(last, aStart + ((div + 1) * aEnd + divisions - 1) / divisions);
+        }
+        runStart[runs] = last;
+        return new int[][] { Arrays.copyOf(runStart, runs + 1), Arrays.copyOf(runWidth, runs) };
+    }
+
+    static int findPeaks(float[] aSpec, int aStart, int aEnd, int[] aPeakWidth, int[] aPeaks) {
+        int[][] runs = runs(aStart, aEnd, aPeakWidth);
+        return PeakDetector.findPeaks(aSpec, runs[0], runs[1], aPeaks);
+    }
+
+    static int[] scaled(int[] aWidths, double aFactor) {
+        int[] out = new int[aWidths.length];
+        for (int x = 0; x < aWidths.length; x++) {
+            out[x] = (int) (aWidths[x] * aFactor);
+        }
+        return out;
+    }
+
+    static void fillSpectrum(Random aRandom, float[] aSpec, int aStyle) {
+        switch (aStyle) {
+            case 0: // white noise
+                for (int x = 0; x < aSpec.length; x++) {
+                    aSpec[x] = aRandom.nextFloat();
+                }
+                break;
+            case 1: // coarsely quantized, full of ties and plateaus
+                for (int x = 0; x < aSpec.length; x++) {
+                    aSpec[x] = aRandom.nextInt(4);
+                }
+                break;
+            default: // smooth tones over a noise floor, like a real pass
+                for (int x = 0; x < aSpec.length; x++) {
+                    aSpec[x] = .01f * aRandom.nextFloat();
+                }
+                for (int t = 0; t < 20; t++) {
+                    int center = aRandom.nextInt(aSpec.length);
+                    float amp = aRandom.nextFloat();
+                    for (int x = Math.max(0, center - 8); x < Math.min(aSpec.length, center + 8); x++) {
+                        aSpec[x] += amp / (1 + (x - center) * (x - center));
+                    }
+                }
+                break;
+        }
+    }
+
+    @Test
+    public void matchesReferenceScan() throws Exception {
+        Random random = new Random(42);
+        double[] factors = { .5, 1., 2., 4. };
+        int[] expected = new int[8192];
+        int[] actual = new int[8192];
+        for (AudioDopplerConfiguration config : PRESETS) {
+            for (double factor : factors) {
+                int spectrumSize = (int) (config.getSpectrumSize() * factor);
+                int[] widths = scaled(config.getPeakWidth(), factor);
+                int start = FourierTransform.freqToIndex(config.getFreqMin(), spectrumSize, SAMPLING_RATE);
+                int end = FourierTransform.freqToIndex(config.getFreqMax(), spectrumSize, SAMPLING_RATE);
+                float[] spec = new float[spectrumSize / 2 + 1];
+                for (int trial = 0; trial < 30; trial++) {
+                    fillSpectrum(random, spec, trial % 3);
+                    int numExpected = referencePeaks(spec, start, end, widths, expected);
+                    int numActual = findPeaks(spec, start, end, widths, actual);
+                    assertArrayEquals("size " + spectrumSize + " trial " + trial,
+                            Arrays.copyOf(expected, numExpected), Arrays.copyOf(actual, numActual));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void planRunsMatchReferenceScan() throws Exception {
+        Random random = new Random(11);
+        for (AudioDopplerConfiguration config : PRESETS) {
+            int start = FourierTransform.freqToIndex(config.getFreqMin(), config.getSpectrumSize(), SAMPLING_RATE);
+            int end = FourierTransform.freqToIndex(config.getFreqMax(), config.getSpectrumSize(), SAMPLING_RATE);
+            AudioDopplerPlan plan = config.compile(SAMPLING_RATE);
+            float[] spec = new float[config.getSpectrumSize() / 2 + 1];
+            int[] expected = new int[spec.length];
+            int[] actual = new int[spec.length];
+            for (int trial = 0; trial < 30; trial++) {
+                fillSpectrum(random, spec, trial % 3);
+                int numExpected = referencePeaks(spec, start, end, config.getPeakWidth(), expected);
+                int numActual = PeakDetector.findPeaks(spec, plan.getPeakRunStart(), plan.getPeakRunWidth(), actual);
+                assertArrayEquals(Arrays.copyOf(expected, numExpected), Arrays.copyOf(actual, numActual));
+            }
+        }
+    }
+
+    @Test
+    public void matchesReferenceScanOverWholeSpectrum() throws Exception {
+        // Widths that vary sharply between neighbouring divisions, scanned over the whole spectrum.
+        Random random = new Random(7);
+        int[] widths = { 1, 7, 2, 30, 3, 12, 5 };
+        float[] spec = new float[513];
+        int[] expected = new int[spec.length];
+        int[] actual = new int[spec.length];
+        for (int trial = 0; trial < 60; trial++) {
+            fillSpectrum(random, spec, trial % 3);
+            int numExpected = referencePeaks(spec, 0, spec.length - 1, widths, expected);
+            int numActual = findPeaks(spec, 0, spec.length - 1, widths, actual);
+            assertArrayEquals(Arrays.copyOf(expected, numExpected), Arrays.copyOf(actual, numActual));
+        }
+    }
+
+    @Test
+    public void powerSpectraMatchMagnitudeSpectra() throws Exception {
+        Random random = new Random(3);
+        final int size = 1024;
+        int[] widths = AudioDopplerConfiguration.DEFAULT.getPeakWidth();
+        FFT[] ffts = new FFT[3];
+        for (int s = 0; s < ffts.length; s++) {
+            ffts[s] = new FFT(size, SAMPLING_RATE);
+            ffts[s].setScale(s); // SCALE_MAGNITUDE, SCALE_POWER, SCALE_LOG
+        }
+        float[] frame = new float[size];
+        int[][] peaks = new int[3][size];
+        int[] numPeaks = new int[3];
+        float[][] offsets = new float[3][size];
+        for (int trial = 0; trial < 20; trial++) {
+            for (int n = 0; n < size; n++) {
+                frame[n] = .01f * (float) random.nextGaussian();
+            }
+            for (int t = 0; t < 10; t++) {
+                double freq = 500 + 9000 * random.nextDouble();
+                double amp = random.nextDouble();
+                for (int n = 0; n < size; n++) {
+                    double hann = .5 - .5 * Math.cos(2 * Math.PI * n / size);
+                    frame[n] += (float) (amp * hann * Math.sin(2 * Math.PI * freq * n / SAMPLING_RATE));
+                }
+            }
+            for (int s = 0; s < ffts.length; s++) {
+                ffts[s].forward(frame);
+                float[] spec = ffts[s].getSpectrum();
+                numPeaks[s] = findPeaks(spec, 0, spec.length - 1, widths, peaks[s]);
+                PeakDetector.interpolate(spec, s, peaks[s], numPeaks[s], offsets[s]);
+            }
+            // Power spectra give the very same peaks and offsets.
+            assertArrayEquals(Arrays.copyOf(peaks[0], numPeaks[0]), Arrays.copyOf(peaks[1], numPeaks[1]));
+            assertArrayEquals(Arrays.copyOf(offsets[0], numPeaks[0]), Arrays.copyOf(offsets[1], numPeaks[1]), 0.f);
+            // Log spectra round bins to the table, which only moves the offsets a little.
+            for (int p = 0, q = 0; p < numPeaks[0] && q < numPeaks[2]; ) {
+                if (peaks[0][p] == peaks[2][q]) {
+                    assertEquals(offsets[0][p], offsets[2][q], .005f);
+                    p++;
+                    q++;
+                } else if (peaks[0][p] < peaks[2][q]) {
+                    p++;
+                } else {
+                    q++;
+                }
+            }
+        }
+    }
+}
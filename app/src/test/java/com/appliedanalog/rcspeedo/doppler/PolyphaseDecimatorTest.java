@@ -0,0 +1,135 @@
+package com.appliedanalog.rcspeedo.doppler;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the decimator keeps tones above the output Nyquist frequency out of the analysis band,
+ * both for frames and for streams, and that AudioDoppler finds the same passes in audio captured at
+ * twice the analysis rate.
+ */
+public class PolyphaseDecimatorTest {
+    static final int SAMPLING_RATE = 22050;
+    // Attenuation the aliases must have at the least, in dB.
+    static final double MIN_ALIAS_DB = 60.;
+
+    // An in-band tone and an out of band tone of the same level, sampled at aRate.
+    static short[] twoTones(double aInBand, double aOutOfBand, int aRate, int aLength) {
+        short[] pcm = new short[aLength];
+        for (int n = 0; n < aLength; n++) {
+            double t = (double) n / aRate;
+            pcm[n] = (short) (10000. * (Math.sin(2. * Math.PI * aInBand * t) + Math.sin(2. * Math.PI * aOutOfBand * t)));
+        }
+        return pcm;
+    }
+
+    // The frame windowed in the time domain, as SignalConditioner does.
+    static float[] windowed(float[] aFrame, float[] aCoeffs) {
+        final int size = aFrame.length;
+        float[] out = new float[size];
+        for (int n = 0; n < size; n++) {
+            double w = 0;
+            for (int m = 0; m < aCoeffs.length; m++) {
+                double term = aCoeffs[m] * Math.cos(2. * Math.PI * m * n / size);
+                w += (m % 2 == 0) ? term : -term;
+            }
+            out[n] = (float) (aFrame[n] * w);
+        }
+        return out;
+    }
+
+    // Level in dB of the strongest band within 2 bands of aFreq in a Blackman-Harris spectrum of aFrame.
+    static double level(float[] aFrame, double aFreq) {
+        final int size = aFrame.length;
+        float[] windowed = windowed(aFrame, SignalConditioner.windowCoefficients(AudioDopplerConfiguration.WINDOW_BLACKMAN_HARRIS));
+        FFT fft = new FFT(size, SAMPLING_RATE);
+        fft.setScale(FourierTransform.SCALE_POWER);
+        fft.forward(windowed);
+        int bin = (int) Math.round(aFreq * size / SAMPLING_RATE);
+        float power = 0;
+        for (int k = bin - 2; k <= bin + 2; k++) {
+            power = Math.max(power, fft.getSpectrum()[k]);
+        }
+        return 10. * Math.log10(power);
+    }
+
+    @Test
+    public void frameAliasesAreAttenuated() throws Exception {
+        // A 13kHz tone captured at 44.1kHz folds to 9050Hz.
+        short[] pcm = twoTones(2000., 13000., 2 * SAMPLING_RATE, 8192);
+        float passBand = AudioDopplerConfiguration.DEFAULT.getFreqMax() / SAMPLING_RATE;
+        PolyphaseDecimator decimator = new PolyphaseDecimator(pcm.length, pcm.length / 2, passBand);
+        float[] frame = new float[pcm.length / 2];
+        for (int n = 0; n < frame.length; n++) {
+            frame[n] = decimator.sample(pcm, 0, n);
+        }
+        double alias = level(frame, SAMPLING_RATE - 13000.) - level(frame, 2000.);
+        assertTrue("alias at " + alias + "dB", alias < -MIN_ALIAS_DB);
+    }
+
+    @Test
+    public void streamAliasesAreAttenuated() throws Exception {
+        int[] rates = { 2 * SAMPLING_RATE, 48000 };
+        for (int rate : rates) {
+            short[] pcm = twoTones(2000., 13000., rate, 4 * rate / 10);
+            PolyphaseDecimator decimator = new PolyphaseDecimator(rate / PolyphaseDecimator.gcd(rate, SAMPLING_RATE),
+                    SAMPLING_RATE / PolyphaseDecimator.gcd(rate, SAMPLING_RATE), PolyphaseDecimator.MAX_PASS_BAND);
+            short[] out = new short[pcm.length];
+            int numOut = 0;
+            // Blocks of an odd length, so outputs straddle the blocks.
+            for (int offset = 0; offset < pcm.length; offset += 333) {
+                numOut += decimator.decimate(pcm, offset, Math.min(333, pcm.length - offset), out, numOut);
+            }
+            assertEquals((double) pcm.length * SAMPLING_RATE / rate, numOut, 1.);
+            // Past the filter's start up transient.
+            float[] frame = new float[2048];
+            for (int n = 0; n < frame.length; n++) {
+                frame[n] = out[numOut - frame.length + n];
+            }
+            double alias = level(frame, SAMPLING_RATE - 13000.) - level(frame, 2000.);
+            assertTrue("alias at " + alias + "dB from " + rate + "Hz", alias < -MIN_ALIAS_DB);
+            // The in-band tone keeps its level.
+            assertEquals(level(frame, 2000.), 20. * Math.log10(10000. * frame.length * .35875 / 2), 1.);
+        }
+    }
+
+    @Test
+    public void streamDoesNotDependOnTheBlocks() throws Exception {
+        short[] pcm = twoTones(1000., 15000., 48000, 20000);
+        short[][] outs = new short[2][pcm.length];
+        int[] lengths = new int[2];
+        for (int run = 0; run < 2; run++) {
+            PolyphaseDecimator decimator = new PolyphaseDecimator(320, 147, PolyphaseDecimator.MAX_PASS_BAND);
+            int block = run == 0 ? pcm.length : 17;
+            for (int offset = 0; offset < pcm.length; offset += block) {
+                lengths[run] += decimator.decimate(pcm, offset, Math.min(block, pcm.length - offset), outs[run], lengths[run]);
+            }
+        }
+        assertEquals(lengths[0], lengths[1]);
+        for (int n = 0; n < lengths[0]; n++) {
+            assertEquals(outs[0][n], outs[1][n]);
+        }
+    }
+
+    @Test
+    public void passesCapturedAtTwiceTheRate() throws Exception {
+        short[] pcm = new FlyBys(7).speed(70).synthesize();
+        // The same recording captured at 44.1kHz, by linear interpolation.
+        short[] captured = new short[2 * pcm.length];
+        for (int n = 0; n < pcm.length; n++) {
+            captured[2 * n] = pcm[n];
+            captured[2 * n + 1] = (short) ((pcm[n] + pcm[Math.min(n + 1, pcm.length - 1)]) / 2);
+        }
+        AudioDoppler doppler = new AudioDoppler(AudioDopplerConfiguration.DEFAULT, SAMPLING_RATE);
+        doppler.setCaptureRate(2 * SAMPLING_RATE);
+        FlyBys.Recorder recorder = new FlyBys.Recorder();
+        // Blocks the size the controller reads.
+        final int block = 2 * AudioDopplerConfiguration.DEFAULT.getFrameSize();
+        for (int offset = 0; offset < captured.length; offset += block) {
+            doppler.process(captured, offset, Math.min(block, captured.length - offset), recorder);
+        }
+        assertEquals(FlyBys.PASSES, recorder.reports(50));
+        assertTrue("speeds off by " + recorder.meanError(70), recorder.meanError(70) < 2.);
+    }
+}
@@ -0,0 +1,90 @@
+package com.appliedanalog.rcspeedo.doppler;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs PresetClassifier the way DopplerController does, over passes that suit each preset.
+ */
+public class PresetClassifierTest {
+    static final int SAMPLING_RATE = FlyBys.SAMPLING_RATE;
+    static final int FRAME_SIZE = 512;
+    static final int WINDOW_FRAMES = 128;
+    static final AudioDopplerConfiguration[] PRESETS = {
+            AudioDopplerConfiguration.DEFAULT.scaleFrameSize(FRAME_SIZE).scaleSamplesPerFrame(FRAME_SIZE),
+            AudioDopplerConfiguration.FAST_PASS.scaleFrameSize(FRAME_SIZE).scaleSamplesPerFrame(FRAME_SIZE),
+            AudioDopplerConfiguration.CFG_200_PLUS.scaleFrameSize(FRAME_SIZE).scaleSamplesPerFrame(FRAME_SIZE) };
+
+    // Feeds aPcm frame by frame, switching presets as the classifier selects them. Returns the final preset.
+    static int classify(short[] aPcm, int aPreset) {
+        AudioDoppler doppler = new AudioDoppler(PRESETS[aPreset], SAMPLING_RATE);
+        PresetClassifier classifier = new PresetClassifier(WINDOW_FRAMES, aPreset);
+        SpeedSink ignore = new SpeedSink() {
+            @Override
+            public void speedDetected(double aSpeed, double aWeight, float aFromFreq, float aToFreq, int aFrame) {
+            }
+        };
+        for (int off = 0; off + FRAME_SIZE <= aPcm.length; off += FRAME_SIZE) {
+            doppler.process(aPcm, off, FRAME_SIZE, ignore);
+            int preset = classifier.getPreset();
+            if (classifier.update(doppler.getStatistics()) != preset) {
+                doppler.applyConfiguration(PRESETS[classifier.getPreset()]);
+            }
+        }
+        return classifier.getPreset();
+    }
+
+    @Test
+    public void selectsFastPassForBriefPasses() throws Exception {
+        short[] pcm = new FlyBys(1).speed(40).distance(5).audible(.5).synthesize();
+        assertEquals(PresetClassifier.PRESET_FAST_PASS, classify(pcm, PresetClassifier.PRESET_DEFAULT));
+    }
+
+    @Test
+    public void selectsHiSpeedForFastPasses() throws Exception {
+        short[] pcm = new FlyBys(2).speed(110).distance(15).synthesize();
+        assertEquals(PresetClassifier.PRESET_HI_SPEED, classify(pcm, PresetClassifier.PRESET_DEFAULT));
+    }
+
+    @Test
+    public void returnsToDefaultForOrdinaryPasses() throws Exception {
+        short[] slow = new FlyBys(3).speed(30).synthesize();
+        short[] fast = new FlyBys(4).speed(80).synthesize();
+        for (int preset = 0; preset < PRESETS.length; preset++) {
+            assertEquals(PresetClassifier.PRESET_DEFAULT, classify(slow, preset));
+            assertEquals(PresetClassifier.PRESET_DEFAULT, classify(fast, preset));
+        }
+    }
+
+    @Test
+    public void keepsPresetWithoutPasses() throws Exception {
+        short[] silence = new FlyBys(5).speed(0).distance(1e9).passes(4).synthesize();
+        for (int preset = 0; preset < PRESETS.length; preset++) {
+            assertEquals(preset, classify(silence, preset));
+        }
+    }
+
+    @Test
+    public void singleWindowDoesNotSwitch() throws Exception {
+        PresetClassifier classifier = new PresetClassifier(10, PresetClassifier.PRESET_DEFAULT);
+        TrendStatistics stats = new TrendStatistics();
+        classifier.update(stats);
+        // One window of brief trends, then one of long trends.
+        stats.mFrames += 10;
+        stats.mShortTrends += 5;
+        assertEquals(PresetClassifier.PRESET_DEFAULT, classifier.update(stats));
+        stats.mFrames += 10;
+        stats.mLongTrends += 5;
+        assertEquals(PresetClassifier.PRESET_DEFAULT, classifier.update(stats));
+        // A quiet window between two windows of brief trends still confirms the switch.
+        stats.mFrames += 10;
+        stats.mShortTrends += 5;
+        assertEquals(PresetClassifier.PRESET_DEFAULT, classifier.update(stats));
+        stats.mFrames += 10;
+        assertEquals(PresetClassifier.PRESET_DEFAULT, classifier.update(stats));
+        stats.mFrames += 10;
+        stats.mShortTrends += 5;
+        assertEquals(PresetClassifier.PRESET_FAST_PASS, classifier.update(stats));
+    }
+}
@@ -0,0 +1,103 @@
+package com.appliedanalog.rcspeedo.doppler;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that provisional speeds come ahead of the final speeds of passes, close to them, and that
+ * every provisional speed is eventually confirmed or retracted.
+ */
+public class ProvisionalSpeedTest {
+    static final int SAMPLING_RATE = FlyBys.SAMPLING_RATE;
+    static final double MIN_CONFIDENCE = .5;
+
+    /**
+     * Records the provisional speed stream and checks its consistency as it goes.
+     */
+    static class ProvisionalRecorder implements ProvisionalSpeedSink {
+        final HashMap<Integer, Double> mOpen = new HashMap<Integer, Double>();
+        final HashSet<Integer> mEnded = new HashSet<Integer>();
+        final ArrayList<Integer> mConfidentFrames = new ArrayList<Integer>();
+        final ArrayList<Double> mConfidentSpeeds = new ArrayList<Double>();
+        int mConfirmed = 0;
+        int mRetracted = 0;
+
+        @Override
+        public void provisionalSpeed(int aId, double aSpeed, double aConfidence, double aWeight, float aFromFreq, float aToFreq, int aFrame) {
+            assertFalse("provisional speed " + aId + " published after it ended", mEnded.contains(aId));
+            assertTrue(aConfidence > 0 && aConfidence <= 1);
+            mOpen.put(aId, aSpeed);
+            if (aConfidence >= MIN_CONFIDENCE) {
+                mConfidentFrames.add(aFrame);
+                mConfidentSpeeds.add(aSpeed);
+            }
+        }
+
+        @Override
+        public void provisionalConfirmed(int aId, int aFrame) {
+            assertNotNull("confirmed unknown provisional speed " + aId, mOpen.remove(aId));
+            mEnded.add(aId);
+            mConfirmed++;
+        }
+
+        @Override
+        public void provisionalRetracted(int aId, int aFrame) {
+            assertNotNull("retracted unknown provisional speed " + aId, mOpen.remove(aId));
+            mEnded.add(aId);
+            mRetracted++;
+        }
+    }
+
+    @Test
+    public void provisionalSpeedsLeadFinalSpeeds() throws Exception {
+        AudioDopplerConfiguration config = AudioDopplerConfiguration.DEFAULT.scaleFrameSize(512);
+        for (double speed : new double[] { 45, 70 }) {
+            short[] pcm = new FlyBys(7).speed(speed).synthesize();
+            AudioDoppler doppler = new AudioDoppler(config, SAMPLING_RATE);
+            FlyBys.Recorder finals = new FlyBys.Recorder();
+            ProvisionalRecorder provisional = new ProvisionalRecorder();
+            doppler.process(pcm, 0, pcm.length, finals, provisional);
+
+            // Find the first confident provisional speed of each pass that got a final speed.
+            double passFrames = FlyBys.PASS_SECONDS * SAMPLING_RATE / config.getHopSize();
+            int early = 0;
+            int last = -50;
+            for (int frame : finals.mFrames) {
+                if (frame - last >= 50) {
+                    int pass = (int) (frame / passFrames);
+                    for (int p = 0; p < provisional.mConfidentFrames.size(); p++) {
+                        int provisionalFrame = provisional.mConfidentFrames.get(p);
+                        if ((int) (provisionalFrame / passFrames) == pass) {
+                            if (provisionalFrame < frame) {
+                                early++;
+                                assertEquals(speed, provisional.mConfidentSpeeds.get(p), speed * .15);
+                            }
+                            break;
+                        }
+                    }
+                }
+                last = frame;
+            }
+            assertTrue(speed + "m/s: " + early + " passes had an early speed", early >= FlyBys.PASSES - 1);
+            assertTrue(provisional.mConfirmed > 0);
+        }
+    }
+
+    @Test
+    public void everyProvisionalSpeedEnds() throws Exception {
+        short[] pcm = new FlyBys(7).speed(45).wind(.3).synthesize();
+        AudioDoppler doppler = new AudioDoppler(AudioDopplerConfiguration.DEFAULT.scaleFrameSize(512), SAMPLING_RATE);
+        ProvisionalRecorder provisional = new ProvisionalRecorder();
+        doppler.process(pcm, 0, pcm.length, new FlyBys.Recorder(), provisional);
+        // Let anything still in flight at the end of the last pass run out.
+        short[] silence = new short[SAMPLING_RATE * 3];
+        doppler.process(silence, 0, silence.length, new FlyBys.Recorder(), provisional);
+        assertTrue(provisional.mRetracted > 0);
+        assertTrue("left open: " + provisional.mOpen.keySet(), provisional.mOpen.isEmpty());
+    }
+}
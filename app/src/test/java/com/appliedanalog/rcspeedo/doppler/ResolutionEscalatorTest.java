@@ -0,0 +1,86 @@
+package com.appliedanalog.rcspeedo.doppler;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that escalating a cheap 512 point configuration to 2048 point frames detects every pass the
+ * cheap configuration detects without reporting any pass twice, and more precisely at speeds where
+ * the bigger frames help.
+ */
+public class ResolutionEscalatorTest {
+    static final int SAMPLING_RATE = FlyBys.SAMPLING_RATE;
+
+    static FlyBys.Recorder run(short[] aPcm, AudioDopplerConfiguration aEscalation) {
+        AudioDoppler doppler = new AudioDoppler(AudioDopplerConfiguration.DEFAULT.scaleFrameSize(512), SAMPLING_RATE);
+        doppler.setEscalation(aEscalation);
+        FlyBys.Recorder recorder = new FlyBys.Recorder();
+        doppler.process(aPcm, 0, aPcm.length, recorder);
+        return recorder;
+    }
+
+    @Test
+    public void escalationRefinesEveryPass() throws Exception {
+        // Passes are 5 seconds, some 215 frames, apart; the speeds of one pass come within a second.
+        final int gap = 50;
+        for (double speed : new double[] { 30, 55 }) {
+            short[] pcm = new FlyBys(7).speed(speed).synthesize();
+            FlyBys.Recorder cheap = run(pcm, null);
+            FlyBys.Recorder escalated = run(pcm, AudioDopplerConfiguration.DEFAULT.scaleFrameSize(2048));
+            assertEquals(FlyBys.PASSES, cheap.reports(gap));
+            assertEquals(FlyBys.PASSES, escalated.reports(gap));
+            assertTrue("escalation lost precision at " + speed + "m/s",
+                    escalated.meanError(speed) < cheap.meanError(speed));
+        }
+    }
+
+    @Test
+    public void replayIsSpreadOverTheCheapFrames() throws Exception {
+        short[] pcm = new FlyBys(7).speed(30).synthesize();
+        AudioDopplerConfiguration cheap = AudioDopplerConfiguration.DEFAULT.scaleFrameSize(512);
+        AudioDopplerConfiguration escalation = AudioDopplerConfiguration.DEFAULT.scaleFrameSize(2048);
+        AudioDoppler doppler = new AudioDoppler(cheap, SAMPLING_RATE);
+        doppler.setEscalation(escalation);
+        FlyBys.Recorder recorder = new FlyBys.Recorder();
+        int worst = 0;
+        int replayed = 0;
+        for (int off = 0; off + cheap.getHopSize() <= pcm.length; off += cheap.getHopSize()) {
+            int before = doppler.mEscalator == null ? 0 : doppler.mEscalator.mAnalysis.mFrameCount;
+            doppler.process(pcm, off, cheap.getHopSize(), recorder);
+            int frames = doppler.mEscalator.mAnalysis.mFrameCount - before;
+            worst = Math.max(worst, frames);
+            replayed += frames;
+        }
+        // The worst call costs a few high resolution frames, not a window of them.
+        assertTrue("a call replayed " + worst + " frames", worst <= ResolutionEscalator.REPLAY_FRAMES);
+        // Passes come one after another, so the windows cover the recording, but only once.
+        assertTrue("replayed " + replayed + " frames", replayed <= pcm.length / escalation.getHopSize());
+        // Keeping pace with the recording, the escalated speeds come within a second of the cheap ones.
+        FlyBys.Recorder plain = run(pcm, null);
+        assertEquals(FlyBys.PASSES, recorder.reports(50));
+        assertTrue("escalated speeds came " + recorder.latency(512) + " frames after the pass",
+                recorder.latency(512) < plain.latency(512) + SAMPLING_RATE / 512);
+    }
+
+    @Test
+    public void steadyDroneReportsNothing() throws Exception {
+        short[] pcm = new FlyBys(7).speed(0).synthesize();
+        assertTrue(run(pcm, AudioDopplerConfiguration.DEFAULT.scaleFrameSize(2048)).mSpeeds.isEmpty());
+    }
+
+    @Test
+    public void interruptReleasesHeldSpeeds() throws Exception {
+        ResolutionEscalator escalator = new ResolutionEscalator(AudioDopplerConfiguration.DEFAULT.scaleFrameSize(2048), SAMPLING_RATE);
+        escalator.record(new short[512], 0, 512);
+        escalator.trigger();
+        assertTrue(escalator.isPending());
+        escalator.hold(30., 1., 1600.f, 1400.f);
+        assertFalse(escalator.replayIfDue(27.));
+        escalator.interrupt();
+        assertTrue(escalator.replayIfDue(27.));
+        assertFalse(escalator.isPending());
+        assertEquals(1, escalator.numSpeeds());
+        assertEquals(30., escalator.getSpeed(0), 0.);
+    }
+}
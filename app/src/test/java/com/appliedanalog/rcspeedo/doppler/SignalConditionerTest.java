@@ -0,0 +1,108 @@
+package com.appliedanalog.rcspeedo.doppler;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the high-pass filter runs on across frames that follow one another, whether they are
+ * conditioned whole or hop by hop, and starts afresh after a reset.
+ */
+public class SignalConditionerTest {
+    static final int SAMPLING_RATE = 22050;
+    static final int FRAME_SIZE = 256;
+    static final float CUTOFF = 250.f;
+
+    // A tone riding on a DC offset.
+    static short[] signal(int aLength) {
+        short[] pcm = new short[aLength];
+        for (int n = 0; n < aLength; n++) {
+            pcm[n] = (short) (4000. + 8000. * Math.sin(2. * Math.PI * 1000. * n / SAMPLING_RATE));
+        }
+        return pcm;
+    }
+
+    // The filter run over the whole signal at once, primed with its first sample.
+    static float[] filtered(short[] aPcm) {
+        final float alpha = (float) (1. / (1. + 2. * Math.PI * CUTOFF / SAMPLING_RATE));
+        float[] out = new float[aPcm.length];
+        float lastIn = aPcm[0] * SignalConditioner.PCM_SCALE;
+        float lastOut = 0.f;
+        for (int n = 0; n < aPcm.length; n++) {
+            float in = aPcm[n] * SignalConditioner.PCM_SCALE;
+            lastOut = alpha * (lastOut + in - lastIn);
+            lastIn = in;
+            out[n] = lastOut;
+        }
+        return out;
+    }
+
+    static void assertFrame(String aWhat, float[] aExpected, int aOffset, float[] aRaw) {
+        for (int n = 0; n < aRaw.length; n++) {
+            assertEquals(aWhat + " sample " + n, aExpected[aOffset + n], aRaw[n], 1e-6f);
+        }
+    }
+
+    @Test
+    public void framesCarryTheFilter() throws Exception {
+        short[] pcm = signal(4 * FRAME_SIZE);
+        float[] expected = filtered(pcm);
+        SignalConditioner conditioner = new SignalConditioner(FRAME_SIZE, AudioDopplerConfiguration.WINDOW_HANN, CUTOFF, SAMPLING_RATE);
+        short[] frame = new short[FRAME_SIZE];
+        float[] raw = new float[FRAME_SIZE];
+        float[] windowed = new float[FRAME_SIZE];
+        for (int f = 0; f < 4; f++) {
+            // A rotating buffer, with the oldest sample halfway through.
+            for (int n = 0; n < FRAME_SIZE; n++) {
+                frame[(n + FRAME_SIZE / 2) % FRAME_SIZE] = pcm[f * FRAME_SIZE + n];
+            }
+            conditioner.convertFrame(frame, FRAME_SIZE / 2, null, raw, windowed);
+            assertFrame("frame " + f, expected, f * FRAME_SIZE, raw);
+        }
+    }
+
+    @Test
+    public void hopsCarryTheFilter() throws Exception {
+        final int hop = FRAME_SIZE / 4;
+        short[] pcm = signal(4 * FRAME_SIZE);
+        float[] expected = filtered(pcm);
+        SignalConditioner conditioner = new SignalConditioner(FRAME_SIZE, AudioDopplerConfiguration.WINDOW_HANN, CUTOFF, SAMPLING_RATE);
+        short[] frame = new short[FRAME_SIZE];
+        float[] prev = new float[FRAME_SIZE];
+        float[] raw = new float[FRAME_SIZE];
+        float[] windowed = new float[FRAME_SIZE];
+        System.arraycopy(pcm, 0, frame, 0, FRAME_SIZE);
+        conditioner.convertFrame(frame, 0, null, raw, windowed);
+        for (int end = FRAME_SIZE + hop; end <= pcm.length; end += hop) {
+            float[] t = prev;
+            prev = raw;
+            raw = t;
+            System.arraycopy(pcm, end - FRAME_SIZE, frame, 0, FRAME_SIZE);
+            conditioner.convertHop(frame, 0, hop, prev, raw, windowed);
+            assertFrame("frame ending at " + end, expected, end - FRAME_SIZE, raw);
+            // A whole frame after the hops follows on from them as well.
+            if (end + FRAME_SIZE == pcm.length) {
+                System.arraycopy(pcm, end, frame, 0, FRAME_SIZE);
+                conditioner.convertFrame(frame, 0, null, raw, windowed);
+                assertFrame("last frame", expected, end, raw);
+                return;
+            }
+        }
+        fail("the hops never reached the last frame");
+    }
+
+    @Test
+    public void resetStartsTheFilterAfresh() throws Exception {
+        short[] pcm = signal(2 * FRAME_SIZE);
+        short[] second = new short[FRAME_SIZE];
+        System.arraycopy(pcm, FRAME_SIZE, second, 0, FRAME_SIZE);
+        float[] expected = filtered(second);
+        SignalConditioner conditioner = new SignalConditioner(FRAME_SIZE, AudioDopplerConfiguration.WINDOW_HANN, CUTOFF, SAMPLING_RATE);
+        float[] raw = new float[FRAME_SIZE];
+        float[] windowed = new float[FRAME_SIZE];
+        conditioner.convertFrame(pcm, 0, null, raw, windowed);
+        conditioner.reset();
+        conditioner.convertFrame(second, 0, null, raw, windowed);
+        assertFrame("frame after reset", expected, 0, raw);
+    }
+}
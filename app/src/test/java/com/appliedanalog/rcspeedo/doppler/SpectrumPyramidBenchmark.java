@@ -0,0 +1,60 @@
+package com.appliedanalog.rcspeedo.doppler;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Times AudioDoppler.process() on synthetic fly-bys with plain 512 and 4096 point frames and with a
+ * 512/1024/4096 point SpectrumPyramid, against the time a hop of audio takes to arrive.
+ * SpectrumPyramidTest checks what the pyramid detects.
+ */
+public class SpectrumPyramidBenchmark {
+    static final int SAMPLING_RATE = FlyBys.SAMPLING_RATE;
+    static final int HOP = 512;
+    static final int WARMUP_RUNS = 5;
+    static final int TIMED_RUNS = 20;
+
+    static class Counter implements SpeedSink {
+        int mSpeeds = 0;
+
+        @Override
+        public void speedDetected(double aSpeed, double aWeight, float aFromFreq, float aToFreq, int aFrame) {
+            mSpeeds++;
+        }
+    }
+
+    // Runs aPcm through a new AudioDoppler, returning the fastest run's time per hop in microseconds.
+    static double timePerHop(AudioDopplerConfiguration aConfig, short[] aPcm, Counter aCounter) {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < WARMUP_RUNS + TIMED_RUNS; run++) {
+            AudioDoppler doppler = new AudioDoppler(aConfig, SAMPLING_RATE);
+            Counter counter = new Counter();
+            long start = System.nanoTime();
+            doppler.process(aPcm, 0, aPcm.length, counter);
+            if (run >= WARMUP_RUNS) {
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            aCounter.mSpeeds = counter.mSpeeds;
+        }
+        return best / 1000. / (aPcm.length / HOP);
+    }
+
+    @Test
+    public void processingTimePerHop() throws Exception {
+        short[] pcm = FlyBys.varied(11).passes(6).synthesize();
+        double budget = HOP * 1000000. / SAMPLING_RATE;
+        AudioDopplerConfiguration[] configs = {
+                AudioDopplerConfiguration.DEFAULT.scaleFrameSize(HOP),
+                AudioDopplerConfiguration.DEFAULT.scaleFrameSize(4096).scaleSamplesPerFrame(HOP),
+                AudioDopplerConfiguration.DEFAULT.scaleFrameSize(4096).setPyramid(true) };
+        String[] names = { "512 points", "4096 points", "pyramid" };
+        Counter counter = new Counter();
+        for (int c = 0; c < configs.length; c++) {
+            assertEquals(HOP, configs[c].getHopSize());
+            double perHop = timePerHop(configs[c], pcm, counter);
+            System.out.println(String.format("SpectrumPyramidBenchmark: %s, %.1f us/hop of %.0f, %d speeds",
+                    names[c], perHop, budget, counter.mSpeeds));
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.appliedanalog.rcspeedo.doppler;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that a 512/1024/4096 point SpectrumPyramid hops like its smallest frame and detects every pass.
+ */
+public class SpectrumPyramidTest {
+    static final int SAMPLING_RATE = FlyBys.SAMPLING_RATE;
+    static final AudioDopplerConfiguration PYRAMID = AudioDopplerConfiguration.DEFAULT.scaleFrameSize(4096).setPyramid(true);
+
+    @Test
+    public void hopsLikeItsSmallestFrame() throws Exception {
+        assertEquals(512, PYRAMID.getHopSize());
+    }
+
+    static FlyBys.Recorder run(AudioDopplerConfiguration aConfig, short[] aPcm) {
+        AudioDoppler doppler = new AudioDoppler(aConfig, SAMPLING_RATE);
+        FlyBys.Recorder recorder = new FlyBys.Recorder();
+        doppler.process(aPcm, 0, aPcm.length, recorder);
+        return recorder;
+    }
+
+    @Test
+    public void pyramidFindsEveryPass() throws Exception {
+        for (double speed : new double[] { 30, 55, 70 }) {
+            short[] pcm = new FlyBys(7).speed(speed).synthesize();
+            FlyBys.Recorder pyramid = run(PYRAMID, pcm);
+            FlyBys.Recorder plain = run(AudioDopplerConfiguration.DEFAULT.scaleFrameSize(512), pcm);
+            assertEquals(FlyBys.PASSES, pyramid.reports(50));
+            // About as precise as the smallest frame alone, which reads slow passes 10m away a little low.
+            assertEquals("speeds at " + speed + "m/s", plain.meanError(speed), pyramid.meanError(speed), 1.);
+        }
+    }
+
+    @Test
+    public void steadyDroneReportsNothing() throws Exception {
+        assertTrue(run(PYRAMID, new FlyBys(7).speed(0).synthesize()).mSpeeds.isEmpty());
+    }
+}
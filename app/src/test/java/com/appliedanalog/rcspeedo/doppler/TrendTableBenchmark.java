@@ -0,0 +1,53 @@
+package com.appliedanalog.rcspeedo.doppler;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Times AudioDoppler.process() on synthetic fly-bys at 1024, 2048 and 4096 point frames, to track
+ * regressions of the peak, trend and speed passes along with the transform they follow.
+ */
+public class TrendTableBenchmark {
+    static final int SAMPLING_RATE = FlyBys.SAMPLING_RATE;
+    static final int HOP = 512;
+    static final int WARMUP_RUNS = 10;
+    static final int TIMED_RUNS = 40;
+
+    static class Counter implements SpeedSink {
+        int mSpeeds;
+
+        @Override
+        public void speedDetected(double aSpeed, double aWeight, float aFromFreq, float aToFreq, int aFrame) {
+            mSpeeds++;
+        }
+    }
+
+    static long time(AudioDopplerConfiguration aConfig, short[] aPcm, Counter aCounter) {
+        AudioDoppler doppler = new AudioDoppler(aConfig, SAMPLING_RATE);
+        long start = System.nanoTime();
+        doppler.process(aPcm, 0, aPcm.length, aCounter);
+        return System.nanoTime() - start;
+    }
+
+    @Test
+    public void processTimePerFrame() throws Exception {
+        short[] pcm = FlyBys.varied(11).passes(6).synthesize();
+        for (int frameSize = 1024; frameSize <= 4096; frameSize *= 2) {
+            AudioDopplerConfiguration config = new AudioDopplerConfiguration(500.f, 10000.f, 15, 3, 15, 55, 250.f, 20.f, 10, 10)
+                    .scaleFrameSize(frameSize).scaleSamplesPerFrame(HOP);
+            Counter counter = new Counter();
+            // The fastest run is reported, as it is the one least disturbed by the rest of the system.
+            long best = Long.MAX_VALUE;
+            for (int run = 0; run < WARMUP_RUNS + TIMED_RUNS; run++) {
+                long time = time(config, pcm, counter);
+                if (run >= WARMUP_RUNS) {
+                    best = Math.min(best, time);
+                }
+            }
+            System.out.println(String.format("TrendTableBenchmark: %d points, %.1f us/frame",
+                    frameSize, best / 1000. / (pcm.length / HOP)));
+            assertTrue("no speeds detected at " + frameSize + " points", counter.mSpeeds > 0);
+        }
+    }
+}
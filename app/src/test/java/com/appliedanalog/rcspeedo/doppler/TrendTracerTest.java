@@ -0,0 +1,54 @@
+package com.appliedanalog.rcspeedo.doppler;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the TrendTracer ring and that AudioDoppler reports its trend events to an attached tracer.
+ */
+public class TrendTracerTest {
+    static String export(TrendTracer aTracer) {
+        StringWriter out = new StringWriter();
+        aTracer.export(new PrintWriter(out));
+        return out.toString();
+    }
+
+    @Test
+    public void keepsMostRecentEvents() throws Exception {
+        TrendTracer tracer = new TrendTracer(3);
+        for (int frame = 1; frame <= 5; frame++) {
+            tracer.record(frame, TrendTracer.EVENT_PEAKED, frame * 10, frame, frame * 100.f);
+        }
+        assertEquals(3, tracer.size());
+        assertEquals(5, tracer.getRecorded());
+        String[] lines = export(tracer).split("\\r?\\n");
+        assertEquals(4, lines.length);
+        assertEquals("3,peaked,30,3,300.0", lines[1]);
+        assertEquals("5,peaked,50,5,500.0", lines[3]);
+    }
+
+    @Test
+    public void recordsSpeedsOfTrackedPasses() throws Exception {
+        AudioDopplerConfiguration config = AudioDopplerConfiguration.DEFAULT.scaleFrameSize(512);
+        AudioDoppler doppler = new AudioDoppler(config, FlyBys.SAMPLING_RATE);
+        TrendTracer tracer = new TrendTracer(10000);
+        doppler.setTracer(tracer);
+        short[] pcm = FlyBys.varied(3).passes(4).synthesize();
+        final int[] speeds = new int[1];
+        doppler.process(pcm, 0, pcm.length, new SpeedSink() {
+            @Override
+            public void speedDetected(double aSpeed, double aWeight, float aFromFreq, float aToFreq, int aFrame) {
+                speeds[0]++;
+            }
+        });
+        assertTrue(speeds[0] > 0);
+        String trace = export(tracer);
+        assertTrue(trace.contains(",peaked,"));
+        assertTrue(trace.contains(",lost,"));
+        assertTrue(trace.contains(",speed,"));
+    }
+}
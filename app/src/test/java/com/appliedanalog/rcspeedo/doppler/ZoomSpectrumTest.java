@@ -0,0 +1,55 @@
+package com.appliedanalog.rcspeedo.doppler;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks both zoom spectrum paths, the zero-padded FFT and the chirp-z transform, against a direct
+ * DFT of the zero-padded frame over the band.
+ */
+public class ZoomSpectrumTest {
+    static final float SAMPLING_RATE = 22050.f;
+
+    static void assertMatchesDirectDft(int aFrameSize, int aZoom, float aFreqLow, float aFreqHigh, boolean aChirpZ) {
+        ZoomSpectrum zoom = new ZoomSpectrum(aFrameSize, aZoom, SAMPLING_RATE, aFreqLow, aFreqHigh);
+        assertEquals("path for " + aFreqLow + "-" + aFreqHigh + "Hz at zoom " + aZoom, aChirpZ, zoom.usesChirpZ());
+        assertEquals(aFrameSize * aZoom, zoom.timeSize());
+        zoom.setScale(FourierTransform.SCALE_POWER);
+        float[] frame = FFTTest.noise(aFrameSize, aFrameSize + aZoom);
+        // Two tones between the bins of a plain FFT, inside the band.
+        for (int n = 0; n < aFrameSize; n++) {
+            frame[n] += 5. * Math.sin(2. * Math.PI * n * (aFreqLow + (aFreqHigh - aFreqLow) * .3) / SAMPLING_RATE)
+                    + 3. * Math.sin(2. * Math.PI * n * (aFreqLow + (aFreqHigh - aFreqLow) * .71) / SAMPLING_RATE);
+        }
+        zoom.forward(frame);
+        float[] padded = new float[aFrameSize * aZoom];
+        System.arraycopy(frame, 0, padded, 0, aFrameSize);
+        double[][] expected = FFTTest.directDft(padded);
+        int lowBin = zoom.freqToIndex(aFreqLow);
+        int highBin = zoom.freqToIndex(aFreqHigh);
+        float[] spectrum = zoom.getSpectrum();
+        for (int k = 0; k < spectrum.length; k++) {
+            double power = expected[0][k] * expected[0][k] + expected[1][k] * expected[1][k];
+            double want = k < lowBin || k > highBin ? 0. : power;
+            assertEquals("bin " + k + " of " + aFreqLow + "-" + aFreqHigh + "Hz at zoom " + aZoom,
+                    want, spectrum[k], 1e-3 * Math.max(aFrameSize, want));
+        }
+    }
+
+    @Test
+    public void paddedFftMatchesDirectDft() throws Exception {
+        // The band of the presets at their frame size.
+        AudioDopplerConfiguration config = AudioDopplerConfiguration.CFG_200_PLUS;
+        assertMatchesDirectDft(config.getFrameSize(), 2, config.getFreqMin(), config.getFreqMax(), false);
+        assertMatchesDirectDft(512, 2, 300.f, 9000.f, false);
+    }
+
+    @Test
+    public void chirpZMatchesDirectDft() throws Exception {
+        // Narrow bands at zooms large enough that the padded FFT costs more.
+        assertMatchesDirectDft(512, 16, 1000.f, 1800.f, true);
+        assertMatchesDirectDft(256, 16, 2000.f, 2600.f, true);
+        assertMatchesDirectDft(128, 32, 500.f, 700.f, true);
+    }
+}